@@ -33,6 +33,9 @@ package com.sun.tools.hat;
 
 import java.io.IOException;
 import java.io.File;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.Future;
 
 import com.sun.tools.hat.internal.lang.guava.GuavaRuntime;
 import com.sun.tools.hat.internal.lang.jruby12.JRuby12Runtime;
@@ -40,6 +43,7 @@ import com.sun.tools.hat.internal.lang.jruby16.JRuby16Runtime;
 import com.sun.tools.hat.internal.lang.jruby17.JRuby17Runtime;
 import com.sun.tools.hat.internal.lang.openjdk6.OpenJDK6Runtime;
 import com.sun.tools.hat.internal.lang.openjdk7.OpenJDK7Runtime;
+import com.sun.tools.hat.internal.model.BaselineIndex;
 import com.sun.tools.hat.internal.model.Snapshot;
 import com.sun.tools.hat.internal.model.ReachableExcludesImpl;
 import com.sun.tools.hat.internal.parser.LoadProgress;
@@ -60,12 +64,14 @@ public class Main {
         if ( message != null ) {
             System.err.println("ERROR: " + message);
         }
-        System.err.println("Usage:  jhat [-stack <bool>] [-refs <bool>] [-port <port>] [-baseline <file>] [-debug <int>] [-version] [-h|-help] <file>");
+        System.err.println("Usage:  jhat [-stack <bool>] [-refs <bool>] [-referees <bool>] [-index <bool>] [-port <port>] [-baseline <file>] [-debug <int>] [-version] [-h|-help] <file>");
         System.err.println();
         System.err.println("\t-J<flag>          Pass <flag> directly to the runtime system. For");
         System.err.println("\t\t\t  example, -J-mx512m to use a maximum heap size of 512MB");
         System.err.println("\t-stack false:     Turn off tracking object allocation call stack.");
         System.err.println("\t-refs false:      Turn off tracking of references to objects");
+        System.err.println("\t-referees false:  Turn off indexing of references from objects");
+        System.err.println("\t-index false:     Don't read or write an index file next to the dump");
         System.err.println("\t-port <port>:     Set the port for the HTTP server.  Defaults to 7000");
         System.err.println("\t-exclude <file>:  Specify a file that lists data members that should");
         System.err.println("\t\t\t  be excluded from the reachableFrom query.");
@@ -74,7 +80,8 @@ public class Main {
         System.err.println("\t\t\t  be marked as not being \"new\".");
         System.err.println("\t-debug <int>:     Set debug level.");
         System.err.println("\t\t\t    0:  No debug output");
-        System.err.println("\t\t\t    1:  Debug hprof file parsing");
+        System.err.println("\t\t\t    1:  Debug hprof file parsing, and warn of");
+        System.err.println("\t\t\t        unresolved object references");
         System.err.println("\t\t\t    2:  Debug hprof file parsing, no server");
         System.err.println("\t-version          Report version number");
         System.err.println("\t-h|-help          Print this help and exit");
@@ -111,6 +118,8 @@ public class Main {
         int portNumber = 7000;
         boolean callStack = true;
         boolean calculateRefs = true;
+        boolean indexReferees = true;
+        boolean useIndex = true;
         String baselineDump = null;
         String excludeFileName = null;
         int debugLevel = 0;
@@ -137,6 +146,10 @@ public class Main {
                 callStack = booleanValue(value);
             } else if ("-refs".equals(key)) {
                 calculateRefs = booleanValue(value);
+            } else if ("-referees".equals(key)) {
+                indexReferees = booleanValue(value);
+            } else if ("-index".equals(key)) {
+                useIndex = booleanValue(value);
             } else if ("-port".equals(key)) {
                 portNumber = Integer.parseInt(value, 10);
             } else if ("-exclude".equals(key)) {
@@ -175,20 +188,46 @@ public class Main {
             System.out.println("Server is listening.");
         }
 
+        // The baseline is only needed once the snapshot is resolved, so
+        // read it at the same time, on a pool of its own: its parallel
+        // streams then run there rather than in the common pool.
+        ForkJoinPool baselinePool = null;
+        Future<BaselineIndex> baselineIds = null;
+        if (baselineDump != null) {
+            String baselineFile = baselineDump;
+            int baselineDebugLevel = debugLevel;
+            baselinePool = new ForkJoinPool(Math.max(1,
+                    Runtime.getRuntime().availableProcessors() / 2));
+            System.out.println("Reading baseline object ids from " + baselineFile + "...");
+            baselineIds = baselinePool.submit(() -> Reader.readIds(
+                    loadProgress, baselineFile, baselineDebugLevel));
+        }
+
         System.out.println("Reading from " + fileName + "...");
-        Snapshot model = Reader.readFile(loadProgress, fileName, callStack, debugLevel);
+        Snapshot model = Reader.readFile(loadProgress, fileName, callStack, useIndex, debugLevel);
         System.out.println("Snapshot read, resolving...");
-        model.resolve(loadProgress, calculateRefs);
+        model.resolve(loadProgress, calculateRefs, indexReferees);
+        if (debugLevel > 0) {
+            model.validateReferences();
+        }
         System.out.println("Snapshot resolved.");
 
         if (excludeFile != null) {
             model.setReachableExcludes(new ReachableExcludesImpl(excludeFile));
         }
 
-        if (baselineDump != null) {
-            System.out.println("Reading baseline snapshot...");
-            Snapshot baseline = Reader.readFile(loadProgress, baselineDump, false, debugLevel);
-            baseline.resolve(loadProgress, false);
+        if (baselineIds != null) {
+            BaselineIndex baseline;
+            try {
+                baseline = baselineIds.get();
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof IOException) {
+                    throw (IOException) e.getCause();
+                }
+                throw new RuntimeException(e.getCause());
+            } finally {
+                baselinePool.shutdown();
+            }
             System.out.println("Discovering new objects...");
             model.markNewRelativeTo(baseline);
             baseline = null;    // Guard against conservative GC
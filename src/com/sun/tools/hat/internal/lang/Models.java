@@ -33,11 +33,15 @@
 
 package com.sun.tools.hat.internal.lang;
 
+import java.nio.ByteBuffer;
 import java.nio.CharBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
 import java.util.Arrays;
 
 import com.google.common.base.Preconditions;
 import com.google.common.collect.ImmutableList;
+import com.sun.tools.hat.internal.model.JavaByte;
 import com.sun.tools.hat.internal.model.JavaClass;
 import com.sun.tools.hat.internal.model.JavaInt;
 import com.sun.tools.hat.internal.model.JavaObject;
@@ -124,7 +128,15 @@ public final class Models {
             JavaValueArray value = safeCast(obj.getField("value"), JavaValueArray.class);
             JavaInt offset = safeCast(obj.getField("offset"), JavaInt.class);
             JavaInt count = safeCast(obj.getField("count"), JavaInt.class);
-            if (value != null) {
+            if (value != null && value.getElementType() == 'B') {
+                // Compact strings (Java 9+): Latin-1, or UTF-16 in the
+                // platform's byte order when coder is 1.
+                JavaByte coder = safeCast(obj.getField("coder"), JavaByte.class);
+                byte[] bytes = (byte[]) value.getElements();
+                Charset charset = coder != null && coder.value != 0
+                        ? StandardCharsets.UTF_16LE : StandardCharsets.ISO_8859_1;
+                return charset.decode(ByteBuffer.wrap(bytes));
+            } else if (value != null) {
                 if (offset != null && count != null) {
                     return CharBuffer.wrap((char[]) value.getElements(), offset.value, count.value);
                 } else {
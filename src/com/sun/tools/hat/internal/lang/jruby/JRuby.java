@@ -148,8 +148,8 @@ public abstract class JRuby implements ModelFactory {
     }
 
     protected ScalarModel makeBasicObject(JavaObject obj) {
-        return obj == never ? neverScalar
-                : obj == undef ? undefScalar
+        return obj.equals(never) ? neverScalar
+                : obj.equals(undef) ? undefScalar
                 : null;
     }
 
@@ -63,7 +63,7 @@ public class JRubyStruct extends SimpleObjectModel {
         while (cls.getField("varTable") == factory.getNullThing()) {
             if (structClass == null)
                 structClass = Models.getFieldObjectChain(cls, "runtime", "structClass");
-            if (cls == structClass)
+            if (cls.equals(structClass))
                 break;
             cls = Models.getFieldObject(cls, "superClass");
         }
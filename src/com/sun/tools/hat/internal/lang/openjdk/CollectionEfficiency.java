@@ -0,0 +1,281 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.lang.openjdk;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.sun.tools.hat.internal.model.JavaClass;
+import com.sun.tools.hat.internal.model.JavaHeapObject;
+import com.sun.tools.hat.internal.model.JavaObject;
+import com.sun.tools.hat.internal.model.JavaObjectArray;
+import com.sun.tools.hat.internal.model.JavaThing;
+import com.sun.tools.hat.internal.model.Snapshot;
+
+/**
+ * How well the JDK collections in the heap use their space: which are
+ * empty, which fill little of their backing arrays, and how many bytes
+ * that wastes, by collection class and by the class of the object that
+ * holds each collection.
+ *
+ * <p>Every {@code HashMap}, {@code Hashtable}, {@code ArrayList},
+ * {@code Vector} and (since Java 8) {@code ConcurrentHashMap}, and their
+ * subclasses, is looked at in parallel, apart from the {@code Properties}
+ * that keep their entries in a map of their own.  Only their size fields and the
+ * lengths of their backing arrays are read, by field slot, as
+ * {@link JavaVector} and the other models would take too long to build
+ * for every collection in the heap.
+ */
+public final class CollectionEfficiency {
+    // Collections that fill at most this much of their backing arrays
+    // have a low fill ratio.
+    private static final double LOW_FILL = 0.25;
+    // How full hash tables get before they grow, by default.
+    private static final double LOAD_FACTOR = 0.75;
+
+    /**
+     * Totals for some of the collections of one class.
+     */
+    public static final class Totals {
+        private final JavaClass collectionClass;
+        private final JavaClass ownerClass;
+        private int count;
+        private int emptyCount;
+        private int lowFillCount;
+        private long wastedSize;
+
+        private Totals(JavaClass collectionClass, JavaClass ownerClass) {
+            this.collectionClass = collectionClass;
+            this.ownerClass = ownerClass;
+        }
+
+        public JavaClass getCollectionClass() {
+            return collectionClass;
+        }
+
+        /**
+         * @return the class of the objects holding the collections, or
+         *          null for all of them
+         */
+        public JavaClass getOwnerClass() {
+            return ownerClass;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        public int getEmptyCount() {
+            return emptyCount;
+        }
+
+        /**
+         * @return the number of collections, not counting empty ones, that
+         *          fill at most a quarter of their backing arrays
+         */
+        public int getLowFillCount() {
+            return lowFillCount;
+        }
+
+        /**
+         * @return the bytes taken by empty collections, and by the unused
+         *          slots of the backing arrays of the others, beyond what
+         *          they would need when sized to fit
+         */
+        public long getWastedSize() {
+            return wastedSize;
+        }
+
+        private void add(int empty, int lowFill, long wasted) {
+            count++;
+            emptyCount += empty;
+            lowFillCount += lowFill;
+            wastedSize += wasted;
+        }
+    }
+
+    private static final Ordering<Totals> MOST_WASTED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Totals::getWastedSize);
+
+    //
+    // Where a kind of collection keeps its size and its backing array.
+    //
+    private enum Shape {
+        HASH_MAP("java.util.HashMap", "size", "table", true),
+        HASHTABLE("java.util.Hashtable", "count", "table", true),
+        // Before Java 8, the tables were in segments, which aren't handled.
+        CONCURRENT_HASH_MAP("java.util.concurrent.ConcurrentHashMap", null, "table", true),
+        ARRAY_LIST("java.util.ArrayList", "size", "elementData", false),
+        VECTOR("java.util.Vector", "elementCount", "elementData", false);
+
+        final String className;
+        final String sizeField;
+        final String arrayField;
+        final boolean hashed;
+
+        Shape(String className, String sizeField, String arrayField, boolean hashed) {
+            this.className = className;
+            this.sizeField = sizeField;
+            this.arrayField = arrayField;
+            this.hashed = hashed;
+        }
+    }
+
+    private final ImmutableList<Totals> byClass;
+    private final ImmutableList<Totals> byOwner;
+
+    private CollectionEfficiency(ImmutableList<Totals> byClass, ImmutableList<Totals> byOwner) {
+        this.byClass = byClass;
+        this.byOwner = byOwner;
+    }
+
+    /**
+     * @return the totals for each collection class, most wasted first
+     */
+    public ImmutableList<Totals> getTotalsByClass() {
+        return byClass;
+    }
+
+    /**
+     * @return the totals for each collection class and the class of the
+     *          objects that hold them, most wasted first
+     */
+    public ImmutableList<Totals> getTotalsByOwner() {
+        return byOwner;
+    }
+
+    public static CollectionEfficiency compute(Snapshot snapshot) {
+        // Since Java 9, Properties keeps its entries in a ConcurrentHashMap
+        // of its own, which is counted as such, and leaves its Hashtable
+        // fields empty.
+        JavaClass properties = snapshot.findClass("java.util.Properties");
+        if (properties != null && properties.getFieldSlot("map") == -1) {
+            properties = null;
+        }
+
+        List<JavaHeapObject> collections = new ArrayList<>();
+        List<Shape> shapes = new ArrayList<>();
+        for (Shape shape : Shape.values()) {
+            JavaClass clazz = snapshot.findClass(shape.className);
+            if (clazz != null && clazz.getFieldSlot(shape.arrayField) != -1) {
+                for (JavaHeapObject obj : clazz.getInstances(true)) {
+                    if (properties != null && properties.isAssignableFrom(obj.getClazz())) {
+                        continue;
+                    }
+                    collections.add(obj);
+                    shapes.add(shape);
+                }
+            }
+        }
+
+        int numCollections = collections.size();
+        byte[] empty = new byte[numCollections];
+        byte[] lowFill = new byte[numCollections];
+        long[] wasted = new long[numCollections];
+        JavaClass[] owners = new JavaClass[numCollections];
+        int idSize = snapshot.getIdentifierSize();
+        IntStream.range(0, numCollections).parallel().forEach(i -> {
+            JavaObject obj = (JavaObject) collections.get(i);
+            Shape shape = shapes.get(i);
+            JavaClass clazz = obj.getClazz();
+            JavaThing array = clazz.getRefField(obj, clazz.getFieldSlot(shape.arrayField));
+            int capacity = array instanceof JavaObjectArray
+                    ? ((JavaObjectArray) array).getLength() : 0;
+            long size = shape.sizeField != null
+                    ? clazz.getIntField(obj, clazz.getFieldSlot(shape.sizeField))
+                    : getConcurrentHashMapSize(obj);
+            if (size == 0) {
+                empty[i] = 1;
+                wasted[i] = obj.getSize() + (capacity == 0 ? 0 : ((JavaHeapObject) array).getSize());
+            } else {
+                if (size <= capacity * LOW_FILL) {
+                    lowFill[i] = 1;
+                }
+                long needed = shape.hashed ? tableSizeFor((long) Math.ceil(size / LOAD_FACTOR)) : size;
+                wasted[i] = Math.max(0, capacity - needed) * idSize;
+            }
+            owners[i] = getOwnerClass(obj);
+        });
+
+        Map<JavaClass, Totals> byClass = new HashMap<>();
+        Map<List<JavaClass>, Totals> byOwner = new HashMap<>();
+        for (int i = 0; i < numCollections; i++) {
+            JavaClass clazz = collections.get(i).getClazz();
+            byClass.computeIfAbsent(clazz, c -> new Totals(c, null))
+                    .add(empty[i], lowFill[i], wasted[i]);
+            JavaClass owner = owners[i];
+            byOwner.computeIfAbsent(Arrays.asList(clazz, owner), key -> new Totals(clazz, owner))
+                    .add(empty[i], lowFill[i], wasted[i]);
+        }
+        return new CollectionEfficiency(MOST_WASTED_FIRST.immutableSortedCopy(byClass.values()),
+                                        MOST_WASTED_FIRST.immutableSortedCopy(byOwner.values()));
+    }
+
+    // The number of entries in a ConcurrentHashMap: the base count plus
+    // whatever is in the counter cells.
+    private static long getConcurrentHashMapSize(JavaObject chm) {
+        JavaClass clazz = chm.getClazz();
+        long size = clazz.getLongField(chm, clazz.getFieldSlot("baseCount"));
+        JavaThing cells = clazz.getRefField(chm, clazz.getFieldSlot("counterCells"));
+        if (cells instanceof JavaObjectArray) {
+            for (JavaThing cell : ((JavaObjectArray) cells).getElements()) {
+                if (cell instanceof JavaObject) {
+                    JavaObject counter = (JavaObject) cell;
+                    JavaClass counterClass = counter.getClazz();
+                    size += counterClass.getLongField(counter, counterClass.getFieldSlot("value"));
+                }
+            }
+        }
+        return size;
+    }
+
+    // The smallest power of two that is at least n, as hash tables use.
+    private static long tableSizeFor(long n) {
+        return n <= 1 ? 1 : Long.highestOneBit(n - 1) << 1;
+    }
+
+    // The class of the first object that refers to obj, or the class
+    // itself if that's a static field; null if nothing refers to obj.
+    private static JavaClass getOwnerClass(JavaHeapObject obj) {
+        for (JavaHeapObject referer : obj.getReferers()) {
+            return referer instanceof JavaClass ? (JavaClass) referer : referer.getClazz();
+        }
+        return null;
+    }
+}
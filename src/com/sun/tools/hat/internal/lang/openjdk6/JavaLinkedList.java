@@ -45,7 +45,7 @@ class JavaLinkedList extends SimpleCollectionModel {
     private static ImmutableList<JavaThing> getCollectionImpl(JavaObject header) {
         ImmutableList.Builder<JavaThing> builder = ImmutableList.builder();
         for (JavaObject entry = Models.getFieldObject(header, "next");
-                entry != header; entry = Models.getFieldObject(entry, "next")) {
+                !header.equals(entry); entry = Models.getFieldObject(entry, "next")) {
             if (entry == null)
                 return null;
             builder.add(entry.getField("element"));
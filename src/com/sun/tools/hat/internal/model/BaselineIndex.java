@@ -0,0 +1,129 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.stream.IntStream;
+
+/**
+ * The objects of a baseline dump, read without their contents: the id of
+ * each object and the name of its class, in a table sorted by id, and the
+ * histogram of its classes.  That is all that comparing a dump with the
+ * baseline needs, and it takes a small fraction of the memory of a
+ * snapshot of the baseline.
+ */
+public final class BaselineIndex {
+    private final long[] ids;
+    private final int[] classNames;
+    private final Map<String, Integer> nameIndexes = new HashMap<>();
+    private final ClassHistogram histogram;
+
+    /**
+     * Makes the index from the objects of the baseline, in file order,
+     * and the counts and total sizes of the instances of each class.  A
+     * later object with the same id as an earlier one replaces it, as in
+     * a snapshot.
+     *
+     * @param ids the id of each object
+     * @param classNames the class name of each object, as an index into
+     *          {@code names}
+     * @param names the class names
+     * @param counts the number of instances of the classes of each name
+     * @param sizes the total size of the instances of each name
+     */
+    public BaselineIndex(long[] ids, int[] classNames, List<String> names,
+                         long[] counts, long[] sizes) {
+        Map<String, ClassHistogram.Entry> entries = new HashMap<>();
+        for (int i = 0; i < names.size(); i++) {
+            nameIndexes.put(names.get(i), i);
+            if (counts[i] != 0) {
+                entries.put(names.get(i), new ClassHistogram.Entry(names.get(i),
+                                                                   counts[i], sizes[i]));
+            }
+        }
+        this.histogram = new ClassHistogram(entries);
+
+        // Sort the ids, then put each object's class name where its id
+        // ended up.
+        long[] sorted = ids.clone();
+        Arrays.parallelSort(sorted);
+        int unique = 0;
+        for (int i = 0; i < sorted.length; i++) {
+            if (i == 0 || sorted[i] != sorted[i - 1]) {
+                sorted[unique++] = sorted[i];
+            }
+        }
+        this.ids = unique == sorted.length ? sorted : Arrays.copyOf(sorted, unique);
+        this.classNames = new int[unique];
+        if (unique == ids.length) {
+            IntStream.range(0, ids.length).parallel().forEach(i ->
+                    this.classNames[Arrays.binarySearch(this.ids, ids[i])] = classNames[i]);
+        } else {
+            // in order, so that later objects win
+            for (int i = 0; i < ids.length; i++) {
+                this.classNames[Arrays.binarySearch(this.ids, ids[i])] = classNames[i];
+            }
+        }
+    }
+
+    /**
+     * @return the number of objects in the baseline
+     */
+    public int size() {
+        return ids.length;
+    }
+
+    /**
+     * @return the instances of each class in the baseline
+     */
+    public ClassHistogram getHistogram() {
+        return histogram;
+    }
+
+    // The baseline's number for the given class name, or -1 if no
+    // object in the baseline is of a class of that name.
+    int getNameIndex(String className) {
+        Integer index = nameIndexes.get(className);
+        return index != null ? index : -1;
+    }
+
+    // The number of the class name of the object with the given id, or
+    // -1 if there is no such object in the baseline.
+    int getClassNameOf(long id) {
+        int pos = Arrays.binarySearch(ids, id);
+        return pos >= 0 ? classNames[pos] : -1;
+    }
+}
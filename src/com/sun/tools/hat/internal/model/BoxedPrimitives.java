@@ -0,0 +1,286 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+import com.sun.tools.hat.internal.parser.ReadBuffer;
+import com.sun.tools.hat.internal.util.LongIntMap;
+
+/**
+ * The boxed primitives in the heap ({@code Integer}, {@code Long} and so
+ * on), how many distinct values they hold, and how many bytes could be
+ * saved by keeping the values in primitive collections instead, by box
+ * class and by the class of what refers to them.
+ *
+ * <p>A box that's kept in an object array is counted against whatever
+ * holds the array, which is usually a collection.  The bytes saved are
+ * the size of each box, less the difference between the size of its
+ * value and the size of a reference, for each object that refers to it.
+ */
+public final class BoxedPrimitives {
+    private static final String[] BOX_CLASSES = {
+        "java.lang.Boolean", "java.lang.Byte", "java.lang.Character",
+        "java.lang.Short", "java.lang.Integer", "java.lang.Long",
+        "java.lang.Float", "java.lang.Double"
+    };
+
+    /**
+     * Totals for some of the boxes of one class.
+     */
+    public static final class Totals {
+        private final JavaClass boxClass;
+        private final JavaClass ownerClass;
+        private int count;
+        private int distinctCount;
+        private long savedSize;
+
+        private Totals(JavaClass boxClass, JavaClass ownerClass) {
+            this.boxClass = boxClass;
+            this.ownerClass = ownerClass;
+        }
+
+        public JavaClass getBoxClass() {
+            return boxClass;
+        }
+
+        /**
+         * @return the class of what refers to the boxes, or null for
+         *          boxes that nothing refers to, or for all of them
+         */
+        public JavaClass getOwnerClass() {
+            return ownerClass;
+        }
+
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the number of distinct values the boxes hold
+         */
+        public int getDistinctCount() {
+            return distinctCount;
+        }
+
+        /**
+         * @return the bytes that could be saved by not boxing the values
+         */
+        public long getSavedSize() {
+            return savedSize;
+        }
+    }
+
+    private static final Ordering<Totals> MOST_SAVED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Totals::getSavedSize);
+
+    private final ImmutableList<Totals> byClass;
+    private final ImmutableList<Totals> byOwner;
+
+    private BoxedPrimitives(ImmutableList<Totals> byClass, ImmutableList<Totals> byOwner) {
+        this.byClass = byClass;
+        this.byOwner = byOwner;
+    }
+
+    /**
+     * @return the totals for each box class, most saved first
+     */
+    public ImmutableList<Totals> getTotalsByClass() {
+        return byClass;
+    }
+
+    /**
+     * @return the totals for each box class and the class of what refers
+     *          to the boxes, most saved first
+     */
+    public ImmutableList<Totals> getTotalsByOwner() {
+        return byOwner;
+    }
+
+    static BoxedPrimitives compute(Snapshot snapshot) {
+        List<JavaClass> boxClasses = new ArrayList<>();
+        for (String name : BOX_CLASSES) {
+            JavaClass clazz = snapshot.findClass(name);
+            if (clazz != null && clazz.getFieldSlot("value") != -1
+                    && clazz.getInstancesCount(false) > 0) {
+                boxClasses.add(clazz);
+            }
+        }
+        int numBoxes = 0;
+        for (JavaClass clazz : boxClasses) {
+            numBoxes += clazz.getInstancesCount(false);
+        }
+        int[] boxes = new int[numBoxes];
+        int[] kinds = new int[numBoxes];
+        for (int k = 0, n = 0; k < boxClasses.size(); k++) {
+            JavaClass clazz = boxClasses.get(k);
+            int count = clazz.getInstancesCount(false);
+            System.arraycopy(clazz.getInstanceIndexes(), 0, boxes, n, count);
+            Arrays.fill(kinds, n, n + count, k);
+            n += count;
+        }
+
+        // Read each box's value and find its owner, in parallel.
+        long[] values = new long[numBoxes];
+        long[] saved = new long[numBoxes];
+        JavaClass[] owners = new JavaClass[numBoxes];
+        ReadBuffer buf = snapshot.getReadBuffer();
+        int idSize = snapshot.getIdentifierSize();
+        EdgeIndex referers = snapshot.getRefererIndex();
+        IntStream.range(0, numBoxes).parallel().forEach(i -> {
+            JavaObject box = (JavaObject) snapshot.getThingAt(boxes[i]);
+            FieldLayout layout = boxClasses.get(kinds[i]).getFieldLayout();
+            int slot = layout.getSlot("value");
+            long pos = box.getFieldsOffset() + layout.getOffset(slot);
+            int valueSize;
+            try {
+                switch (layout.getType(slot)) {
+                    case 'Z':
+                    case 'B':
+                        values[i] = buf.getByte(pos);
+                        valueSize = 1;
+                        break;
+                    case 'S':
+                    case 'C':
+                        values[i] = buf.getShort(pos);
+                        valueSize = 2;
+                        break;
+                    case 'I':
+                    case 'F':
+                        values[i] = buf.getInt(pos);
+                        valueSize = 4;
+                        break;
+                    default:
+                        values[i] = buf.getLong(pos);
+                        valueSize = 8;
+                        break;
+                }
+            } catch (IOException exp) {
+                throw new RuntimeException(exp);
+            }
+            int numReferers = referers.end(boxes[i]) - referers.start(boxes[i]);
+            saved[i] = box.getSize() + (long) numReferers * (idSize - valueSize);
+            owners[i] = getOwnerClass(snapshot, referers, boxes[i]);
+        });
+
+        // Then add them up, by box class and by owner.
+        LongIntMap groupNumbers = new LongIntMap();
+        List<Totals> groups = new ArrayList<>();
+        int[] groupOf = new int[numBoxes];
+        for (int i = 0; i < numBoxes; i++) {
+            JavaClass owner = owners[i];
+            long key = (long) kinds[i] << 32 | (owner == null ? 0 : owner.getIndex() + 1);
+            int group = groupNumbers.get(key);
+            if (group == LongIntMap.NO_VALUE) {
+                group = groups.size();
+                groupNumbers.put(key, group);
+                groups.add(new Totals(boxClasses.get(kinds[i]), owner));
+            }
+            groupOf[i] = group;
+            groups.get(group).count++;
+            groups.get(group).savedSize += saved[i];
+        }
+        int[] distinct = countDistinct(values, groupOf, groups.size());
+        for (int g = 0; g < groups.size(); g++) {
+            groups.get(g).distinctCount = distinct[g];
+        }
+
+        List<Totals> byClass = new ArrayList<>();
+        for (JavaClass clazz : boxClasses) {
+            byClass.add(new Totals(clazz, null));
+        }
+        for (Totals group : groups) {
+            Totals total = byClass.get(boxClasses.indexOf(group.boxClass));
+            total.count += group.count;
+            total.savedSize += group.savedSize;
+        }
+        distinct = countDistinct(values, kinds, boxClasses.size());
+        for (int k = 0; k < boxClasses.size(); k++) {
+            byClass.get(k).distinctCount = distinct[k];
+        }
+        return new BoxedPrimitives(MOST_SAVED_FIRST.immutableSortedCopy(byClass),
+                                   MOST_SAVED_FIRST.immutableSortedCopy(groups));
+    }
+
+    // The class of the first object that refers to the given object, or
+    // for an object array, to the array; for statics, the class itself.
+    private static JavaClass getOwnerClass(Snapshot snapshot, EdgeIndex referers, int index) {
+        for (int depth = 0; depth < 2; depth++) {
+            if (referers.start(index) == referers.end(index)) {
+                return null;
+            }
+            int referer = referers.target(referers.start(index));
+            JavaHeapObject obj = snapshot.getThingAt(referer);
+            if (obj instanceof JavaClass) {
+                return (JavaClass) obj;
+            } else if (!(obj instanceof JavaObjectArray) || depth == 1) {
+                return obj.getClazz();
+            }
+            index = referer;
+        }
+        return null;
+    }
+
+    // The number of distinct values in each group, by sorting the values
+    // of each group in turn.
+    private static int[] countDistinct(long[] values, int[] groupOf, int numGroups) {
+        int[] starts = new int[numGroups + 1];
+        for (int group : groupOf) {
+            starts[group + 1]++;
+        }
+        for (int g = 0; g < numGroups; g++) {
+            starts[g + 1] += starts[g];
+        }
+        long[] sorted = new long[values.length];
+        int[] next = Arrays.copyOf(starts, numGroups);
+        for (int i = 0; i < values.length; i++) {
+            sorted[next[groupOf[i]]++] = values[i];
+        }
+        int[] distinct = new int[numGroups];
+        IntStream.range(0, numGroups).parallel().forEach(g -> {
+            Arrays.sort(sorted, starts[g], starts[g + 1]);
+            for (int i = starts[g]; i < starts[g + 1]; i++) {
+                if (i == starts[g] || sorted[i] != sorted[i - 1]) {
+                    distinct[g]++;
+                }
+            }
+        });
+        return distinct;
+    }
+}
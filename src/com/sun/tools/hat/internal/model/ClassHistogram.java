@@ -0,0 +1,113 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+
+import com.google.common.collect.ImmutableMap;
+
+/**
+ * The number of instances of each class, and their total size, by class
+ * name.  Classes of the same name from different loaders are counted
+ * together, so that histograms from two dumps can be compared.
+ */
+public final class ClassHistogram {
+    /**
+     * The instances of the classes of one name.
+     */
+    public static final class Entry {
+        private final String className;
+        private final long count;
+        private final long size;
+
+        Entry(String className, long count, long size) {
+            this.className = className;
+            this.count = count;
+            this.size = size;
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the number of instances
+         */
+        public long getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total size of the instances
+         */
+        public long getSize() {
+            return size;
+        }
+
+        private Entry plus(Entry other) {
+            return new Entry(className, count + other.count, size + other.size);
+        }
+    }
+
+    private final ImmutableMap<String, Entry> entries;
+
+    ClassHistogram(Map<String, Entry> entries) {
+        this.entries = ImmutableMap.copyOf(entries);
+    }
+
+    static ClassHistogram compute(Snapshot snapshot) {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        snapshot.getClasses().parallelStream().forEach(clazz -> {
+            Entry entry = new Entry(clazz.getName(), clazz.getInstancesCount(false),
+                                    clazz.getTotalInstanceSize());
+            entries.merge(entry.getClassName(), entry, Entry::plus);
+        });
+        return new ClassHistogram(entries);
+    }
+
+    /**
+     * @return the entries, by class name
+     */
+    public ImmutableMap<String, Entry> getEntries() {
+        return entries;
+    }
+
+    /**
+     * @return the entry for the given class name, or null if there are
+     *          no classes of that name
+     */
+    public Entry get(String className) {
+        return entries.get(className);
+    }
+}
@@ -0,0 +1,184 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.ArrayList;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * The class loaders in the heap, with the classes each one defined, what
+ * those classes and their statics retain, and the shortest strong path
+ * from the rootset that keeps each loader alive.  The paths all come
+ * from one breadth-first search from the rootset, and the retained sizes
+ * from the dominator tree.
+ */
+public final class ClassLoaders {
+    /**
+     * A class loader, or the bootstrap loader.
+     */
+    public static final class Loader {
+        private final JavaHeapObject loader;
+        private final int classCount;
+        private final long classesRetainedSize;
+        private final ReferenceChain path;
+
+        private Loader(JavaHeapObject loader, int classCount,
+                       long classesRetainedSize, ReferenceChain path) {
+            this.loader = loader;
+            this.classCount = classCount;
+            this.classesRetainedSize = classesRetainedSize;
+            this.path = path;
+        }
+
+        /**
+         * @return the loader, or null for the bootstrap loader
+         */
+        public JavaHeapObject getLoader() {
+            return loader;
+        }
+
+        /**
+         * @return the number of classes the loader defined
+         */
+        public int getClassCount() {
+            return classCount;
+        }
+
+        /**
+         * @return the size of the classes the loader defined, with
+         *          everything that they and their statics retain
+         */
+        public long getClassesRetainedSize() {
+            return classesRetainedSize;
+        }
+
+        /**
+         * @return the shortest chain of strong references from the
+         *          rootset to the loader, or null if there is none (or
+         *          this is the bootstrap loader)
+         */
+        public ReferenceChain getPathFromRoot() {
+            return path;
+        }
+    }
+
+    private static final Ordering<Loader> MOST_RETAINED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Loader::getClassesRetainedSize);
+
+    private ClassLoaders() {
+    }
+
+    static ImmutableList<Loader> compute(Snapshot snapshot) {
+        // The classes each loader defined, by loader index (-1 for the
+        // bootstrap loader).
+        Map<Integer, List<JavaClass>> classesByLoader = new HashMap<>();
+        classesByLoader.put(-1, new ArrayList<>());
+        for (JavaHeapObject loader : snapshot.getJavaLangClassLoader().getInstances(true)) {
+            classesByLoader.put(loader.getIndex(), new ArrayList<>());
+        }
+        for (JavaClass clazz : snapshot.getClasses()) {
+            JavaThing loader = clazz.getLoader();
+            int key = loader instanceof JavaHeapObject ? ((JavaHeapObject) loader).getIndex() : -1;
+            classesByLoader.computeIfAbsent(key, k -> new ArrayList<>()).add(clazz);
+        }
+
+        BitSet loaders = new BitSet();
+        for (int index : classesByLoader.keySet()) {
+            if (index != -1) {
+                loaders.set(index);
+            }
+        }
+        int[] parents = MergedRootPaths.findParents(snapshot, loaders, false);
+
+        List<Loader> result = new ArrayList<>();
+        for (Map.Entry<Integer, List<JavaClass>> entry : classesByLoader.entrySet()) {
+            int index = entry.getKey();
+            List<JavaClass> classes = entry.getValue();
+            result.add(new Loader(index == -1 ? null : snapshot.getThingAt(index),
+                                  classes.size(),
+                                  getRetainedSize(snapshot, classes),
+                                  index == -1 ? null : getPath(snapshot, parents, index)));
+        }
+        return MOST_RETAINED_FIRST.immutableSortedCopy(result);
+    }
+
+    // What the given classes retain together, at least: the sum of the
+    // retained sizes of those that no other of the classes dominates,
+    // since what a dominated class retains is in its dominator's size.
+    // The loader itself is no member; it usually dominates its classes,
+    // and would otherwise hide them all.
+    private static long getRetainedSize(Snapshot snapshot, List<JavaClass> classes) {
+        BitSet members = new BitSet();
+        for (JavaClass clazz : classes) {
+            members.set(clazz.getIndex());
+        }
+        long total = 0;
+        for (JavaClass clazz : classes) {
+            if (!snapshot.isReachable(clazz.getIndex())) {
+                total += clazz.getSize();
+                continue;
+            }
+            boolean dominated = false;
+            for (JavaHeapObject dom = snapshot.getDominator(clazz.getIndex()); dom != null;
+                    dom = snapshot.getDominator(dom.getIndex())) {
+                if (members.get(dom.getIndex())) {
+                    dominated = true;
+                    break;
+                }
+            }
+            if (!dominated) {
+                total += snapshot.getRetainedSize(clazz.getIndex());
+            }
+        }
+        return total;
+    }
+
+    // The chain from the rootset to the object at index, if the search
+    // found it.
+    private static ReferenceChain getPath(Snapshot snapshot, int[] parents, int index) {
+        if (parents[index] == MergedRootPaths.UNSEEN) {
+            return null;
+        }
+        ReferenceChain chain = null;
+        for (int obj = index; obj != MergedRootPaths.ROOT; obj = parents[obj]) {
+            chain = new ReferenceChain(snapshot.getThingAt(obj), chain);
+        }
+        return chain;
+    }
+}
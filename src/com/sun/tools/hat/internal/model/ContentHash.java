@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.BitSet;
+
+import com.google.common.hash.HashFunction;
+import com.google.common.hash.Hasher;
+import com.google.common.hash.Hashing;
+import com.sun.tools.hat.internal.parser.ReadBuffer;
+import com.sun.tools.hat.internal.util.LongIntMap;
+
+/**
+ * Hashes of the contents of objects, read straight from the dump, for
+ * finding objects with the same contents.  The hashes are 64 bits, so
+ * objects with the same hash are very likely to have the same contents;
+ * {@link #equal} makes sure.
+ */
+final class ContentHash {
+    private static final HashFunction FUNCTION = Hashing.murmur3_128();
+    // how much of the dump to hash or compare at a time
+    private static final ThreadLocal<byte[]> CHUNKS
+            = ThreadLocal.withInitial(() -> new byte[8192]);
+    private static final ThreadLocal<byte[]> OTHER_CHUNKS
+            = ThreadLocal.withInitial(() -> new byte[8192]);
+
+    private ContentHash() {
+    }
+
+    /**
+     * @return the hash of length bytes of the dump from pos, along with
+     *          a tag telling apart contents that aren't comparable
+     */
+    static long of(ReadBuffer buf, int tag, long pos, int length) throws IOException {
+        Hasher hasher = FUNCTION.newHasher().putInt(tag).putInt(length);
+        byte[] chunk = CHUNKS.get();
+        while (length > 0) {
+            int n = Math.min(length, chunk.length);
+            buf.get(pos, chunk, 0, n);
+            hasher.putBytes(chunk, 0, n);
+            pos += n;
+            length -= n;
+        }
+        return hasher.hash().asLong();
+    }
+
+    /**
+     * @return whether the length bytes of the dump from pos1 are the same
+     *          as those from pos2
+     */
+    static boolean equal(ReadBuffer buf, long pos1, long pos2, int length) throws IOException {
+        byte[] chunk1 = CHUNKS.get();
+        byte[] chunk2 = OTHER_CHUNKS.get();
+        while (length > 0) {
+            int n = Math.min(length, chunk1.length);
+            buf.get(pos1, chunk1, 0, n);
+            buf.get(pos2, chunk2, 0, n);
+            for (int i = 0; i < n; i++) {
+                if (chunk1[i] != chunk2[i]) {
+                    return false;
+                }
+            }
+            pos1 += n;
+            pos2 += n;
+            length -= n;
+        }
+        return true;
+    }
+
+    /**
+     * @return the groups of positions in hashes that have the same hash
+     *          as at least one other, leaving out the positions not set in
+     *          valid; each group is in position order
+     */
+    static int[][] findDuplicates(long[] hashes, BitSet valid) {
+        long[] sorted = new long[valid.cardinality()];
+        for (int i = valid.nextSetBit(0), n = 0; i >= 0; i = valid.nextSetBit(i + 1)) {
+            sorted[n++] = hashes[i];
+        }
+        Arrays.parallelSort(sorted);
+
+        // Number the hashes that come up more than once...
+        LongIntMap groupNumbers = new LongIntMap();
+        int[] sizes = new int[16];
+        for (int start = 0, end; start < sorted.length; start = end) {
+            for (end = start + 1; end < sorted.length && sorted[end] == sorted[start]; end++) {
+            }
+            if (end - start > 1) {
+                int group = groupNumbers.size();
+                if (group == sizes.length) {
+                    sizes = Arrays.copyOf(sizes, group * 2);
+                }
+                groupNumbers.put(sorted[start], group);
+                sizes[group] = end - start;
+            }
+        }
+        sorted = null;
+
+        // ...and put each position in its group.
+        int[][] groups = new int[groupNumbers.size()][];
+        for (int g = 0; g < groups.length; g++) {
+            groups[g] = new int[sizes[g]];
+            sizes[g] = 0;
+        }
+        for (int i = valid.nextSetBit(0); i >= 0; i = valid.nextSetBit(i + 1)) {
+            int group = groupNumbers.get(hashes[i]);
+            if (group != LongIntMap.NO_VALUE) {
+                groups[group][sizes[group]++] = i;
+            }
+        }
+        return groups;
+    }
+}
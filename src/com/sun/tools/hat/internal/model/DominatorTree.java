@@ -0,0 +1,349 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.stream.IntStream;
+
+/**
+ * The dominator tree of the heap: object A dominates object B if every
+ * path from the rootset to B goes through A.  A virtual root stands for
+ * the rootset as a whole, and dominates the objects that no single
+ * object does.  The retained size of an object is the total size of the
+ * objects it dominates, itself included: what would be freed if it were.
+ *
+ * <p>This is worked out with the iterative algorithm of Cooper, Harvey
+ * and Kennedy, over the objects reachable from the rootset numbered in
+ * depth-first postorder, so that it needs only a few int arrays.
+ * Objects that can't be reached from the rootset are in no tree.
+ */
+final class DominatorTree {
+    /** The dominator of the objects that only the rootset dominates. */
+    static final int ROOTSET = -1;
+    /** The dominator of the objects not reachable from the rootset. */
+    static final int UNREACHABLE = -2;
+
+    // immediate dominator of each object, by index, or one of the above
+    private final int[] dominators;
+    // retained size of each object reachable from the rootset
+    private final long[] retainedSizes;
+    // the objects each object dominates; the last row is the rootset's
+    private final EdgeIndex dominated;
+    private final long reachableSize;
+    // retained size of the instances of each class, by class number
+    private final long[] classRetainedSizes;
+
+    private DominatorTree(Snapshot snapshot, int[] dominators,
+                          long[] retainedSizes, EdgeIndex dominated,
+                          long reachableSize) {
+        this.dominators = dominators;
+        this.retainedSizes = retainedSizes;
+        this.dominated = dominated;
+        this.reachableSize = reachableSize;
+        this.classRetainedSizes = computeClassRetainedSizes(snapshot);
+    }
+
+    /**
+     * @return the index of the immediate dominator of the given object,
+     *          or ROOTSET or UNREACHABLE
+     */
+    int getDominator(int index) {
+        return index < dominators.length ? dominators[index] : UNREACHABLE;
+    }
+
+    /**
+     * @return the retained size of the given object, or -1 if it can't
+     *          be reached from the rootset
+     */
+    long getRetainedSize(int index) {
+        return getDominator(index) == UNREACHABLE ? -1 : retainedSizes[index];
+    }
+
+    /**
+     * @return the indexes of the objects the given object (or ROOTSET)
+     *          immediately dominates, in index order
+     */
+    int[] getDominated(int index) {
+        int row = index == ROOTSET ? dominators.length : index;
+        return Arrays.copyOfRange(dominated.getTargets(),
+                                  dominated.start(row), dominated.end(row));
+    }
+
+    /**
+     * @return the total size of the objects reachable from the rootset
+     */
+    long getReachableSize() {
+        return reachableSize;
+    }
+
+    /**
+     * @return the retained size of the instances of the class with the
+     *          given number, taken together
+     */
+    long getClassRetainedSize(int classNumber) {
+        return classNumber < classRetainedSizes.length
+                ? classRetainedSizes[classNumber] : 0;
+    }
+
+    //
+    // The instances of a class, taken together, retain what each of them
+    // retains, except those dominated by another instance, which that
+    // one's retained size already counts.  So walk down the tree, keeping
+    // count of the instances of each class above the current object.
+    // The subtrees of the rootset are walked in parallel.
+    //
+    private long[] computeClassRetainedSizes(Snapshot snapshot) {
+        final int numClasses = snapshot.getClassList().size();
+        final int root = dominators.length;
+        List<long[]> allSums = new CopyOnWriteArrayList<>();
+        ThreadLocal<long[]> sums = ThreadLocal.withInitial(() -> {
+            long[] threadSums = new long[numClasses];
+            allSums.add(threadSums);
+            return threadSums;
+        });
+        ThreadLocal<int[]> above = ThreadLocal.withInitial(() -> new int[numClasses]);
+        IntStream.range(dominated.start(root), dominated.end(root)).parallel()
+                .forEach(pos -> walkClassRetainedSizes(snapshot, dominated.target(pos),
+                                                       sums.get(), above.get()));
+        long[] result = new long[numClasses];
+        for (long[] threadSums : allSums) {
+            for (int c = 0; c < numClasses; c++) {
+                result[c] += threadSums[c];
+            }
+        }
+        return result;
+    }
+
+    private void walkClassRetainedSizes(Snapshot snapshot, int top,
+                                        long[] sums, int[] above) {
+        int[] stack = new int[16];
+        int[] stackPos = new int[16];
+        int depth = 0;
+        stack[depth] = top;
+        stackPos[depth++] = dominated.start(top);
+        int c = snapshot.getClassNumberOf(top);
+        if (above[c]++ == 0) {
+            sums[c] += retainedSizes[top];
+        }
+        while (depth > 0) {
+            int obj = stack[depth - 1];
+            int pos = stackPos[depth - 1];
+            if (pos < dominated.end(obj)) {
+                stackPos[depth - 1]++;
+                int next = dominated.target(pos);
+                if (depth == stack.length) {
+                    stack = Arrays.copyOf(stack, depth * 2);
+                    stackPos = Arrays.copyOf(stackPos, depth * 2);
+                }
+                stack[depth] = next;
+                stackPos[depth++] = dominated.start(next);
+                c = snapshot.getClassNumberOf(next);
+                if (above[c]++ == 0) {
+                    sums[c] += retainedSizes[next];
+                }
+            } else {
+                depth--;
+                above[snapshot.getClassNumberOf(obj)]--;
+            }
+        }
+    }
+
+    static DominatorTree compute(Snapshot snapshot) {
+        final int numRows = snapshot.getObjectTable().size();
+        EdgeIndex refs = snapshot.getOutboundReferences();
+
+        // Number the objects reachable from the rootset in postorder,
+        // with an explicit stack; the rootset comes last.
+        int[] rootTargets = findRootTargets(snapshot);
+        int[] postorder = new int[numRows];
+        Arrays.fill(postorder, -1);
+        int[] order = new int[numRows + 1];
+        int count = 0;
+        int[] stack = new int[numRows];
+        int[] stackPos = new int[numRows];
+        for (int target : rootTargets) {
+            if (postorder[target] != -1) {
+                continue;
+            }
+            int depth = 0;
+            postorder[target] = -2;
+            stack[depth] = target;
+            stackPos[depth++] = refs.start(target);
+            while (depth > 0) {
+                int obj = stack[depth - 1];
+                int pos = stackPos[depth - 1];
+                if (pos < refs.end(obj)) {
+                    stackPos[depth - 1]++;
+                    int next = refs.target(pos);
+                    if (postorder[next] == -1) {
+                        postorder[next] = -2;
+                        stack[depth] = next;
+                        stackPos[depth++] = refs.start(next);
+                    }
+                } else {
+                    depth--;
+                    postorder[obj] = count;
+                    order[count++] = obj;
+                }
+            }
+        }
+        stack = null;
+        stackPos = null;
+        final int rootNumber = count++;
+
+        // The predecessors of each reachable object, by postorder number.
+        int[] predOffsets = new int[count + 1];
+        for (int n = 0; n < rootNumber; n++) {
+            int obj = order[n];
+            for (int pos = refs.start(obj); pos < refs.end(obj); pos++) {
+                int next = postorder[refs.target(pos)];
+                if (next >= 0) {
+                    predOffsets[next + 1]++;
+                }
+            }
+        }
+        for (int target : rootTargets) {
+            predOffsets[postorder[target] + 1]++;
+        }
+        for (int n = 0; n < count; n++) {
+            predOffsets[n + 1] = Snapshot.addCount(predOffsets[n], predOffsets[n + 1]);
+        }
+        int[] preds = new int[predOffsets[count]];
+        int[] next = Arrays.copyOf(predOffsets, count);
+        for (int n = 0; n < rootNumber; n++) {
+            int obj = order[n];
+            for (int pos = refs.start(obj); pos < refs.end(obj); pos++) {
+                int to = postorder[refs.target(pos)];
+                if (to >= 0) {
+                    preds[next[to]++] = n;
+                }
+            }
+        }
+        for (int target : rootTargets) {
+            preds[next[postorder[target]]++] = rootNumber;
+        }
+        next = null;
+
+        // Cooper, Harvey and Kennedy: visit in reverse postorder until
+        // nothing changes.  A dominator always has a higher number than
+        // the objects it dominates.
+        int[] doms = new int[count];
+        Arrays.fill(doms, -1);
+        doms[rootNumber] = rootNumber;
+        boolean changed = true;
+        while (changed) {
+            changed = false;
+            for (int n = rootNumber - 1; n >= 0; n--) {
+                int idom = -1;
+                for (int pos = predOffsets[n]; pos < predOffsets[n + 1]; pos++) {
+                    int pred = preds[pos];
+                    if (doms[pred] != -1) {
+                        idom = idom == -1 ? pred : intersect(doms, pred, idom);
+                    }
+                }
+                if (doms[n] != idom) {
+                    doms[n] = idom;
+                    changed = true;
+                }
+            }
+        }
+        preds = null;
+        predOffsets = null;
+
+        // Retained sizes, adding each object's to its dominator's.
+        long[] retained = new long[count];
+        final int[] objects = order;
+        IntStream.range(0, rootNumber).parallel().forEach(n ->
+                retained[n] = snapshot.getThingAt(objects[n]).getSize());
+        for (int n = 0; n < rootNumber; n++) {
+            retained[doms[n]] += retained[n];
+        }
+
+        // Back to object indexes.
+        int[] dominators = new int[numRows];
+        Arrays.fill(dominators, UNREACHABLE);
+        long[] retainedSizes = new long[numRows];
+        int[] childOffsets = new int[numRows + 2];
+        for (int n = 0; n < rootNumber; n++) {
+            int obj = order[n];
+            int dom = doms[n] == rootNumber ? ROOTSET : order[doms[n]];
+            dominators[obj] = dom;
+            retainedSizes[obj] = retained[n];
+            childOffsets[(dom == ROOTSET ? numRows : dom) + 1]++;
+        }
+        for (int i = 0; i <= numRows; i++) {
+            childOffsets[i + 1] += childOffsets[i];
+        }
+        int[] children = new int[rootNumber];
+        int[] nextChild = Arrays.copyOf(childOffsets, numRows + 1);
+        for (int i = 0; i < numRows; i++) {
+            int dom = dominators[i];
+            if (dom != UNREACHABLE) {
+                children[nextChild[dom == ROOTSET ? numRows : dom]++] = i;
+            }
+        }
+        return new DominatorTree(snapshot, dominators, retainedSizes,
+                                 new EdgeIndex(childOffsets, children),
+                                 retained[rootNumber]);
+    }
+
+    private static int intersect(int[] doms, int a, int b) {
+        while (a != b) {
+            while (a < b) {
+                a = doms[a];
+            }
+            while (b < a) {
+                b = doms[b];
+            }
+        }
+        return a;
+    }
+
+    // The indexes of the objects in the rootset, each listed once.
+    static int[] findRootTargets(Snapshot snapshot) {
+        BitSet seen = new BitSet();
+        int[] targets = new int[snapshot.getRoots().size()];
+        int count = 0;
+        for (Root root : snapshot.getRoots()) {
+            JavaHeapObject obj = snapshot.findThing(root.getId());
+            if (obj != null && !seen.get(obj.getIndex())) {
+                seen.set(obj.getIndex());
+                targets[count++] = obj.getIndex();
+            }
+        }
+        return Arrays.copyOf(targets, count);
+    }
+}
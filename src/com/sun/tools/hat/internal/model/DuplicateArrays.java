@@ -0,0 +1,225 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+import com.sun.tools.hat.internal.parser.ReadBuffer;
+
+/**
+ * The primitive arrays in the heap that have the same contents as
+ * others, grouped by contents.  Only arrays that have the same type and
+ * length as another are hashed, and arrays with the same hash are then
+ * compared byte for byte, all straight from the dump.  Arrays that back
+ * strings are left out, as the duplicate strings report covers them.
+ */
+public final class DuplicateArrays {
+    /**
+     * Arrays with the same contents.
+     */
+    public static final class Group {
+        private final Snapshot snapshot;
+        private final int[] arrays;
+        private final long wastedSize;
+
+        private Group(Snapshot snapshot, int[] arrays) {
+            this.snapshot = snapshot;
+            this.arrays = arrays;
+            this.wastedSize = (long) (arrays.length - 1) * getArray().getSize();
+        }
+
+        /**
+         * @return the arrays, in index order
+         */
+        public List<JavaHeapObject> getArrays() {
+            return Lists.transform(Ints.asList(arrays), snapshot::getThingAt);
+        }
+
+        /**
+         * @return the first of the arrays
+         */
+        public JavaValueArray getArray() {
+            return (JavaValueArray) snapshot.getThingAt(arrays[0]);
+        }
+
+        public int getCount() {
+            return arrays.length;
+        }
+
+        /**
+         * @return the bytes that would be saved if all the arrays were one
+         */
+        public long getWastedSize() {
+            return wastedSize;
+        }
+    }
+
+    private static final Ordering<Group> MOST_WASTED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Group::getWastedSize)
+            .compound(Ordering.natural().onResultOf((Group group) -> group.arrays[0]));
+
+    private final ImmutableList<Group> groups;
+    private final long wastedSize;
+
+    private DuplicateArrays(ImmutableList<Group> groups) {
+        this.groups = groups;
+        this.wastedSize = groups.stream().mapToLong(Group::getWastedSize).sum();
+    }
+
+    /**
+     * @return the groups of arrays with the same contents, most wasted
+     *          bytes first
+     */
+    public ImmutableList<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return the bytes wasted by all of the groups together
+     */
+    public long getWastedSize() {
+        return wastedSize;
+    }
+
+    static DuplicateArrays compute(Snapshot snapshot) {
+        ObjectTable table = snapshot.getObjectTable();
+        ReadBuffer buf = snapshot.getReadBuffer();
+        int[] arrays = IntStream.range(0, table.size())
+                .filter(i -> table.getKind(i) == ObjectTable.VALUE_ARRAY)
+                .toArray();
+
+        // Only arrays of the same type and length can be the same, so
+        // find those first, then hash them...
+        BitSet candidates = findCandidates(snapshot, arrays);
+        long[] hashes = new long[arrays.length];
+        candidates.stream().parallel().forEach(i -> {
+            JavaValueArray array = (JavaValueArray) snapshot.getThingAt(arrays[i]);
+            try {
+                hashes[i] = ContentHash.of(buf, array.getElementType(),
+                        array.getElementsOffset(), array.getValueLength());
+            } catch (IOException exp) {
+                throw new RuntimeException(exp);
+            }
+        });
+
+        // ...and make sure that arrays with the same hash are the same.
+        List<Group> groups = new ArrayList<>();
+        int[][] sameHash = ContentHash.findDuplicates(hashes, candidates);
+        Arrays.stream(sameHash).parallel().forEach(members -> {
+            List<Group> found = new ArrayList<>();
+            int[] rest = new int[members.length];
+            for (int i = 0; i < members.length; i++) {
+                rest[i] = arrays[members[i]];
+            }
+            int numRest = rest.length;
+            while (numRest > 1) {
+                JavaValueArray first = (JavaValueArray) snapshot.getThingAt(rest[0]);
+                int[] same = new int[numRest];
+                int numSame = 0;
+                int numOther = 0;
+                for (int i = 0; i < numRest; i++) {
+                    if (i == 0 || sameContents(buf, first,
+                            (JavaValueArray) snapshot.getThingAt(rest[i]))) {
+                        same[numSame++] = rest[i];
+                    } else {
+                        rest[numOther++] = rest[i];
+                    }
+                }
+                if (numSame > 1) {
+                    found.add(new Group(snapshot, Arrays.copyOf(same, numSame)));
+                }
+                numRest = numOther;
+            }
+            synchronized (groups) {
+                groups.addAll(found);
+            }
+        });
+        return new DuplicateArrays(MOST_WASTED_FIRST.immutableSortedCopy(groups));
+    }
+
+    // The positions in arrays of the arrays that have the same type and
+    // length as another, leaving out empty arrays and string values.
+    private static BitSet findCandidates(Snapshot snapshot, int[] arrays) {
+        long[] keys = new long[arrays.length];
+        IntStream.range(0, arrays.length).parallel().forEach(i -> {
+            JavaValueArray array = (JavaValueArray) snapshot.getThingAt(arrays[i]);
+            int length = array.getValueLength();
+            keys[i] = length == 0 || isStringValue(snapshot, arrays[i])
+                    ? -1 : (long) array.getElementType() << 32 | length;
+        });
+        BitSet valid = new BitSet(arrays.length);
+        for (int i = 0; i < arrays.length; i++) {
+            if (keys[i] != -1) {
+                valid.set(i);
+            }
+        }
+        BitSet candidates = new BitSet(arrays.length);
+        for (int[] sameLength : ContentHash.findDuplicates(keys, valid)) {
+            for (int i : sameLength) {
+                candidates.set(i);
+            }
+        }
+        return candidates;
+    }
+
+    private static boolean isStringValue(Snapshot snapshot, int index) {
+        JavaClass stringClass = snapshot.getJavaLangString();
+        EdgeIndex referers = snapshot.getRefererIndex();
+        for (int pos = referers.start(index); pos < referers.end(index); pos++) {
+            int referer = referers.target(pos);
+            if (snapshot.getThingAt(referer).getClazz() == stringClass) {
+                return true;
+            }
+        }
+        return false;
+    }
+
+    private static boolean sameContents(ReadBuffer buf, JavaValueArray a,
+                                        JavaValueArray b) {
+        try {
+            return ContentHash.equal(buf, a.getElementsOffset(),
+                                     b.getElementsOffset(), a.getValueLength());
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+}
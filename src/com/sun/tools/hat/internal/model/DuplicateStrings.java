@@ -0,0 +1,365 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.Charset;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.stream.IntStream;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableMultiset;
+import com.google.common.collect.Lists;
+import com.google.common.collect.Ordering;
+import com.google.common.primitives.Ints;
+import com.sun.tools.hat.internal.parser.ReadBuffer;
+
+/**
+ * The strings in the heap that have the same value as others, grouped by
+ * value.  The backing arrays of all the strings are hashed in parallel
+ * straight from the dump, with no Java strings made from them.  Both the
+ * old char[] strings (with or without offset and count fields) and the
+ * compact byte[] strings with a coder are handled.
+ */
+public final class DuplicateStrings {
+    // how many characters of each value to keep for showing
+    private static final int PREVIEW_LENGTH = 100;
+
+    // the kinds of string contents, which are only equal to the same kind
+    private static final int LATIN1 = 0;
+    private static final int UTF16 = 1;
+    private static final int CHARS = 2;
+
+    /**
+     * Strings with the same value.
+     */
+    public static final class Group {
+        private final Snapshot snapshot;
+        private final int[] strings;
+        private final String preview;
+        private final int length;
+        private final long wastedSize;
+
+        private Group(Snapshot snapshot, int[] strings, String preview,
+                      int length, long wastedSize) {
+            this.snapshot = snapshot;
+            this.strings = strings;
+            this.preview = preview;
+            this.length = length;
+            this.wastedSize = wastedSize;
+        }
+
+        /**
+         * @return the strings, in index order
+         */
+        public List<JavaHeapObject> getStrings() {
+            return Lists.transform(Ints.asList(strings), snapshot::getThingAt);
+        }
+
+        public int getCount() {
+            return strings.length;
+        }
+
+        /**
+         * @return the start of the value, up to 100 characters of it
+         */
+        public String getPreview() {
+            return preview;
+        }
+
+        /**
+         * @return the length of the value, in characters
+         */
+        public int getLength() {
+            return length;
+        }
+
+        /**
+         * @return the bytes that would be saved if all the strings were
+         *          one: the sizes of all of them and their distinct
+         *          backing arrays, less one string and one array
+         */
+        public long getWastedSize() {
+            return wastedSize;
+        }
+
+        /**
+         * @return the classes of the objects that refer to the strings,
+         *          each counted once for each string it refers to
+         */
+        public ImmutableMultiset<JavaClass> getReferrerClasses() {
+            ImmutableMultiset.Builder<JavaClass> builder = ImmutableMultiset.builder();
+            for (JavaHeapObject string : getStrings()) {
+                for (JavaHeapObject referrer : string.getReferers()) {
+                    builder.add(referrer.getClazz());
+                }
+            }
+            return builder.build();
+        }
+    }
+
+    private static final Ordering<Group> MOST_WASTED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Group::getWastedSize);
+
+    private final ImmutableList<Group> groups;
+    private final long wastedSize;
+
+    private DuplicateStrings(ImmutableList<Group> groups) {
+        this.groups = groups;
+        this.wastedSize = groups.stream().mapToLong(Group::getWastedSize).sum();
+    }
+
+    /**
+     * @return the groups of strings with the same value, most wasted
+     *          bytes first
+     */
+    public ImmutableList<Group> getGroups() {
+        return groups;
+    }
+
+    /**
+     * @return the bytes wasted by all of the groups together
+     */
+    public long getWastedSize() {
+        return wastedSize;
+    }
+
+    static DuplicateStrings compute(Snapshot snapshot) {
+        JavaClass stringClass = snapshot.getJavaLangString();
+        FieldLayout layout = stringClass.getFieldLayout();
+        int valueSlot = layout.getSlot("value");
+        if (valueSlot == -1) {
+            return new DuplicateStrings(ImmutableList.of());
+        }
+        StringReader reader = new StringReader(snapshot, stringClass, layout, valueSlot);
+        ReadBuffer buf = snapshot.getReadBuffer();
+        int[] strings = Arrays.copyOf(stringClass.getInstanceIndexes(),
+                                      stringClass.getInstancesCount(false));
+        long[] hashes = new long[strings.length];
+        int[] arrays = new int[strings.length];
+        IntStream.range(0, strings.length).parallel().forEach(i -> {
+            try {
+                Value value = reader.read(strings[i]);
+                arrays[i] = value == null ? -1 : value.array;
+                if (value != null) {
+                    hashes[i] = value.hash(buf);
+                }
+            } catch (IOException exp) {
+                throw new RuntimeException(exp);
+            }
+        });
+        BitSet valid = new BitSet(strings.length);
+        for (int i = 0; i < strings.length; i++) {
+            if (arrays[i] != -1) {
+                valid.set(i);
+            }
+        }
+
+        // Make sure that strings with the same hash have the same value,
+        // splitting off any that don't.
+        List<Group> groups = new ArrayList<>();
+        int[][] sameHash = ContentHash.findDuplicates(hashes, valid);
+        Arrays.stream(sameHash).parallel().forEach(members -> {
+            List<Group> found = new ArrayList<>();
+            try {
+                int[] rest = members.clone();
+                int numRest = rest.length;
+                while (numRest > 1) {
+                    Value first = reader.read(strings[rest[0]]);
+                    int[] same = new int[numRest];
+                    int numSame = 0;
+                    int numOther = 0;
+                    for (int i = 0; i < numRest; i++) {
+                        if (i == 0 || first.sameAs(buf, reader.read(strings[rest[i]]))) {
+                            same[numSame++] = rest[i];
+                        } else {
+                            rest[numOther++] = rest[i];
+                        }
+                    }
+                    if (numSame > 1) {
+                        found.add(makeGroup(snapshot, buf, first, strings, arrays,
+                                            Arrays.copyOf(same, numSame)));
+                    }
+                    numRest = numOther;
+                }
+            } catch (IOException exp) {
+                throw new RuntimeException(exp);
+            }
+            synchronized (groups) {
+                groups.addAll(found);
+            }
+        });
+        return new DuplicateStrings(MOST_WASTED_FIRST.immutableSortedCopy(groups));
+    }
+
+    // A group of the strings at the given positions in strings, all with
+    // the given value.
+    private static Group makeGroup(Snapshot snapshot, ReadBuffer buf, Value value,
+                                   int[] strings, int[] arrays, int[] members)
+            throws IOException {
+        int[] groupStrings = new int[members.length];
+        int[] groupArrays = new int[members.length];
+        long totalSize = 0;
+        for (int i = 0; i < members.length; i++) {
+            groupStrings[i] = strings[members[i]];
+            groupArrays[i] = arrays[members[i]];
+            totalSize += snapshot.getThingAt(groupStrings[i]).getSize();
+        }
+        // Strings may share their backing arrays.
+        Arrays.sort(groupArrays);
+        for (int i = 0; i < groupArrays.length; i++) {
+            if (i == 0 || groupArrays[i] != groupArrays[i - 1]) {
+                totalSize += snapshot.getThingAt(groupArrays[i]).getSize();
+            }
+        }
+        totalSize -= snapshot.getThingAt(groupStrings[0]).getSize()
+                + snapshot.getThingAt(groupArrays[0]).getSize();
+        return new Group(snapshot, groupStrings, value.getPreview(buf),
+                         value.getLength(), totalSize);
+    }
+
+    // Where the value of a string is in the dump.
+    private static final class Value {
+        final int array;
+        final int kind;
+        final long pos;
+        final int length;
+
+        Value(int array, int kind, long pos, int length) {
+            this.array = array;
+            this.kind = kind;
+            this.pos = pos;
+            this.length = length;
+        }
+
+        long hash(ReadBuffer buf) throws IOException {
+            return ContentHash.of(buf, kind, pos, length);
+        }
+
+        boolean sameAs(ReadBuffer buf, Value other) throws IOException {
+            return kind == other.kind && length == other.length
+                    && ContentHash.equal(buf, pos, other.pos, length);
+        }
+
+        // the length in characters
+        int getLength() {
+            return kind == LATIN1 ? length : length / 2;
+        }
+
+        String getPreview(ReadBuffer buf) throws IOException {
+            int charSize = kind == LATIN1 ? 1 : 2;
+            byte[] bytes = new byte[Math.min(getLength(), PREVIEW_LENGTH) * charSize];
+            buf.get(pos, bytes);
+            Charset charset;
+            switch (kind) {
+                case LATIN1:
+                    charset = StandardCharsets.ISO_8859_1;
+                    break;
+                case UTF16:
+                    // Compact strings keep their chars in the byte order
+                    // of the JVM that was dumped, little-endian on the
+                    // usual platforms.
+                    charset = StandardCharsets.UTF_16LE;
+                    break;
+                default:
+                    // but the dump writes char arrays big-endian
+                    charset = StandardCharsets.UTF_16BE;
+                    break;
+            }
+            return charset.decode(ByteBuffer.wrap(bytes)).toString();
+        }
+    }
+
+    private static final class StringReader {
+        private final Snapshot snapshot;
+        private final JavaClass stringClass;
+        private final FieldLayout layout;
+        private final int valueSlot;
+        private final int coderSlot;
+        private final int offsetSlot;
+        private final int countSlot;
+
+        StringReader(Snapshot snapshot, JavaClass stringClass, FieldLayout layout, int valueSlot) {
+            this.snapshot = snapshot;
+            this.stringClass = stringClass;
+            this.layout = layout;
+            this.valueSlot = valueSlot;
+            this.coderSlot = layout.getSlot("coder");
+            this.offsetSlot = layout.getSlot("offset");
+            this.countSlot = layout.getSlot("count");
+        }
+
+        /**
+         * @return where the value of the string at the given index is,
+         *          or null if it has no backing array
+         */
+        Value read(int index) throws IOException {
+            JavaObject string = (JavaObject) snapshot.getThingAt(index);
+            JavaThing value = stringClass.readRef(string, layout, valueSlot, false);
+            if (!(value instanceof JavaValueArray)) {
+                return null;
+            }
+            JavaValueArray array = (JavaValueArray) value;
+            ReadBuffer buf = snapshot.getReadBuffer();
+            long fields = string.getFieldsOffset();
+            long pos = array.getElementsOffset();
+            int length = array.getValueLength();
+            int kind;
+            if (array.getElementType() == 'C') {
+                kind = CHARS;
+                if (offsetSlot != -1 && countSlot != -1
+                        && layout.getType(offsetSlot) == 'I'
+                        && layout.getType(countSlot) == 'I') {
+                    int offset = buf.getInt(fields + layout.getOffset(offsetSlot));
+                    int count = buf.getInt(fields + layout.getOffset(countSlot));
+                    if (offset >= 0 && count >= 0 && 2L * (offset + count) <= length) {
+                        pos += 2 * offset;
+                        length = 2 * count;
+                    }
+                }
+            } else if (array.getElementType() == 'B') {
+                kind = coderSlot != -1 && layout.getType(coderSlot) == 'B'
+                        && buf.getByte(fields + layout.getOffset(coderSlot)) != 0
+                        ? UTF16 : LATIN1;
+            } else {
+                return null;
+            }
+            return new Value(array.getIndex(), kind, pos, length);
+        }
+    }
+}
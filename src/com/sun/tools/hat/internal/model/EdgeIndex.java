@@ -0,0 +1,86 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+/**
+ * Edges between heap objects, addressed by object index, in compressed
+ * sparse row form: the edges from the object at index {@code i} go to
+ * {@code targets[offsets[i]]} up to (but not including)
+ * {@code targets[offsets[i + 1]]}, in index order, without duplicates.
+ * Objects past the end of the index have no edges.
+ */
+final class EdgeIndex {
+    private final int[] offsets;
+    private final int[] targets;
+
+    EdgeIndex(int[] offsets, int[] targets) {
+        this.offsets = offsets;
+        this.targets = targets;
+    }
+
+    int[] getOffsets() {
+        return offsets;
+    }
+
+    int[] getTargets() {
+        return targets;
+    }
+
+    /**
+     * @return an index of the given number of objects, with no edges
+     */
+    static EdgeIndex empty(int size) {
+        return new EdgeIndex(new int[size + 1], new int[0]);
+    }
+
+    /**
+     * @return the position of the first edge from the given object
+     */
+    int start(int index) {
+        return index + 1 < offsets.length ? offsets[index] : 0;
+    }
+
+    /**
+     * @return the position just past the last edge from the given object
+     */
+    int end(int index) {
+        return index + 1 < offsets.length ? offsets[index + 1] : 0;
+    }
+
+    /**
+     * @return the index of the object the edge at the given position goes to
+     */
+    int target(int pos) {
+        return targets[pos];
+    }
+}
@@ -0,0 +1,164 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Where each instance field of a class lives in an instance's field data,
+ * including fields inherited from superclasses. Fields are numbered by
+ * slot, in the same order as {@link JavaClass#getFieldsForInstance}:
+ * fields of the topmost superclass first. The dump stores them the other
+ * way round, so that the byte offset of a slot depends on the class, but
+ * the slot of an inherited field does not.
+ */
+final class FieldLayout {
+    private final JavaField[] fields;
+    private final char[] types;
+    private final int[] offsets;
+    private final int[] refSlots;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private final Map<String, Integer> lastSlots = new HashMap<>();
+
+    FieldLayout(JavaClass cl, int idSize) {
+        int numFields = cl.getNumFieldsForInstance();
+        fields = new JavaField[numFields];
+        types = new char[numFields];
+        offsets = new int[numFields];
+
+        // Walk up from the class itself, which is the order the field
+        // values are stored in, filling in slots from the end.
+        int end = numFields;
+        int offset = 0;
+        for (JavaClass c = cl; c != null && end > 0; c = c.getSuperclass()) {
+            JavaField[] own = c.getFields();
+            end -= own.length;
+            for (int i = 0; i < own.length; i++) {
+                JavaField f = own[i];
+                char type = f.getSignature().charAt(0);
+                fields[end + i] = f;
+                types[end + i] = type;
+                offsets[end + i] = offset;
+                offset += valueSize(type, idSize);
+            }
+        }
+
+        int numRefs = 0;
+        int[] refs = new int[numFields];
+        for (int slot = 0; slot < numFields; slot++) {
+            slots.putIfAbsent(fields[slot].getName(), slot);
+            lastSlots.put(fields[slot].getName(), slot);
+            if (fields[slot].hasId()) {
+                refs[numRefs++] = slot;
+            }
+        }
+        refSlots = Arrays.copyOf(refs, numRefs);
+    }
+
+    private static int valueSize(char type, int idSize) {
+        switch (type) {
+            case 'L':
+            case '[':
+                return idSize;
+            case 'Z':
+            case 'B':
+                return 1;
+            case 'S':
+            case 'C':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            default:
+                throw new IllegalArgumentException("invalid signature: " + type);
+        }
+    }
+
+    int size() {
+        return fields.length;
+    }
+
+    JavaField[] getFields() {
+        return fields;
+    }
+
+    JavaField getField(int slot) {
+        return fields[slot];
+    }
+
+    /**
+     * @return the first character of the signature of the field in slot
+     */
+    char getType(int slot) {
+        return types[slot];
+    }
+
+    /**
+     * @return the byte offset of the field in slot, from the start of
+     *          an instance's field data
+     */
+    int getOffset(int slot) {
+        return offsets[slot];
+    }
+
+    /**
+     * @return the slots of fields that hold object references, in order
+     */
+    int[] getRefSlots() {
+        return refSlots;
+    }
+
+    /**
+     * @return the slot of the first field of the given name, or -1 if
+     *          there isn't one
+     */
+    int getSlot(String name) {
+        Integer slot = slots.get(name);
+        return slot == null ? -1 : slot;
+    }
+
+    /**
+     * @return the slot of the last field of the given name, which is the
+     *          one declared furthest down the hierarchy, or -1 if there
+     *          isn't one
+     */
+    int getLastSlot(String name) {
+        Integer slot = lastSlots.get(name);
+        return slot == null ? -1 : slot;
+    }
+}
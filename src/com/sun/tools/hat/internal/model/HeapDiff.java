@@ -0,0 +1,141 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.stream.Collectors;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * The change in the instances of each class between a baseline dump and
+ * this one, with classes matched by name.  The retained sizes are those
+ * in this dump only, since the baseline is read without its references,
+ * and are only worked out when asked for.
+ */
+public final class HeapDiff {
+    /**
+     * The change in the instances of the classes of one name.
+     */
+    public static final class Delta {
+        private final String className;
+        private final List<JavaClass> classes;
+        private final long baselineCount;
+        private final long baselineSize;
+        private final long count;
+        private final long size;
+
+        private Delta(String className, List<JavaClass> classes,
+                      ClassHistogram.Entry baseline, ClassHistogram.Entry current) {
+            this.className = className;
+            this.classes = classes;
+            this.baselineCount = baseline == null ? 0 : baseline.getCount();
+            this.baselineSize = baseline == null ? 0 : baseline.getSize();
+            this.count = current == null ? 0 : current.getCount();
+            this.size = current == null ? 0 : current.getSize();
+        }
+
+        public String getClassName() {
+            return className;
+        }
+
+        /**
+         * @return the class of that name in this dump, or null if there
+         *          is none
+         */
+        public JavaClass getClazz() {
+            return classes.isEmpty() ? null : classes.get(0);
+        }
+
+        public long getBaselineCount() {
+            return baselineCount;
+        }
+
+        public long getBaselineSize() {
+            return baselineSize;
+        }
+
+        public long getCount() {
+            return count;
+        }
+
+        public long getSize() {
+            return size;
+        }
+
+        public long getCountDelta() {
+            return count - baselineCount;
+        }
+
+        public long getSizeDelta() {
+            return size - baselineSize;
+        }
+
+        /**
+         * @return the retained size of the instances in this dump; this
+         *          works out the dominator tree if it hasn't been already
+         */
+        public long getRetainedSize() {
+            return classes.stream().mapToLong(JavaClass::getTotalRetainedSize).sum();
+        }
+    }
+
+    public static final Ordering<Delta> MOST_GROWTH_FIRST = Ordering.natural().reverse()
+            .onResultOf(Delta::getSizeDelta);
+
+    private HeapDiff() {
+    }
+
+    static ImmutableList<Delta> compute(Snapshot snapshot, ClassHistogram baseline) {
+        ClassHistogram current = ClassHistogram.compute(snapshot);
+        Set<String> names = new HashSet<>(baseline.getEntries().keySet());
+        names.addAll(current.getEntries().keySet());
+        Map<String, List<JavaClass>> classes = new HashMap<>();
+        for (JavaClass clazz : snapshot.getClasses()) {
+            classes.computeIfAbsent(clazz.getName(), name -> new ArrayList<>()).add(clazz);
+        }
+        return MOST_GROWTH_FIRST.immutableSortedCopy(names.parallelStream()
+                .map(name -> new Delta(name,
+                                       classes.getOrDefault(name, Collections.emptyList()),
+                                       baseline.get(name), current.get(name)))
+                .filter(delta -> delta.getCountDelta() != 0 || delta.getSizeDelta() != 0)
+                .collect(Collectors.toList()));
+    }
+}
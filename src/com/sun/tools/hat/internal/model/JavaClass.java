@@ -32,11 +32,13 @@
 
 package com.sun.tools.hat.internal.model;
 
+import java.io.IOException;
 import java.util.ArrayList;
-import java.util.Collections;
+import java.util.Arrays;
 import java.util.List;
 
 import com.google.common.collect.Iterables;
+import com.google.common.primitives.Ints;
 import com.sun.tools.hat.internal.parser.ReadBuffer;
 
 /**
@@ -48,6 +50,8 @@ import com.sun.tools.hat.internal.parser.ReadBuffer;
 public class JavaClass extends JavaHeapObject {
     // my id
     private final long id;
+    // my index in the snapshot's object table
+    private int index = -1;
     // my name
     private final String name;
 
@@ -65,8 +69,11 @@ public class JavaClass extends JavaHeapObject {
     // my subclasses
     private final List<JavaClass> subclasses = new ArrayList<>();
 
-    // my instances
-    private final List<JavaHeapObject> instances = new ArrayList<>();
+    // my instances, by index in the snapshot's object table
+    private int[] instances = EMPTY_INSTANCES;
+    private int numInstances;
+
+    private static final int[] EMPTY_INSTANCES = new int[0];
 
     // Who I belong to.  Set on resolve.
     private Snapshot mySnapshot;
@@ -75,6 +82,8 @@ public class JavaClass extends JavaHeapObject {
     private int instanceSize;
     // Total number of fields including inherited ones
     private int totalNumFields;
+    // Where the fields of an instance are.  Worked out on first use.
+    private FieldLayout fieldLayout;
 
 
     public JavaClass(long id, String name, long superclassId, long loaderId,
@@ -225,6 +234,11 @@ public class JavaClass extends JavaHeapObject {
         return id;
     }
 
+    @Override
+    public int getIndex() {
+        return index;
+    }
+
     public String getName() {
         return name;
     }
@@ -234,22 +248,22 @@ public class JavaClass extends JavaHeapObject {
     }
 
     public Iterable<JavaHeapObject> getInstances(boolean includeSubclasses) {
+        Iterable<JavaHeapObject> res = Iterables.transform(
+                Ints.asList(instances).subList(0, numInstances),
+                mySnapshot::getThingAt);
         if (includeSubclasses) {
-            Iterable<JavaHeapObject> res = instances;
             for (JavaClass subclass : subclasses) {
                 res = Iterables.concat(res, subclass.getInstances(true));
             }
-            return res;
-        } else {
-            return instances;
         }
+        return res;
     }
 
     /**
      * @return a count of the instances of this class
      */
     public int getInstancesCount(boolean includeSubclasses) {
-        int result = instances.size();
+        int result = numInstances;
         if (includeSubclasses) {
             for (JavaClass subclass : subclasses) {
                 result += subclass.getInstancesCount(includeSubclasses);
@@ -305,9 +319,136 @@ public class JavaClass extends JavaHeapObject {
      * Includes superclass fields
      */
     public JavaField[] getFieldsForInstance() {
-        List<JavaField> v = new ArrayList<>();
-        addFields(v);
-        return v.toArray(new JavaField[v.size()]);
+        return getFieldLayout().getFields().clone();
+    }
+
+    /**
+     * Get the slot of the named instance field, for use with getIntField
+     * and friends.  Slots number fields the same way as
+     * getFieldsForInstance, so the slot of a field is the same for
+     * instances of subclasses.  If the name is used by more than one
+     * class in the hierarchy, the topmost one wins.
+     *
+     * @return the slot of the field, or -1 if there's no such field
+     */
+    public int getFieldSlot(String name) {
+        return getFieldLayout().getSlot(name);
+    }
+
+    /**
+     * Like getFieldSlot, but if the name is used by more than one class
+     * in the hierarchy, the one nearest this class wins, as it does for
+     * field access in Java code.
+     *
+     * @return the slot of the field, or -1 if there's no such field
+     */
+    public int getLastFieldSlot(String name) {
+        return getFieldLayout().getLastSlot(name);
+    }
+
+    /**
+     * Read an int field straight from the heap dump, without decoding
+     * the rest of obj, which must be an instance of this class or one of
+     * its subclasses.
+     */
+    public int getIntField(JavaObject obj, int slot) {
+        try {
+            return getReadBuffer().getInt(getFieldPos(obj, slot, 'I'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    /**
+     * Read a long field straight from the heap dump.
+     *
+     * @see #getIntField
+     */
+    public long getLongField(JavaObject obj, int slot) {
+        try {
+            return getReadBuffer().getLong(getFieldPos(obj, slot, 'J'));
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    /**
+     * Read a reference field straight from the heap dump.
+     *
+     * @return the object referred to, the null thing, or a placeholder
+     *          if the object isn't in the heap dump
+     * @see #getIntField
+     */
+    public JavaThing getRefField(JavaObject obj, int slot) {
+        FieldLayout layout = obj.getClazz().getFieldLayout();
+        if (!layout.getField(slot).hasId()) {
+            throw new IllegalArgumentException(
+                    "not a reference field: " + layout.getField(slot).getName());
+        }
+        return readRef(obj, layout, slot, false);
+    }
+
+    /**
+     * Read a field of any type straight from the heap dump.
+     *
+     * @see #getIntField
+     */
+    public JavaThing getFieldValue(JavaObject obj, int slot) {
+        FieldLayout layout = obj.getClazz().getFieldLayout();
+        long pos = obj.getFieldsOffset() + layout.getOffset(slot);
+        ReadBuffer buf = getReadBuffer();
+        try {
+            switch (layout.getType(slot)) {
+                case 'L':
+                case '[':
+                    return readRef(obj, layout, slot, false);
+                case 'Z':
+                    return new JavaBoolean(buf.getByte(pos) != 0);
+                case 'B':
+                    return new JavaByte(buf.getByte(pos));
+                case 'S':
+                    return new JavaShort(buf.getShort(pos));
+                case 'C':
+                    return new JavaChar(buf.getChar(pos));
+                case 'I':
+                    return new JavaInt(buf.getInt(pos));
+                case 'J':
+                    return new JavaLong(buf.getLong(pos));
+                case 'F':
+                    return new JavaFloat(Float.intBitsToFloat(buf.getInt(pos)));
+                case 'D':
+                    return new JavaDouble(Double.longBitsToDouble(buf.getLong(pos)));
+                default:
+                    throw new IllegalArgumentException("invalid signature: " + layout.getType(slot));
+            }
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
+
+    // read the reference in the given slot of obj
+    JavaThing readRef(JavaObject obj, FieldLayout layout, int slot, boolean verbose) {
+        long pos = obj.getFieldsOffset() + layout.getOffset(slot);
+        long id;
+        try {
+            if (getIdentifierSize() == 4) {
+                id = getReadBuffer().getInt(pos) & Snapshot.SMALL_ID_MASK;
+            } else {
+                id = getReadBuffer().getLong(pos);
+            }
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+        return JavaObjectRef.dereference(mySnapshot, id, layout.getField(slot), verbose);
+    }
+
+    private static long getFieldPos(JavaObject obj, int slot, char type) {
+        FieldLayout layout = obj.getClazz().getFieldLayout();
+        if (layout.getType(slot) != type) {
+            throw new IllegalArgumentException("field " + layout.getField(slot).getName()
+                    + " has signature " + layout.getField(slot).getSignature());
+        }
+        return obj.getFieldsOffset() + layout.getOffset(slot);
     }
 
 
@@ -364,7 +505,7 @@ public class JavaClass extends JavaHeapObject {
             JavaField f = s.getField();
             if (f.hasId()) {
                 JavaThing other = s.getValue();
-                if (other == target) {
+                if (target.equals(other)) {
                     return "static field " + f.getName();
                 }
             }
@@ -381,12 +522,22 @@ public class JavaClass extends JavaHeapObject {
     }
 
 
+    /**
+     * @return The retained size of all instances of this class, taken
+     *          together: the size of the objects that would be freed if
+     *          they all were.  Instances that can't be reached from the
+     *          rootset are not counted.
+     */
+    public long getTotalRetainedSize() {
+        return mySnapshot.getClassRetainedSize(this);
+    }
+
     /**
      * @return The size of all instances of this class.  Correctly handles
      *          arrays.
      */
     public long getTotalInstanceSize() {
-        int count = instances.size();
+        int count = numInstances;
         if (count == 0 || !isArray()) {
             return (long) count * instanceSize;
         }
@@ -394,7 +545,7 @@ public class JavaClass extends JavaHeapObject {
         // array class and non-zero count, we have to
         // get the size of each instance and sum it
         long result = 0;
-        for (JavaThing t : instances) {
+        for (JavaThing t : getInstances(false)) {
             result += t.getSize();
         }
         return result;
@@ -445,12 +596,18 @@ public class JavaClass extends JavaHeapObject {
     }
 
     // package-privates below this point
-    final ReadBuffer getReadBuffer() {
-        return mySnapshot.getReadBuffer();
+    FieldLayout getFieldLayout() {
+        FieldLayout layout = fieldLayout;
+        if (layout == null) {
+            // This can race, but each thread works out the same layout.
+            layout = new FieldLayout(this, getIdentifierSize());
+            fieldLayout = layout;
+        }
+        return layout;
     }
 
-    final void setNew(JavaHeapObject obj, boolean flag) {
-        mySnapshot.setNew(obj, flag);
+    final ReadBuffer getReadBuffer() {
+        return mySnapshot.getReadBuffer();
     }
 
     final boolean isNew(JavaHeapObject obj) {
@@ -469,22 +626,44 @@ public class JavaClass extends JavaHeapObject {
         return mySnapshot.getRoot(obj);
     }
 
+    @Override
     final Snapshot getSnapshot() {
         return mySnapshot;
     }
 
+    void setIndex(int index) {
+        this.index = index;
+    }
+
     void addInstance(JavaHeapObject inst) {
-        instances.add(inst);
+        if (numInstances == instances.length) {
+            instances = Arrays.copyOf(instances, Math.max(4, numInstances * 2));
+        }
+        instances[numInstances++] = inst.getIndex();
     }
 
-    // Internals only below this point
-    private void addFields(List<? super JavaField> v) {
-        if (superclass != null) {
-            ((JavaClass) superclass).addFields(v);
+    // add the objects at indexes[from] up to indexes[to] to my instances
+    void addInstances(int[] indexes, int from, int to) {
+        int count = to - from;
+        if (numInstances + count > instances.length) {
+            instances = Arrays.copyOf(instances, numInstances + count);
         }
-        Collections.addAll(v, fields);
+        System.arraycopy(indexes, from, instances, numInstances, count);
+        numInstances += count;
+    }
+
+    // my instances, by index; only the first getInstancesCount(false)
+    // entries are in use
+    int[] getInstanceIndexes() {
+        return instances;
+    }
+
+    void setInstanceIndexes(int[] instances) {
+        this.instances = instances;
+        this.numInstances = instances.length;
     }
 
+    // Internals only below this point
     private void addSubclass(JavaClass sub) {
         subclasses.add(sub);
     }
@@ -32,6 +32,7 @@
 
 package com.sun.tools.hat.internal.model;
 
+import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableSet;
 import com.sun.tools.hat.internal.util.Misc;
 
@@ -49,13 +50,19 @@ import com.sun.tools.hat.internal.util.Misc;
  */
 
 public abstract class JavaHeapObject extends JavaThing {
-    private ImmutableSet.Builder<JavaHeapObject> builder = ImmutableSet.builder();
-    private ImmutableSet<JavaHeapObject> referers;
-
     public abstract JavaClass getClazz();
     @Override public abstract int getSize();
     public abstract long getId();
 
+    /**
+     * @return the index of this thing in its snapshot's object table
+     *
+     * @see Snapshot#getThingAt
+     */
+    public abstract int getIndex();
+
+    abstract Snapshot getSnapshot();
+
     /**
      * Do any initialization this thing needs after its data is read in.
      * Subclasses that override this should call super.resolve().
@@ -67,13 +74,6 @@ public abstract class JavaHeapObject extends JavaThing {
         }
     }
 
-    void setupReferers() {
-        if (referers == null) {
-            referers = builder.build();
-            builder = null;
-        }
-    }
-
 
     /**
      * @return the id of this thing as hex string
@@ -99,10 +99,6 @@ public abstract class JavaHeapObject extends JavaThing {
         return getClazz().isNew(this);
     }
 
-    void setNew(boolean flag) {
-        getClazz().setNew(this, flag);
-    }
-
     /**
      * Tell the visitor about all of the objects we refer to
      */
@@ -110,10 +106,6 @@ public abstract class JavaHeapObject extends JavaThing {
         v.visit(getClazz());
     }
 
-    void addReferenceFrom(JavaHeapObject other) {
-        builder.add(other);
-    }
-
     void addReferenceFromRoot(Root r) {
         getClazz().addReferenceFromRoot(r, this);
     }
@@ -132,12 +124,63 @@ public abstract class JavaHeapObject extends JavaThing {
      * @return a list of JavaHeapObject instances
      */
     public ImmutableSet<JavaHeapObject> getReferers() {
+        ImmutableSet<JavaHeapObject> referers = getSnapshot().getReferers(getIndex());
         if (referers == null) {
             throw new IllegalStateException("not resolved: " + getIdString());
         }
         return referers;
     }
 
+    /**
+     * Tell who we refer to.  This uses the snapshot's index of references
+     * from each object if it has one, and otherwise reads them from this
+     * object's fields.
+     *
+     * @return the objects this object refers to, each listed once
+     */
+    public ImmutableSet<JavaHeapObject> getReferees() {
+        ImmutableSet<JavaHeapObject> referees = getSnapshot().getReferees(getIndex());
+        if (referees == null) {
+            ImmutableSet.Builder<JavaHeapObject> builder = ImmutableSet.builder();
+            visitReferencedObjects(builder::add);
+            referees = builder.build();
+        }
+        return referees;
+    }
+
+    /**
+     * @return the object that immediately dominates this one, or null if
+     *          only the rootset as a whole does, or if this object can't
+     *          be reached from the rootset
+     */
+    public JavaHeapObject getDominator() {
+        return getSnapshot().getDominator(getIndex());
+    }
+
+    /**
+     * @return the objects this object immediately dominates
+     */
+    public ImmutableList<JavaHeapObject> getDominated() {
+        return getSnapshot().getDominated(getIndex());
+    }
+
+    /**
+     * @return whether this object can be reached from the rootset
+     */
+    public boolean isReachable() {
+        return getSnapshot().isReachable(getIndex());
+    }
+
+    /**
+     * Tell how much memory would be freed along with this object: the
+     * size of the objects it dominates, itself included.  An object that
+     * can't be reached from the rootset only retains itself.
+     */
+    public long getRetainedSize() {
+        long size = getSnapshot().getRetainedSize(getIndex());
+        return size < 0 ? getSize() : size;
+    }
+
     /**
      * Given other, which the caller promises is in referers, determines if
      * the reference is only a weak reference.
@@ -36,17 +36,93 @@ import java.io.IOException;
 import com.sun.tools.hat.internal.parser.ReadBuffer;
 
 /*
- * Base class for lazily read Java heap objects.
+ * Base class for lazily read Java heap objects.  These are views onto
+ * a row of the snapshot's object table, and are equal when they are
+ * views of the same row.
  */
 public abstract class JavaLazyReadObject extends JavaHeapObject {
 
+    private final Snapshot snapshot;
+    // index of this object in the snapshot's object table
+    private final int index;
     // file offset from which this object data starts
     private final long offset;
 
-    protected JavaLazyReadObject(long offset) {
+    protected JavaLazyReadObject(Snapshot snapshot, int index, long offset) {
+        this.snapshot = snapshot;
+        this.index = index;
         this.offset = offset;
     }
 
+    @Override
+    public JavaClass getClazz() {
+        return snapshot.getClassOf(index);
+    }
+
+    @Override
+    public final int getIndex() {
+        return index;
+    }
+
+    @Override
+    final Snapshot getSnapshot() {
+        return snapshot;
+    }
+
+    protected final boolean isResolved() {
+        return snapshot.getClassOf(index) != null;
+    }
+
+    @Override
+    public final void resolve(Snapshot snapshot) {
+        if (isResolved()) {
+            return;
+        }
+        JavaClass clazz = resolveClass(snapshot);
+        clazz.addInstance(this);
+        super.resolve(snapshot);
+    }
+
+    /**
+     * Set this object's class, making one up if it isn't in the snapshot.
+     * The object isn't added to the class's instances.
+     */
+    final JavaClass resolveClass(Snapshot snapshot) {
+        JavaClass clazz = lookUpClass(snapshot);
+        if (clazz == null) {
+            clazz = makeUpClass(snapshot);
+        }
+        snapshot.setClassOf(index, clazz);
+        return clazz;
+    }
+
+    /**
+     * Find this object's class, without changing the snapshot, so that
+     * this is safe to call for many objects at once.
+     *
+     * @return the class, or null if one has to be made up
+     */
+    abstract JavaClass lookUpClass(Snapshot snapshot);
+
+    /**
+     * Make up a class for this object, as lookUpClass() found none.
+     */
+    abstract JavaClass makeUpClass(Snapshot snapshot);
+
+    @Override
+    public final boolean equals(Object other) {
+        if (!(other instanceof JavaLazyReadObject)) {
+            return false;
+        }
+        JavaLazyReadObject oo = (JavaLazyReadObject) other;
+        return index == oo.index && snapshot == oo.snapshot;
+    }
+
+    @Override
+    public final int hashCode() {
+        return index;
+    }
+
     @Override
     public final int getSize() {
         return getValueLength() + getClazz().getMinimumObjectSize();
@@ -82,13 +158,7 @@ public abstract class JavaLazyReadObject extends JavaHeapObject {
     @Override
     public final long getId() {
         try {
-            ReadBuffer buf = getClazz().getReadBuffer();
-            int idSize = getClazz().getIdentifierSize();
-            if (idSize == 4) {
-                return buf.getInt(offset) & Snapshot.SMALL_ID_MASK;
-            } else {
-                return buf.getLong(offset);
-            }
+            return readIdAt(offset);
         } catch (IOException exp) {
             System.err.println("lazy read failed at offset " + offset);
             exp.printStackTrace();
@@ -99,22 +169,14 @@ public abstract class JavaLazyReadObject extends JavaHeapObject {
     protected abstract int readValueLength() throws IOException;
     protected abstract byte[] readValue() throws IOException;
 
-    // make Integer or Long for given object ID
-    protected static Number makeId(long id) {
-        if ((id & ~Snapshot.SMALL_ID_MASK) == 0) {
-            return (int)id;
+    // read object ID from given file offset
+    protected final long readIdAt(long pos) throws IOException {
+        ReadBuffer buf = snapshot.getReadBuffer();
+        if (snapshot.getIdentifierSize() == 4) {
+            return buf.getInt(pos) & Snapshot.SMALL_ID_MASK;
         } else {
-            return id;
-        }
-    }
-
-    // get ID as long value from Number
-    protected static long getIdValue(Number num) {
-        long id = num.longValue();
-        if (num instanceof Integer) {
-            id &= Snapshot.SMALL_ID_MASK;
+            return buf.getLong(pos);
         }
-        return id;
     }
 
     // read object ID from given index from given byte array
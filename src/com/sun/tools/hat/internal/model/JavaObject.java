@@ -42,55 +42,59 @@ import com.sun.tools.hat.internal.parser.ReadBuffer;
  */
 public class JavaObject extends JavaLazyReadObject {
 
-    private Object clazz;       // Number before resolve
-                                // JavaClass after resolve
     /**
-     * Construct a new JavaObject.
+     * Construct a view of a Java instance.
      *
-     * @param classID id of the class object
-     * @param offset The offset of field data
+     * @param snapshot the snapshot the instance belongs to
+     * @param index index of the instance in the snapshot's object table
+     * @param offset The offset of the instance record
      */
-    public JavaObject(long classID, long offset) {
-        super(offset);
-        this.clazz = makeId(classID);
+    JavaObject(Snapshot snapshot, int index, long offset) {
+        super(snapshot, index, offset);
     }
 
     @Override
-    public void resolve(Snapshot snapshot) {
-        if (clazz instanceof JavaClass) {
-            return;
-        }
-        if (clazz instanceof Number) {
-            long classID = getIdValue((Number)clazz);
-            clazz = snapshot.findThing(classID);
-            if (! (clazz instanceof JavaClass)) {
-                warn("Class " + Long.toHexString(classID) + " not found, " +
-                     "adding fake class!");
-                int length;
-                ReadBuffer buf = snapshot.getReadBuffer();
-                int idSize = snapshot.getIdentifierSize();
-                long lenOffset = getOffset() + 2*idSize + 4;
-                try {
-                    length = buf.getInt(lenOffset);
-                } catch (IOException exp) {
-                    throw new RuntimeException(exp);
-                }
-                clazz = snapshot.addFakeInstanceClass(classID, length);
-            }
-        } else {
-            throw new InternalError("should not reach here");
-        }
+    JavaClass lookUpClass(Snapshot snapshot) {
+        JavaThing clazz = snapshot.findThing(readClassID(snapshot));
+        return clazz instanceof JavaClass ? (JavaClass) clazz : null;
+    }
 
-        JavaClass cl = (JavaClass) clazz;
-        cl.resolve(snapshot);
+    @Override
+    JavaClass makeUpClass(Snapshot snapshot) {
+        int idSize = snapshot.getIdentifierSize();
+        ReadBuffer buf = snapshot.getReadBuffer();
+        long classID = readClassID(snapshot);
+        warn("Class " + Long.toHexString(classID) + " not found, " +
+             "adding fake class!");
+        int length;
+        long lenOffset = getOffset() + 2*idSize + 4;
+        try {
+            length = buf.getInt(lenOffset);
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+        return snapshot.addFakeInstanceClass(classID, length);
+    }
 
-        // while resolving, parse fields in verbose mode.
-        // but, getFields calls parseFields in non-verbose mode
-        // to avoid printing warnings repeatedly.
-        parseFields(getValue(), true);
+    private long readClassID(Snapshot snapshot) {
+        try {
+            return readIdAt(getOffset() + snapshot.getIdentifierSize() + 4);
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
+        }
+    }
 
-        cl.addInstance(this);
-        super.resolve(snapshot);
+    /**
+     * Parse the reference fields in verbose mode, warning of any that
+     * don't resolve.  getFields() and the like parse them quietly, to
+     * avoid printing warnings repeatedly.
+     */
+    void validateFields() {
+        JavaClass cl = getClazz();
+        FieldLayout layout = cl.getFieldLayout();
+        for (int slot : layout.getRefSlots()) {
+            cl.readRef(this, layout, slot, true);
+        }
     }
 
     /**
@@ -106,14 +110,6 @@ public class JavaObject extends JavaLazyReadObject {
         return getClazz().equals(oo.getClazz());
     }
 
-    /**
-     * Return our JavaClass object.  This may only be called after resolve.
-     */
-    @Override
-    public JavaClass getClazz() {
-        return (JavaClass) clazz;
-    }
-
     public JavaThing[] getFields() {
         // pass false to verbose mode so that dereference
         // warnings are not printed.
@@ -122,14 +118,9 @@ public class JavaObject extends JavaLazyReadObject {
 
     // returns the value of field of given name
     public JavaThing getField(String name) {
-        JavaThing[] flds = getFields();
-        JavaField[] instFields = getClazz().getFieldsForInstance();
-        for (int i = 0; i < instFields.length; i++) {
-            if (instFields[i].getName().equals(name)) {
-                return flds[i];
-            }
-        }
-        return null;
+        JavaClass cl = getClazz();
+        int slot = cl.getFieldSlot(name);
+        return slot == -1 ? null : cl.getFieldValue(this, slot);
     }
 
     @Override
@@ -144,6 +135,18 @@ public class JavaObject extends JavaLazyReadObject {
     @Override
     public void visitReferencedObjects(JavaHeapObjectVisitor v) {
         super.visitReferencedObjects(v);
+        if (!v.mightExclude()) {
+            // Only the reference fields matter, so read just those.
+            JavaClass cl = getClazz();
+            FieldLayout layout = cl.getFieldLayout();
+            for (int slot : layout.getRefSlots()) {
+                JavaThing t = cl.readRef(this, layout, slot, false);
+                if (t instanceof JavaHeapObject) {
+                    v.visit((JavaHeapObject) t);
+                }
+            }
+            return;
+        }
         JavaThing[] flds = getFields();
         for (int i = 0; i < flds.length; i++) {
             if (flds[i] != null) {
@@ -161,20 +164,22 @@ public class JavaObject extends JavaLazyReadObject {
 
     @Override
     public boolean refersOnlyWeaklyTo(Snapshot ss, JavaThing other) {
-        if (ss.getWeakReferenceClass() != null) {
+        JavaClass cl = getClazz();
+        if (ss.getWeakReferenceClass() != null && ss.isWeakReferenceClass(cl)) {
+            //
+            // REMIND:  This introduces a dependency on the JDK
+            //      implementation that is undesirable.
             final int referentFieldIndex = ss.getReferentFieldIndex();
-            if (ss.getWeakReferenceClass().isAssignableFrom(getClazz())) {
-                //
-                // REMIND:  This introduces a dependency on the JDK
-                //      implementation that is undesirable.
-                JavaThing[] flds = getFields();
-                for (int i = 0; i < flds.length; i++) {
-                    if (i != referentFieldIndex && flds[i] == other) {
-                        return false;
-                    }
+            // Only a reference field can refer to other, and the slots
+            // of Reference's fields are the same in its subclasses.
+            FieldLayout layout = cl.getFieldLayout();
+            for (int slot : layout.getRefSlots()) {
+                if (slot != referentFieldIndex
+                        && other.equals(cl.readRef(this, layout, slot, false))) {
+                    return false;
                 }
-                return true;
             }
+            return true;
         }
         return false;
     }
@@ -187,7 +192,7 @@ public class JavaObject extends JavaLazyReadObject {
     public String describeReferenceTo(JavaThing target, Snapshot ss) {
         JavaThing[] flds = getFields();
         for (int i = 0; i < flds.length; i++) {
-            if (flds[i] == target) {
+            if (target.equals(flds[i])) {
                 JavaField f = getClazz().getFieldForInstance(i);
                 return "field " + f.getName();
             }
@@ -220,6 +225,11 @@ public class JavaObject extends JavaLazyReadObject {
      *     data length (int)
      *     byte[length]
      */
+    // file offset of the field values of this object
+    final long getFieldsOffset() {
+        return getOffset() + 2*getClazz().getIdentifierSize() + 8;
+    }
+
     @Override
     protected final int readValueLength() throws IOException {
         JavaClass cl = getClazz();
@@ -246,89 +256,58 @@ public class JavaObject extends JavaLazyReadObject {
 
     private JavaThing[] parseFields(byte[] data, boolean verbose) {
         JavaClass cl = getClazz();
-        int target = cl.getNumFieldsForInstance();
-        JavaField[] fields = cl.getFields();
-        JavaThing[] fieldValues = new JavaThing[target];
+        FieldLayout layout = cl.getFieldLayout();
+        JavaThing[] fieldValues = new JavaThing[layout.size()];
         Snapshot snapshot = cl.getSnapshot();
-        int idSize = snapshot.getIdentifierSize();
-        int fieldNo = 0;
-        // In the dump file, the fields are stored in this order:
-        // fields of most derived class (immediate class) are stored
-        // first and then the super class and so on. In this object,
-        // fields are stored in the reverse ("natural") order. i.e.,
-        // fields of most super class are stored first.
-
-        // target variable is used to compensate for the fact that
-        // the dump file starts field values from the leaf working
-        // upwards in the inheritance hierarchy, whereas JavaObject
-        // starts with the top of the inheritance hierarchy and works down.
-        target -= fields.length;
-        JavaClass currClass = cl;
-        int index = 0;
-        for (int i = 0; i < fieldValues.length; i++, fieldNo++) {
-            while (fieldNo >= fields.length) {
-                currClass = currClass.getSuperclass();
-                fields = currClass.getFields();
-                fieldNo = 0;
-                target -= fields.length;
-            }
-            JavaField f = fields[fieldNo];
-            char sig = f.getSignature().charAt(0);
+        for (int i = 0; i < fieldValues.length; i++) {
+            int index = layout.getOffset(i);
+            char sig = layout.getType(i);
             switch (sig) {
                 case 'L':
                 case '[': {
                     long id = objectIdAt(index, data);
-                    index += idSize;
                     JavaObjectRef ref = new JavaObjectRef(id);
-                    fieldValues[target+fieldNo] = ref.dereference(snapshot, f, verbose);
+                    fieldValues[i] = ref.dereference(snapshot, layout.getField(i), verbose);
                     break;
                 }
                 case 'Z': {
                     byte value = byteAt(index, data);
-                    index++;
-                    fieldValues[target+fieldNo] = new JavaBoolean(value != 0);
+                    fieldValues[i] = new JavaBoolean(value != 0);
                     break;
                 }
                 case 'B': {
                     byte value = byteAt(index, data);
-                    index++;
-                    fieldValues[target+fieldNo] = new JavaByte(value);
+                    fieldValues[i] = new JavaByte(value);
                     break;
                 }
                 case 'S': {
                     short value = shortAt(index, data);
-                    index += 2;
-                    fieldValues[target+fieldNo] = new JavaShort(value);
+                    fieldValues[i] = new JavaShort(value);
                     break;
                 }
                 case 'C': {
                     char value = charAt(index, data);
-                    index += 2;
-                    fieldValues[target+fieldNo] = new JavaChar(value);
+                    fieldValues[i] = new JavaChar(value);
                     break;
                 }
                 case 'I': {
                     int value = intAt(index, data);
-                    index += 4;
-                    fieldValues[target+fieldNo] = new JavaInt(value);
+                    fieldValues[i] = new JavaInt(value);
                     break;
                 }
                 case 'J': {
                     long value = longAt(index, data);
-                    index += 8;
-                    fieldValues[target+fieldNo] = new JavaLong(value);
+                    fieldValues[i] = new JavaLong(value);
                     break;
                 }
                 case 'F': {
                     float value = floatAt(index, data);
-                    index += 4;
-                    fieldValues[target+fieldNo] = new JavaFloat(value);
+                    fieldValues[i] = new JavaFloat(value);
                     break;
                 }
                 case 'D': {
                     double value = doubleAt(index, data);
-                    index += 8;
-                    fieldValues[target+fieldNo] = new JavaDouble(value);
+                    fieldValues[i] = new JavaDouble(value);
                     break;
                 }
                 default:
@@ -40,48 +40,46 @@ import com.sun.tools.hat.internal.parser.ReadBuffer;
  */
 public class JavaObjectArray extends JavaLazyReadObject {
 
-    private Object clazz;  // Long before resolve, the class after resolve
-
-    public JavaObjectArray(long classID, long offset) {
-        super(offset);
-        this.clazz = makeId(classID);
-    }
-
-    @Override
-    public JavaClass getClazz() {
-        return (JavaClass) clazz;
+    JavaObjectArray(Snapshot snapshot, int index, long offset) {
+        super(snapshot, index, offset);
     }
 
     @Override
-    public void resolve(Snapshot snapshot) {
-        if (clazz instanceof JavaClass) {
-            return;
+    JavaClass lookUpClass(Snapshot snapshot) {
+        JavaThing t = snapshot.findThing(readClassID(snapshot));
+        if (!(t instanceof JavaClass)) {
+            return null;
         }
-        long classID = getIdValue((Number)clazz);
         if (snapshot.isNewStyleArrayClass()) {
             // Modern heap dumps do this
-            JavaThing t = snapshot.findThing(classID);
-            if (t instanceof JavaClass) {
-                clazz = t;
-            }
+            return (JavaClass) t;
         }
-        if (!(clazz instanceof JavaClass)) {
-            JavaThing t = snapshot.findThing(classID);
-            if (t != null && t instanceof JavaClass) {
-                JavaClass el = (JavaClass) t;
-                String nm = el.getName();
-                if (!nm.startsWith("[")) {
-                    nm = "L" + el.getName() + ";";
-                }
-                clazz = snapshot.getArrayClass(nm);
-            }
+        return snapshot.findArrayClass(elementSignature((JavaClass) t));
+    }
+
+    @Override
+    JavaClass makeUpClass(Snapshot snapshot) {
+        JavaThing t = snapshot.findThing(readClassID(snapshot));
+        if (t instanceof JavaClass) {
+            return snapshot.getArrayClass(elementSignature((JavaClass) t));
+        }
+        return snapshot.getOtherArrayType();
+    }
+
+    private long readClassID(Snapshot snapshot) {
+        try {
+            return readIdAt(getOffset() + snapshot.getIdentifierSize() + 8);
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
         }
+    }
 
-        if (!(clazz instanceof JavaClass)) {
-            clazz = snapshot.getOtherArrayType();
+    private static String elementSignature(JavaClass el) {
+        String nm = el.getName();
+        if (!nm.startsWith("[")) {
+            nm = "L" + el.getName() + ";";
         }
-        ((JavaClass)clazz).addInstance(this);
-        super.resolve(snapshot);
+        return nm;
     }
 
     public JavaThing[] getValues() {
@@ -133,7 +131,7 @@ public class JavaObjectArray extends JavaLazyReadObject {
     public String describeReferenceTo(JavaThing target, Snapshot ss) {
         JavaThing[] elements = getElements();
         for (int i = 0; i < elements.length; i++) {
-            if (elements[i] == target) {
+            if (target.equals(elements[i])) {
                 return "Element " + i + " of " + this;
             }
         }
@@ -63,6 +63,11 @@ public class JavaObjectRef extends JavaThing {
     }
 
     public JavaThing dereference(Snapshot snapshot, JavaField field, boolean verbose) {
+        return dereference(snapshot, id, field, verbose);
+    }
+
+    static JavaThing dereference(Snapshot snapshot, long id, JavaField field,
+                                 boolean verbose) {
         if (field != null && !field.hasId()) {
             // If this happens, we must be a field that represents an int.
             // (This only happens with .bod-style files)
@@ -66,6 +66,29 @@ public class JavaValueArray extends JavaLazyReadObject {
         }
     }
 
+    private static byte elementSignature(byte type) {
+        switch (type) {
+            case T_BOOLEAN:
+                return 'Z';
+            case T_CHAR:
+                return 'C';
+            case T_FLOAT:
+                return 'F';
+            case T_DOUBLE:
+                return 'D';
+            case T_BYTE:
+                return 'B';
+            case T_SHORT:
+                return 'S';
+            case T_INT:
+                return 'I';
+            case T_LONG:
+                return 'J';
+            default:
+                throw new IllegalArgumentException("invalid array element type: " + type);
+        }
+    }
+
     private static int elementSize(byte type) {
         switch (type) {
             case T_BYTE:
@@ -97,22 +120,26 @@ public class JavaValueArray extends JavaLazyReadObject {
      */
     @Override
     protected final int readValueLength() throws IOException {
-        JavaClass cl = getClazz();
-        ReadBuffer buf = cl.getReadBuffer();
-        int idSize = cl.getIdentifierSize();
-        long offset = getOffset() + idSize + 4;
-        // length of the array
-        int len = buf.getInt(offset);
-        // typecode of array element type
-        byte type = buf.getByte(offset + 4);
-        return len * elementSize(type);
+        return readLength() * elementSize(readElementTypeCode());
+    }
+
+    private int readLength() throws IOException {
+        Snapshot snapshot = getSnapshot();
+        long offset = getOffset() + snapshot.getIdentifierSize() + 4;
+        return snapshot.getReadBuffer().getInt(offset);
+    }
+
+    private byte readElementTypeCode() throws IOException {
+        Snapshot snapshot = getSnapshot();
+        long offset = getOffset() + snapshot.getIdentifierSize() + 8;
+        return snapshot.getReadBuffer().getByte(offset);
     }
 
     @Override
     protected final byte[] readValue() throws IOException {
-        JavaClass cl = getClazz();
-        ReadBuffer buf = cl.getReadBuffer();
-        int idSize = cl.getIdentifierSize();
+        Snapshot snapshot = getSnapshot();
+        ReadBuffer buf = snapshot.getReadBuffer();
+        int idSize = snapshot.getIdentifierSize();
         long offset = getOffset() + idSize + 4;
         // length of the array
         int length = buf.getInt(offset);
@@ -128,32 +155,13 @@ public class JavaValueArray extends JavaLazyReadObject {
         }
     }
 
-    // JavaClass set only after resolve.
-    private JavaClass clazz;
-
-    // This field contains elementSignature byte and
-    // divider to be used to calculate length. Note that
-    // length of content byte[] is not same as array length.
-    // Actual array length is (byte[].length / divider)
-    private int data;
-
-    // First 8 bits of data is used for element signature
-    private static final int SIGNATURE_MASK = 0x0FF;
-
-    // Next 8 bits of data is used for length divider
-    private static final int LENGTH_DIVIDER_MASK = 0x0FF00;
-
-    // Number of bits to shift to get length divider
-    private static final int LENGTH_DIVIDER_SHIFT = 8;
-
-    public JavaValueArray(byte elementSignature, long offset) {
-        super(offset);
-        this.data = (elementSignature & SIGNATURE_MASK);
+    // file offset of the elements of this array
+    final long getElementsOffset() {
+        return getOffset() + getSnapshot().getIdentifierSize() + 9;
     }
 
-    @Override
-    public JavaClass getClazz() {
-        return clazz;
+    JavaValueArray(Snapshot snapshot, int index, long offset) {
+        super(snapshot, index, offset);
     }
 
     @Override
@@ -162,47 +170,23 @@ public class JavaValueArray extends JavaLazyReadObject {
     }
 
     @Override
-    public void resolve(Snapshot snapshot) {
-        if (clazz != null) {
-            return;
-        }
-        byte elementSig = getElementType();
-        clazz = snapshot.findClass(arrayTypeName(elementSig));
-        if (clazz == null) {
-            clazz = snapshot.getArrayClass("" + ((char) elementSig));
-        }
-        getClazz().addInstance(this);
-        super.resolve(snapshot);
+    JavaClass lookUpClass(Snapshot snapshot) {
+        return snapshot.findClass(arrayTypeName(getElementType()));
+    }
+
+    @Override
+    JavaClass makeUpClass(Snapshot snapshot) {
+        return snapshot.getArrayClass("" + ((char) getElementType()));
     }
 
     public int getLength() {
-        int divider = (data & LENGTH_DIVIDER_MASK) >>> LENGTH_DIVIDER_SHIFT;
-        if (divider == 0) {
-            byte elementSignature = getElementType();
-            switch (elementSignature) {
-            case 'B':
-            case 'Z':
-                divider = 1;
-                break;
-            case 'C':
-            case 'S':
-                divider = 2;
-                break;
-            case 'I':
-            case 'F':
-                divider = 4;
-                break;
-            case 'J':
-            case 'D':
-                divider = 8;
-                break;
-            default:
-                throw new IllegalArgumentException("unknown primitive type: " +
-                                elementSignature);
-            }
-            data |= (divider << LENGTH_DIVIDER_SHIFT);
+        try {
+            return readLength();
+        } catch (IOException exp) {
+            System.err.println("lazy read failed at offset " + getOffset());
+            exp.printStackTrace();
+            return 0;
         }
-        return (getValueLength() / divider);
     }
 
     public Object getElements() {
@@ -282,7 +266,13 @@ public class JavaValueArray extends JavaLazyReadObject {
     }
 
     public byte getElementType() {
-        return (byte) (data & SIGNATURE_MASK);
+        try {
+            return elementSignature(readElementTypeCode());
+        } catch (IOException exp) {
+            System.err.println("lazy read failed at offset " + getOffset());
+            exp.printStackTrace();
+            return 0;
+        }
     }
 
     private void checkIndex(int index) {
@@ -0,0 +1,310 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * The shortest paths from the rootset to each instance of a class, merged
+ * into a tree.  The first level of the tree is the kind of root that each
+ * path starts from, and each level below is the class of the next object
+ * on the path, up to the object that refers to the instance.  Each node
+ * counts the instances whose paths go through it, and the total of their
+ * retained sizes.
+ *
+ * <p>The paths come from one breadth-first search from the rootset,
+ * which stops once every instance has been found.
+ */
+public final class MergedRootPaths {
+    /**
+     * A set of paths that start from the same kind of root and go
+     * through objects of the same classes.
+     */
+    public static final class Node {
+        private final int number;
+        private final int rootType;
+        private final JavaClass clazz;
+        private final boolean classObject;
+        private final Node parent;
+        private final Map<Integer, Node> children = new HashMap<>();
+        private ImmutableList<Node> sortedChildren;
+        private int count;
+        private long retainedSize;
+
+        private Node(int number, int rootType, JavaClass clazz,
+                     boolean classObject, Node parent) {
+            this.number = number;
+            this.rootType = rootType;
+            this.clazz = clazz;
+            this.classObject = classObject;
+            this.parent = parent;
+        }
+
+        /**
+         * @return the type of root the paths start from
+         */
+        public int getRootType() {
+            return rootType;
+        }
+
+        /**
+         * @return the class of the objects at this point in the paths,
+         *          or null for the first level
+         */
+        public JavaClass getClazz() {
+            return clazz;
+        }
+
+        /**
+         * @return whether the paths go through the class itself (that
+         *          is, its statics) rather than an instance of it
+         */
+        public boolean isClassObject() {
+            return classObject;
+        }
+
+        /**
+         * @return the number of instances whose paths go through here
+         */
+        public int getCount() {
+            return count;
+        }
+
+        /**
+         * @return the total retained size of the instances whose paths
+         *          go through here; the retained size of an instance
+         *          that another one dominates is counted in both
+         */
+        public long getRetainedSize() {
+            return retainedSize;
+        }
+
+        /**
+         * @return the next level of the paths, most instances first
+         */
+        public ImmutableList<Node> getChildren() {
+            return sortedChildren;
+        }
+    }
+
+    private static final Ordering<Node> MOST_FIRST = Ordering.natural().reverse()
+            .onResultOf((Node node) -> node.count)
+            .compound(Ordering.natural().reverse()
+                    .onResultOf((Node node) -> node.retainedSize));
+
+    private final JavaClass clazz;
+    private final ImmutableList<Node> roots;
+    private final int unreachableCount;
+
+    private MergedRootPaths(JavaClass clazz, ImmutableList<Node> roots,
+                            int unreachableCount) {
+        this.clazz = clazz;
+        this.roots = roots;
+        this.unreachableCount = unreachableCount;
+    }
+
+    /**
+     * @return the class whose instances the paths lead to
+     */
+    public JavaClass getTargetClass() {
+        return clazz;
+    }
+
+    /**
+     * @return the first level of the paths, by root type, most
+     *          instances first
+     */
+    public ImmutableList<Node> getRoots() {
+        return roots;
+    }
+
+    /**
+     * @return the number of instances that can't be reached from the
+     *          rootset, and so are in no path
+     */
+    public int getUnreachableCount() {
+        return unreachableCount;
+    }
+
+    // parent of an object not reached by the search
+    static final int UNSEEN = -2;
+    // parent of an object in the rootset
+    static final int ROOT = -1;
+
+    static MergedRootPaths compute(Snapshot snapshot, JavaClass clazz,
+                                   boolean includeWeak) {
+        final int numRows = snapshot.getObjectTable().size();
+        BitSet targets = new BitSet(numRows);
+        int numTargets = 0;
+        for (JavaHeapObject obj : clazz.getInstances(false)) {
+            targets.set(obj.getIndex());
+            numTargets++;
+        }
+        int[] parents = findParents(snapshot, targets, includeWeak);
+
+        // Put each instance into the node for the path to it.
+        List<Node> nodes = new ArrayList<>();
+        Map<Integer, Node> roots = new HashMap<>();
+        int[] nodeNumbers = new int[numRows];
+        Arrays.fill(nodeNumbers, -1);
+        int[] path = new int[16];
+        for (int target = targets.nextSetBit(0); target >= 0;
+                target = targets.nextSetBit(target + 1)) {
+            Node node;
+            if (parents[target] == UNSEEN) {
+                continue;
+            } else if (parents[target] == ROOT) {
+                node = getTopNode(snapshot, nodes, roots, target);
+            } else {
+                // Go back along the path to an object whose node is known,
+                // or to the root...
+                int obj = parents[target];
+                int length = 0;
+                while (nodeNumbers[obj] == -1) {
+                    if (length == path.length) {
+                        path = Arrays.copyOf(path, length * 2);
+                    }
+                    path[length++] = obj;
+                    if (parents[obj] == ROOT) {
+                        break;
+                    }
+                    obj = parents[obj];
+                }
+                node = nodeNumbers[obj] != -1 ? nodes.get(nodeNumbers[obj])
+                        : getTopNode(snapshot, nodes, roots, obj);
+                // ...then forward again, remembering the node for each
+                // object so that later paths through it stop there.
+                for (int i = length - 1; i >= 0; i--) {
+                    node = getChildNode(snapshot, nodes, node, path[i]);
+                    nodeNumbers[path[i]] = node.number;
+                }
+            }
+            node.count++;
+            node.retainedSize += snapshot.getRetainedSize(target);
+        }
+
+        // Children were made after their parents, so going backwards adds
+        // up each node's totals before its parent's.
+        for (int n = nodes.size() - 1; n >= 0; n--) {
+            Node node = nodes.get(n);
+            if (node.parent != null) {
+                node.parent.count += node.count;
+                node.parent.retainedSize += node.retainedSize;
+            }
+            node.sortedChildren = MOST_FIRST.immutableSortedCopy(node.children.values());
+        }
+        ImmutableList<Node> sortedRoots = MOST_FIRST.immutableSortedCopy(roots.values());
+        int reachable = 0;
+        for (Node root : sortedRoots) {
+            reachable += root.count;
+        }
+        return new MergedRootPaths(clazz, sortedRoots, numTargets - reachable);
+    }
+
+    /**
+     * Search breadth-first from the rootset until all of targets have been
+     * found (or everything reachable has).
+     *
+     * @return the object that each object was first found through, or
+     *          ROOT for objects in the rootset, or UNSEEN
+     */
+    static int[] findParents(Snapshot snapshot, BitSet targets, boolean includeWeak) {
+        final int numRows = snapshot.getObjectTable().size();
+        RefereeReader refs = new RefereeReader(snapshot);
+        int remaining = targets.cardinality();
+        int[] parents = new int[numRows];
+        Arrays.fill(parents, UNSEEN);
+        int[] queue = DominatorTree.findRootTargets(snapshot);
+        int head = 0;
+        int tail = queue.length;
+        for (int i = 0; i < tail; i++) {
+            parents[queue[i]] = ROOT;
+            if (targets.get(queue[i])) {
+                remaining--;
+            }
+        }
+        queue = Arrays.copyOf(queue, numRows);
+        while (head < tail && remaining > 0) {
+            int obj = queue[head++];
+            JavaHeapObject weakRef = !includeWeak && snapshot.isWeakReference(obj)
+                    ? snapshot.getThingAt(obj) : null;
+            refs.read(obj);
+            for (int pos = refs.start(); pos < refs.end(); pos++) {
+                int next = refs.target(pos);
+                if (parents[next] == UNSEEN && (weakRef == null
+                        || !weakRef.refersOnlyWeaklyTo(snapshot, snapshot.getThingAt(next)))) {
+                    parents[next] = obj;
+                    queue[tail++] = next;
+                    if (targets.get(next)) {
+                        remaining--;
+                    }
+                }
+            }
+        }
+        return parents;
+    }
+
+    private static Node getTopNode(Snapshot snapshot, List<Node> nodes,
+                                   Map<Integer, Node> roots, int root) {
+        return roots.computeIfAbsent(
+                snapshot.getRoot(snapshot.getThingAt(root)).getType(),
+                type -> newNode(nodes, type, null, false, null));
+    }
+
+    private static Node getChildNode(Snapshot snapshot, List<Node> nodes,
+                                     Node parent, int obj) {
+        ObjectTable table = snapshot.getObjectTable();
+        boolean classObject = ObjectTable.isClass(table.getKind(obj));
+        int classNumber = classObject ? (int) table.getOffset(obj)
+                : snapshot.getClassNumberOf(obj);
+        return parent.children.computeIfAbsent(classNumber * 2 + (classObject ? 1 : 0),
+                key -> newNode(nodes, parent.rootType,
+                               snapshot.getClassList().get(classNumber),
+                               classObject, parent));
+    }
+
+    private static Node newNode(List<Node> nodes, int rootType, JavaClass clazz,
+                                boolean classObject, Node parent) {
+        Node node = new Node(nodes.size(), rootType, clazz, classObject, parent);
+        nodes.add(node);
+        return node;
+    }
+}
@@ -0,0 +1,133 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.Arrays;
+
+/**
+ * Column-wise table of every heap object in a snapshot, addressed by a
+ * dense index. Instances and arrays are nothing more than a row here;
+ * {@link JavaObject}, {@link JavaObjectArray} and {@link JavaValueArray}
+ * are views onto a row, made on demand by {@link Snapshot#getThingAt}.
+ *
+ * <p>For instances and arrays, the offset column holds the file offset
+ * of the object's record, and the class column the number of its class
+ * once resolved (-1 before that). Classes are real objects, kept in a
+ * list by the snapshot; for them the offset column holds their position
+ * in that list.
+ */
+final class ObjectTable {
+    static final byte CLASS = 1;
+    static final byte INSTANCE = 2;
+    static final byte OBJECT_ARRAY = 3;
+    static final byte VALUE_ARRAY = 4;
+    // a class that isn't a heap object (yet), such as the made-up
+    // classes for array types
+    static final byte HIDDEN_CLASS = 5;
+
+    private long[] offsets;
+    private int[] classNumbers;
+    private byte[] kinds;
+    private int size;
+
+    ObjectTable() {
+        this(new byte[1024], new long[1024], new int[1024], 0);
+    }
+
+    // makes a table from the given columns, which are taken over
+    ObjectTable(byte[] kinds, long[] offsets, int[] classNumbers, int size) {
+        this.kinds = kinds;
+        this.offsets = offsets;
+        this.classNumbers = classNumbers;
+        this.size = size;
+    }
+
+    int size() {
+        return size;
+    }
+
+    int add(byte kind, long offset) {
+        if (size == kinds.length) {
+            int capacity = size + (size >> 1);
+            offsets = Arrays.copyOf(offsets, capacity);
+            classNumbers = Arrays.copyOf(classNumbers, capacity);
+            kinds = Arrays.copyOf(kinds, capacity);
+        }
+        set(size, kind, offset);
+        return size++;
+    }
+
+    void set(int index, byte kind, long offset) {
+        kinds[index] = kind;
+        offsets[index] = offset;
+        classNumbers[index] = -1;
+    }
+
+    byte getKind(int index) {
+        return kinds[index];
+    }
+
+    void setKind(int index, byte kind) {
+        kinds[index] = kind;
+    }
+
+    long getOffset(int index) {
+        return offsets[index];
+    }
+
+    int getClassNumber(int index) {
+        return classNumbers[index];
+    }
+
+    void setClassNumber(int index, int classNumber) {
+        classNumbers[index] = classNumber;
+    }
+
+    // The columns themselves, for saving; only the first size() entries
+    // are in use.
+    byte[] getKinds() {
+        return kinds;
+    }
+
+    long[] getOffsets() {
+        return offsets;
+    }
+
+    int[] getClassNumbers() {
+        return classNumbers;
+    }
+
+    static boolean isClass(byte kind) {
+        return kind == CLASS || kind == HIDDEN_CLASS;
+    }
+}
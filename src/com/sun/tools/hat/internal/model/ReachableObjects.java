@@ -32,8 +32,14 @@
 
 package com.sun.tools.hat.internal.model;
 
-import java.util.HashSet;
+import java.util.AbstractList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.IdentityHashMap;
+import java.util.Map;
 import java.util.Set;
+import java.util.TreeSet;
 
 import com.google.common.collect.Ordering;
 
@@ -42,66 +48,204 @@ import com.google.common.collect.Ordering;
  */
 
 public class ReachableObjects {
+    // Biggest first, then by class name, then in index order; the order
+    // is total, so the same objects come out whichever way they were found.
+    private static final Ordering<JavaHeapObject> BIGGEST_FIRST
+            = Ordering.natural().reverse().onResultOf(JavaHeapObject::getSize)
+                .compound(Ordering.natural())
+                .compound(Ordering.natural().onResultOf(JavaHeapObject::getIndex));
+
     public ReachableObjects(JavaHeapObject root,
                             final ReachableExcludes excludes) {
+        this(root, excludes, Integer.MAX_VALUE);
+    }
+
+    /**
+     * Find the objects reachable from root, not following the excluded
+     * fields, but only keep the given number of the biggest of them.
+     * The count and total size still cover all of them.
+     */
+    public ReachableObjects(JavaHeapObject root,
+                            final ReachableExcludes excludes, int limit) {
         this.root = root;
 
-        final Set<JavaHeapObject> bag = new HashSet<>();
-        final Set<String> fieldsExcluded = new HashSet<>();
-        final Set<String> fieldsUsed = new HashSet<>();
-        JavaHeapObjectVisitor visitor = new JavaHeapObjectVisitor() {
+        Walk walk = new Walk(root, excludes);
+        walk.run();
+
+        Snapshot snapshot = root.getSnapshot();
+        int[] found = walk.found;
+        int numFound = walk.numFound;
+        this.reachableCount = numFound;
+        this.totalSize = walk.totalSize + root.getSize();
+        this.reachables = BIGGEST_FIRST.leastOf(new AbstractList<JavaHeapObject>() {
             @Override
-            public void visit(JavaHeapObject t) {
-                // Size is zero for things like integer fields
-                if (t != null && t.getSize() > 0 && !bag.contains(t)) {
-                    bag.add(t);
-                    t.visitReferencedObjects(this);
-                }
+            public JavaHeapObject get(int index) {
+                return snapshot.getThingAt(found[index]);
             }
 
             @Override
-            public boolean mightExclude() {
-                return excludes != null;
+            public int size() {
+                return numFound;
             }
+        }, limit).toArray(new JavaThing[0]);
 
-            @Override
-            public boolean exclude(JavaClass clazz, JavaField f) {
-                if (excludes == null) {
-                    return false;
+        excludedFields = getElements(walk.fieldsExcluded);
+        usedFields = getElements(walk.fieldsUsed);
+    }
+
+    //
+    // Collect the closure of root and all objects reachable from root, but
+    // not root itself, with an explicit stack and a bitset of the objects
+    // seen.  The snapshot's referees index is used if there is one and no
+    // fields are excluded; otherwise each object's fields are read, using
+    // a mask of the followed reference fields worked out once per class.
+    //
+    private static class Walk implements JavaHeapObjectVisitor {
+        private final Snapshot snapshot;
+        private final JavaHeapObject root;
+        private final ReachableExcludes excludes;
+        private final EdgeIndex referees;
+        private final BitSet seen = new BitSet();
+        private final Map<JavaClass, int[]> followedSlots = new HashMap<>();
+        private final Map<JavaField, Boolean> staticsExcluded = new IdentityHashMap<>();
+        final Set<String> fieldsExcluded = new TreeSet<>();
+        final Set<String> fieldsUsed = new TreeSet<>();
+        int[] found = new int[64];
+        int numFound;
+        long totalSize;
+        private int[] stack = new int[64];
+        private int top;
+
+        Walk(JavaHeapObject root, ReachableExcludes excludes) {
+            this.snapshot = root.getSnapshot();
+            this.root = root;
+            this.excludes = excludes;
+            this.referees = excludes == null ? snapshot.getRefereeIndex() : null;
+        }
+
+        void run() {
+            seen.set(root.getIndex());
+            // Size is zero for things like integer fields
+            if (root.getSize() > 0) {
+                push(root.getIndex());
+            }
+            while (top > 0) {
+                int index = stack[--top];
+                if (referees != null) {
+                    for (int pos = referees.start(index); pos < referees.end(index); pos++) {
+                        visit(referees.target(pos));
+                    }
+                    continue;
                 }
-                String nm = clazz.getName() + "." + f.getName();
-                if (excludes.isExcluded(nm)) {
-                    fieldsExcluded.add(nm);
-                    return true;
+                JavaHeapObject obj = snapshot.getThingAt(index);
+                if (excludes != null && obj instanceof JavaObject) {
+                    JavaObject jobj = (JavaObject) obj;
+                    JavaClass cl = jobj.getClazz();
+                    FieldLayout layout = cl.getFieldLayout();
+                    visit(cl);
+                    for (int slot : getFollowedSlots(cl, layout)) {
+                        JavaThing t = cl.readRef(jobj, layout, slot, false);
+                        if (t instanceof JavaHeapObject) {
+                            visit((JavaHeapObject) t);
+                        }
+                    }
                 } else {
-                    fieldsUsed.add(nm);
-                    return false;
+                    obj.visitReferencedObjects(this);
+                }
+            }
+        }
+
+        @Override
+        public void visit(JavaHeapObject t) {
+            if (t != null) {
+                visit(t.getIndex());
+            }
+        }
+
+        private void visit(int index) {
+            if (!seen.get(index)) {
+                seen.set(index);
+                JavaHeapObject t = snapshot.getThingAt(index);
+                long size = t.getSize();
+                if (size > 0) {
+                    if (numFound == found.length) {
+                        found = Arrays.copyOf(found, numFound * 2);
+                    }
+                    found[numFound++] = index;
+                    totalSize += size;
+                    push(index);
                 }
             }
-        };
-        // Put the closure of root and all objects reachable from root into
-        // bag (depth first), but don't include root:
-        visitor.visit(root);
-        bag.remove(root);
+        }
 
-        this.reachables = bag.stream().sorted(Ordering.natural().reverse().onResultOf(JavaThing::getSize)
-                .compound(Ordering.natural())).toArray(JavaThing[]::new);
+        private void push(int index) {
+            if (top == stack.length) {
+                stack = Arrays.copyOf(stack, top * 2);
+            }
+            stack[top++] = index;
+        }
+
+        @Override
+        public boolean mightExclude() {
+            return excludes != null;
+        }
 
-        this.totalSize = bag.stream().mapToLong(JavaThing::getSize).sum()
-                + root.getSize();
+        @Override
+        public boolean exclude(JavaClass clazz, JavaField f) {
+            if (excludes == null) {
+                return false;
+            }
+            return staticsExcluded.computeIfAbsent(f,
+                    field -> isExcluded(clazz.getName() + "." + field.getName()));
+        }
 
-        excludedFields = getElements(fieldsExcluded);
-        usedFields = getElements(fieldsUsed);
+        // The reference slots of cl's instances that aren't excluded.
+        private int[] getFollowedSlots(JavaClass cl, FieldLayout layout) {
+            int[] slots = followedSlots.get(cl);
+            if (slots == null) {
+                boolean[] excluded = new boolean[layout.size()];
+                for (int slot = 0; slot < excluded.length; slot++) {
+                    excluded[slot] = isExcluded(cl.getClassForField(slot).getName()
+                                                + "." + layout.getField(slot).getName());
+                }
+                slots = Arrays.stream(layout.getRefSlots())
+                        .filter(slot -> !excluded[slot]).toArray();
+                followedSlots.put(cl, slots);
+            }
+            return slots;
+        }
+
+        private boolean isExcluded(String name) {
+            if (excludes.isExcluded(name)) {
+                fieldsExcluded.add(name);
+                return true;
+            } else {
+                fieldsUsed.add(name);
+                return false;
+            }
+        }
     }
 
     public JavaHeapObject getRoot() {
         return root;
     }
 
+    /**
+     * @return the reachable objects, biggest first, up to the limit given
+     *          when this was made
+     */
     public JavaThing[] getReachables() {
         return reachables;
     }
 
+    /**
+     * @return the number of objects reachable from the root, not counting
+     *          the root itself
+     */
+    public int getReachableCount() {
+        return reachableCount;
+    }
+
     public long getTotalSize() {
         return totalSize;
     }
@@ -115,11 +259,12 @@ public class ReachableObjects {
     }
 
     private static String[] getElements(Set<String> set) {
-        return set.stream().sorted().toArray(String[]::new);
+        return set.toArray(new String[0]);
     }
 
     private final JavaHeapObject root;
     private final JavaThing[] reachables;
+    private final int reachableCount;
     private final String[]  excludedFields;
     private final String[]  usedFields;
     private final long totalSize;
@@ -0,0 +1,83 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+/**
+ * Reads the objects that one object after another refers to: from the
+ * snapshot's referees index if it has one, and otherwise from each object
+ * as it is asked for, so that a search that looks at each object only a
+ * few times needn't build an index of the whole heap first.  After
+ * {@link #read}, the referees are {@code target(pos)} for positions
+ * from {@code start()} up to (but not including) {@code end()}, in index
+ * order, without duplicates.  Not for use by more than one thread.
+ */
+final class RefereeReader {
+    private final Snapshot snapshot;
+    private final EdgeIndex index;
+    private final Snapshot.RefereeCollector collector;
+    private int start;
+    private int end;
+
+    RefereeReader(Snapshot snapshot) {
+        this.snapshot = snapshot;
+        this.index = snapshot.getRefereeIndex();
+        this.collector = index == null ? new Snapshot.RefereeCollector() : null;
+    }
+
+    /**
+     * Reads the referees of the object at the given index.
+     */
+    void read(int obj) {
+        if (index != null) {
+            start = index.start(obj);
+            end = index.end(obj);
+        } else if (snapshot.getObjectTable().getKind(obj) == ObjectTable.HIDDEN_CLASS) {
+            start = end = 0;
+        } else {
+            start = 0;
+            end = collector.collect(snapshot.getThingAt(obj)).size;
+        }
+    }
+
+    int start() {
+        return start;
+    }
+
+    int end() {
+        return end;
+    }
+
+    int target(int pos) {
+        return index != null ? index.target(pos) : collector.indexes[pos];
+    }
+}
@@ -32,15 +32,27 @@
 
 package com.sun.tools.hat.internal.model;
 
+import java.io.IOException;
 import java.lang.ref.SoftReference;
 import java.util.*;
-
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.function.Consumer;
+import java.util.function.IntConsumer;
+import java.util.function.IntFunction;
+import java.util.stream.IntStream;
+
+import com.google.common.base.Supplier;
 import com.google.common.collect.ImmutableList;
+import com.google.common.collect.ImmutableSet;
 import com.sun.tools.hat.internal.lang.ModelFactory;
 import com.sun.tools.hat.internal.lang.LanguageRuntime;
+import com.sun.tools.hat.internal.lang.openjdk.CollectionEfficiency;
 import com.sun.tools.hat.internal.parser.LoadProgress;
 import com.sun.tools.hat.internal.parser.ReadBuffer;
+import com.sun.tools.hat.internal.util.LongIntMap;
 import com.sun.tools.hat.internal.util.Misc;
+import com.sun.tools.hat.internal.util.Suppliers;
 
 /**
  *
@@ -61,10 +73,23 @@ public class Snapshot {
     private static final JavaField[] EMPTY_FIELD_ARRAY = new JavaField[0];
     private static final JavaStatic[] EMPTY_STATIC_ARRAY = new JavaStatic[0];
 
-    // all heap objects
-    private final Map<Number, JavaHeapObject> heapObjects = new HashMap<>();
+    // all heap objects, and their index in heapObjects by id
+    private ObjectTable heapObjects = new ObjectTable();
+    private LongIntMap heapObjectIndex = new LongIntMap();
+    // number of heapObjects rows that aren't hidden classes
+    private int numHeapObjects;
+
+    // all classes, by class number
+    private final List<JavaClass> classList = new ArrayList<>();
+
+    // classes made up for instances whose class isn't in the dump; these
+    // are hidden until everything is resolved
+    private final LongIntMap fakeClassIndex = new LongIntMap();
 
-    private final Map<Number, JavaClass> fakeClasses = new HashMap<>();
+    // references to and from each heap object, set up by resolve; the
+    // latter are optional
+    private EdgeIndex referers;
+    private EdgeIndex referees;
 
     // all Roots in this Snapshot
     private final List<Root> roots = new ArrayList<>();
@@ -72,14 +97,14 @@ public class Snapshot {
     // name-to-class map
     private final Map<String, JavaClass> classes = new TreeMap<>();
 
-    // new objects relative to a baseline
-    private final Set<JavaHeapObject> newObjects = new HashSet<>();
+    // new objects relative to a baseline, by index
+    private BitSet newObjects = new BitSet();
 
-    // allocation site traces for all objects
-    private final Map<JavaHeapObject, StackTrace> siteTraces = new HashMap<>();
+    // allocation site traces for all objects, by index
+    private final Map<Integer, StackTrace> siteTraces = new HashMap<>();
 
-    // object-to-Root map for all objects
-    private final Map<JavaHeapObject, Root> rootsMap = new HashMap<>();
+    // object-to-Root map for all objects, by index
+    private final Map<Integer, Root> rootsMap = new HashMap<>();
 
     // soft cache of finalizeable objects - lazily initialized
     private SoftReference<List<JavaHeapObject>> finalizablesCache;
@@ -91,6 +116,8 @@ public class Snapshot {
     private JavaClass weakReferenceClass;
     // index of 'referent' field in java.lang.ref.Reference class
     private int referentFieldIndex;
+    // class numbers of weakReferenceClass and its subclasses
+    private final BitSet weakReferenceClasses = new BitSet();
 
     // java.lang.Class class
     private JavaClass javaLangClass;
@@ -108,6 +135,9 @@ public class Snapshot {
 
     // True iff some heap objects have isNew set
     private boolean hasNewSet;
+
+    // the instances of each class in the baseline, if there is one
+    private ClassHistogram baselineHistogram;
     private boolean unresolvedObjectsOK;
 
     // whether object array instances have new style class or
@@ -124,19 +154,103 @@ public class Snapshot {
 
     private volatile ImmutableList<ModelFactory> modelFactories;
 
+    // Each of these is worked out when first asked for, under a lock of
+    // its own, so that a slow one doesn't hold up the others.
+    private volatile DominatorTree dominatorTree;
+    private final Object dominatorTreeLock = new Object();
+    private final Supplier<DuplicateStrings> duplicateStrings
+            = Suppliers.memoize(() -> DuplicateStrings.compute(this));
+    private final Supplier<DuplicateArrays> duplicateArrays
+            = Suppliers.memoize(() -> DuplicateArrays.compute(this));
+    private final Supplier<BoxedPrimitives> boxedPrimitives
+            = Suppliers.memoize(() -> BoxedPrimitives.compute(this));
+    private final Supplier<CollectionEfficiency> collectionEfficiency
+            = Suppliers.memoize(() -> CollectionEfficiency.compute(this));
+    private final Supplier<ImmutableList<ClassLoaders.Loader>> classLoaders
+            = Suppliers.memoize(() -> ClassLoaders.compute(this));
+    private final Supplier<ImmutableList<ThreadStacks.Thread>> threadStacks
+            = Suppliers.memoize(() -> ThreadStacks.compute(this));
+    private final Supplier<ImmutableList<HeapDiff.Delta>> heapDiff
+            = Suppliers.memoize(() -> baselineHistogram == null ? null
+                                      : HeapDiff.compute(this, baselineHistogram));
+
+    // the index file that this snapshot is restored from or saved to
+    private SnapshotIndex index;
+    // while restoring from an index, the class numbers of the classes
+    // still to be read, in the order the reader will read them
+    private int[] restoredClassNumbers;
+    private int numRestoredClasses;
+
     public Snapshot(ReadBuffer buf) {
         nullThing = new HackJavaValue("<null>", 0);
         readBuf = buf;
     }
 
-    public void setSiteTrace(JavaHeapObject obj, StackTrace trace) {
+    /**
+     * Sets the index file for this snapshot.  If the index was loaded,
+     * the object table is restored from it straight away, and the
+     * reader only needs to read the classes and roots; resolve() then
+     * restores the rest.  Otherwise, resolve() writes the index once the
+     * snapshot is resolved.
+     */
+    public void setIndex(SnapshotIndex index) {
+        this.index = index;
+        if (!index.isLoaded()) {
+            return;
+        }
+        heapObjects = index.getObjectTable();
+        heapObjectIndex = index.getObjectIndex();
+        numHeapObjects = index.getNumHeapObjects();
+        unresolvedObjectsOK = index.getUnresolvedObjectsOK();
+        // Made-up classes are made up again here; the rest are left
+        // empty, for the reader to fill in.
+        int numClasses = index.getNumClasses();
+        int[] classNumbers = new int[numClasses];
+        for (int i = 0; i < numClasses; i++) {
+            JavaClass c = null;
+            switch (index.getClassKind(i)) {
+                case SnapshotIndex.NAMED_FAKE_CLASS:
+                    c = new JavaClass(index.getClassName(i), 0, 0, 0, 0,
+                                      EMPTY_FIELD_ARRAY, EMPTY_STATIC_ARRAY, 0);
+                    break;
+                case SnapshotIndex.INSTANCE_FAKE_CLASS:
+                    c = makeFakeInstanceClass(index.getClassId(i),
+                                              index.getClassSize(i));
+                    break;
+                default:
+                    classNumbers[numRestoredClasses++] = i;
+                    break;
+            }
+            if (c != null) {
+                c.setIndex(index.getClassRow(i));
+            }
+            classList.add(c);
+        }
+        restoredClassNumbers = Arrays.copyOf(classNumbers, numRestoredClasses);
+        numRestoredClasses = 0;
+    }
+
+    /**
+     * When restoring from an index, sets the allocation site traces of
+     * the objects (other than classes) that had one, reading the serial
+     * number of each trace from the object's record.
+     */
+    public void restoreSiteTraces(IntFunction<StackTrace> traceForSerial)
+            throws IOException {
+        for (int i : index.getTracedIndexes()) {
+            int serial = readBuf.getInt(heapObjects.getOffset(i) + identifierSize);
+            setSiteTrace(i, traceForSerial.apply(serial));
+        }
+    }
+
+    public void setSiteTrace(int index, StackTrace trace) {
         if (trace != null && trace.getFrames().length != 0) {
-            siteTraces.put(obj, trace);
+            siteTraces.put(index, trace);
         }
     }
 
     public StackTrace getSiteTrace(JavaHeapObject obj) {
-        return siteTraces.get(obj);
+        return siteTraces.get(obj.getIndex());
     }
 
     public void setNewStyleArrayClass(boolean value) {
@@ -160,8 +274,34 @@ public class Snapshot {
         return minimumObjectSize;
     }
 
-    public void addHeapObject(long id, JavaHeapObject ho) {
-        heapObjects.put(makeId(id), ho);
+    /**
+     * Adds an instance (HPROF_GC_INSTANCE_DUMP record) at the given
+     * file offset.
+     *
+     * @return the index of the new object
+     */
+    public int addJavaObject(long id, long offset) {
+        return addHeapObject(id, ObjectTable.INSTANCE, offset);
+    }
+
+    /**
+     * Adds an object array (HPROF_GC_OBJ_ARRAY_DUMP record) at the given
+     * file offset.
+     *
+     * @return the index of the new object
+     */
+    public int addObjectArray(long id, long offset) {
+        return addHeapObject(id, ObjectTable.OBJECT_ARRAY, offset);
+    }
+
+    /**
+     * Adds a primitive array (HPROF_GC_PRIM_ARRAY_DUMP record) at the
+     * given file offset.
+     *
+     * @return the index of the new object
+     */
+    public int addValueArray(long id, long offset) {
+        return addHeapObject(id, ObjectTable.VALUE_ARRAY, offset);
     }
 
     public void addRoot(Root r) {
@@ -170,11 +310,29 @@ public class Snapshot {
     }
 
     public void addClass(long id, JavaClass c) {
-        addHeapObject(id, c);
+        if (restoredClassNumbers != null) {
+            // The index has a place for the class already.
+            if (numRestoredClasses == restoredClassNumbers.length) {
+                throw new IllegalStateException("More classes than the index lists");
+            }
+            int classNumber = restoredClassNumbers[numRestoredClasses++];
+            c.setIndex(index.getClassRow(classNumber));
+            classList.set(classNumber, c);
+            putInClassesMap(c);
+            return;
+        }
+        c.setIndex(addHeapObject(id, ObjectTable.CLASS, classList.size()));
+        classList.add(c);
         putInClassesMap(c);
     }
 
     JavaClass addFakeInstanceClass(long classID, int instSize) {
+        JavaClass c = makeFakeInstanceClass(classID, instSize);
+        addFakeClass(classID, c);
+        return c;
+    }
+
+    private static JavaClass makeFakeInstanceClass(long classID, int instSize) {
         // Create a fake class name based on ID.
         String name = "unknown-class<@" + Misc.toHex(classID) + ">";
 
@@ -194,11 +352,8 @@ public class Snapshot {
         }
 
         // Create fake instance class
-        JavaClass c = new JavaClass(name, 0, 0, 0, 0, fields,
-                                 EMPTY_STATIC_ARRAY, instSize);
-        // Add the class
-        addFakeClass(makeId(classID), c);
-        return c;
+        return new JavaClass(name, 0, 0, 0, 0, fields,
+                             EMPTY_STATIC_ARRAY, instSize);
     }
 
 
@@ -216,14 +371,183 @@ public class Snapshot {
     private static final int DOT_LIMIT = 5000;
 
     /**
-     * Called after reading complete, to initialize the structure
+     * Called after reading complete, to initialize the structure.  If
+     * calculateRefs is set, an index of references to each object is
+     * built; if indexReferees is also set, so is an index of references
+     * from each object, which speeds up traversals of the object graph.
      */
-    public void resolve(LoadProgress loadProgress, boolean calculateRefs) {
-        System.out.println("Resolving " + heapObjects.size() + " objects...");
+    public void resolve(LoadProgress loadProgress, boolean calculateRefs,
+                        boolean indexReferees) {
+        if (index != null && index.isLoaded()) {
+            resolveFromIndex(loadProgress, calculateRefs, indexReferees);
+            return;
+        }
+        System.out.println("Resolving " + numHeapObjects + " objects...");
 
         // First, resolve the classes.  All classes must be resolved before
         // we try any objects, because the objects use classes in their
         // resolution.
+        findCoreClasses();
+
+        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress("Resolving objects", numHeapObjects * 2);
+
+        // Hidden classes are resolved as they are made up, and any rows
+        // added from here on are such classes.
+        final int numRows = heapObjects.size();
+        for (int i = 0; i < numRows; i++) {
+            byte kind = heapObjects.getKind(i);
+            if (kind == ObjectTable.CLASS) {
+                getThingAt(i).resolve(this);
+            }
+            if (kind != ObjectTable.HIDDEN_CLASS) {
+                progress.tick();
+            }
+        }
+
+        // Now, resolve everything else.  Most objects' classes can be
+        // looked up in parallel; the few that need a class made up are
+        // done afterwards, in order.  The instances of each class are
+        // then listed in index order.
+        final LoadProgress.TickedProgress objectProgress = progress;
+        IntStream.range(0, numRows).parallel()
+                .filter(i -> heapObjects.getKind(i) != ObjectTable.HIDDEN_CLASS)
+                .forEach(i -> {
+                    if (heapObjects.getKind(i) != ObjectTable.CLASS) {
+                        JavaLazyReadObject obj = (JavaLazyReadObject) getThingAt(i);
+                        JavaClass clazz = obj.lookUpClass(this);
+                        if (clazz != null) {
+                            setClassOf(i, clazz);
+                        }
+                    }
+                    objectProgress.tick();
+                });
+        for (int i = 0; i < numRows; i++) {
+            if (!ObjectTable.isClass(heapObjects.getKind(i))
+                    && heapObjects.getClassNumber(i) < 0) {
+                ((JavaLazyReadObject) getThingAt(i)).resolveClass(this);
+            }
+        }
+        addInstancesToClasses(numRows);
+        resolveSiteTraces();
+
+        progress.end();
+        fakeClassIndex.forEach((id, index) -> {
+            heapObjects.setKind(index, ObjectTable.CLASS);
+            heapObjectIndex.put(id, index);
+            numHeapObjects++;
+        });
+
+        setUpWeakReferenceClass();
+        resolveRoots();
+
+        if (calculateRefs) {
+            calculateReferencesToObjects(loadProgress, indexReferees);
+        }
+        if (index != null) {
+            // saved before the references are filled in with an empty
+            // index, so that they're worked out when next needed
+            index.save(this);
+        }
+        if (!calculateRefs) {
+            referers = EdgeIndex.empty(heapObjects.size());
+        }
+    }
+
+    //
+    // Resolve a snapshot whose objects were restored from its index,
+    // restoring what resolving the objects would work out, rather than
+    // reading them.  The references are only worked out again if the
+    // index doesn't have the ones that are wanted.
+    //
+    private void resolveFromIndex(LoadProgress loadProgress,
+                                  boolean calculateRefs, boolean indexReferees) {
+        if (numRestoredClasses != restoredClassNumbers.length) {
+            throw new IllegalStateException("Heap dump has fewer classes than the index lists");
+        }
+        restoredClassNumbers = null;
+        System.out.println("Restoring " + numHeapObjects + " objects from index...");
+        for (int i = 0; i < classList.size(); i++) {
+            if (index.getClassKind(i) != SnapshotIndex.REAL_CLASS) {
+                putInClassesMap(classList.get(i));
+            }
+        }
+        findCoreClasses();
+        otherArrayType = findClass("[<other>");
+        final int numRows = heapObjects.size();
+        for (int i = 0; i < numRows; i++) {
+            if (ObjectTable.isClass(heapObjects.getKind(i))) {
+                getThingAt(i).resolve(this);
+            }
+        }
+        EdgeIndex instances = index.getInstances();
+        for (int i = 0; i < classList.size(); i++) {
+            classList.get(i).setInstanceIndexes(Arrays.copyOfRange(
+                    instances.getTargets(), instances.start(i), instances.end(i)));
+        }
+
+        resolveSiteTraces();
+        setUpWeakReferenceClass();
+        resolveRoots();
+
+        if (!calculateRefs) {
+            referers = EdgeIndex.empty(numRows);
+        } else if (index.getReferers() != null
+                   && (index.getReferees() != null || !indexReferees)) {
+            referers = index.getReferers();
+            referees = indexReferees ? index.getReferees() : null;
+        } else {
+            calculateReferencesToObjects(loadProgress, indexReferees);
+            index.save(this);
+        }
+    }
+
+    //
+    // Add the objects (other than classes) in the first numRows rows to
+    // the instances of their classes, with a counting sort by class.
+    //
+    private void addInstancesToClasses(int numRows) {
+        int numClasses = classList.size();
+        int[] offsets = new int[numClasses + 1];
+        for (int i = 0; i < numRows; i++) {
+            if (!ObjectTable.isClass(heapObjects.getKind(i))) {
+                offsets[heapObjects.getClassNumber(i) + 1]++;
+            }
+        }
+        for (int c = 0; c < numClasses; c++) {
+            offsets[c + 1] += offsets[c];
+        }
+        int[] next = Arrays.copyOf(offsets, numClasses);
+        int[] indexes = new int[offsets[numClasses]];
+        for (int i = 0; i < numRows; i++) {
+            if (!ObjectTable.isClass(heapObjects.getKind(i))) {
+                indexes[next[heapObjects.getClassNumber(i)]++] = i;
+            }
+        }
+        for (int c = 0; c < numClasses; c++) {
+            classList.get(c).addInstances(indexes, offsets[c], offsets[c + 1]);
+        }
+    }
+
+    private void resolveSiteTraces() {
+        for (StackTrace trace : siteTraces.values()) {
+            trace.resolve(this);
+        }
+    }
+
+    /**
+     * Warn of any instance fields that refer to objects not in the
+     * snapshot.  This used to be done while resolving, but takes a
+     * while, so is now only done when asked for.
+     */
+    public void validateReferences() {
+        for (int i = 0; i < heapObjects.size(); i++) {
+            if (heapObjects.getKind(i) == ObjectTable.INSTANCE) {
+                ((JavaObject) getThingAt(i)).validateFields();
+            }
+        }
+    }
+
+    private void findCoreClasses() {
         javaLangClass = findClass("java.lang.Class");
         if (javaLangClass == null) {
             System.err.println("WARNING:  hprof file does not include java.lang.Class!");
@@ -245,30 +569,9 @@ public class Snapshot {
                                  EMPTY_FIELD_ARRAY, EMPTY_STATIC_ARRAY, 0);
             addFakeClass(javaLangClassLoader);
         }
+    }
 
-        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress("Resolving objects", heapObjects.size() * 2);
-
-        for (JavaHeapObject t : heapObjects.values()) {
-            if (t instanceof JavaClass) {
-                t.resolve(this);
-            }
-
-            progress.tick();
-        }
-
-        // Now, resolve everything else.
-        for (JavaHeapObject t : heapObjects.values()) {
-            if (!(t instanceof JavaClass)) {
-                t.resolve(this);
-            }
-
-            progress.tick();
-        }
-
-        loadProgress.end();
-        heapObjects.putAll(fakeClasses);
-        fakeClasses.clear();
-
+    private void setUpWeakReferenceClass() {
         weakReferenceClass = findClass("java.lang.ref.Reference");
         if (weakReferenceClass == null)  {      // JDK 1.1.x
             weakReferenceClass = findClass("sun.misc.Ref");
@@ -282,86 +585,236 @@ public class Snapshot {
                 }
             }
         }
-
-        if (calculateRefs) {
-            calculateReferencesToObjects(loadProgress);
-            System.out.print("Eliminating duplicate references");
-            System.out.flush();
-            // This println refers to the *next* step
-        }
-        progress = loadProgress.startTickedProgress("Eliminating duplicate references", heapObjects.size());
-        int count = 0;
-        for (JavaHeapObject t : heapObjects.values()) {
-            t.setupReferers();
-            ++count;
-            if (calculateRefs && count % DOT_LIMIT == 0) {
-                System.out.print(".");
-                System.out.flush();
-            }
-            progress.tick();
-        }
-        if (calculateRefs) {
-            System.out.println();
+        if (weakReferenceClass != null) {
+            for (int i = 0; i < classList.size(); i++) {
+                if (weakReferenceClass.isAssignableFrom(classList.get(i))) {
+                    weakReferenceClasses.set(i);
+                }
+            }
         }
-        loadProgress.end();
     }
 
-    private void calculateReferencesToObjects(LoadProgress loadProgress) {
-        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress("Chasing references", heapObjects.size() + roots.size());
-        System.out.print("Chasing references, expect "
-                         + (heapObjects.size() / DOT_LIMIT) + " dots");
-        System.out.flush();
-        int count = 0;
-        for (final JavaHeapObject t : heapObjects.values()) {
-            // call addReferenceFrom(t) on all objects t references:
-            t.visitReferencedObjects(other -> other.addReferenceFrom(t));
-            ++count;
-            if (count % DOT_LIMIT == 0) {
-                System.out.print(".");
-                System.out.flush();
-            }
-            progress.tick();
-        }
-        System.out.println();
+    /**
+     * @return whether clazz is the weak reference class or a subclass
+     */
+    boolean isWeakReferenceClass(JavaClass clazz) {
+        return weakReferenceClasses.get((int) heapObjects.getOffset(clazz.getIndex()));
+    }
+
+    /**
+     * @return whether the object at the given index is an instance of the
+     *          weak reference class or a subclass
+     */
+    boolean isWeakReference(int index) {
+        return !ObjectTable.isClass(heapObjects.getKind(index))
+                && weakReferenceClasses.get(heapObjects.getClassNumber(index));
+    }
+
+    //
+    // Resolve the roots, and note which objects they are the roots of.
+    // This needs no references, so it's done whether or not they are
+    // worked out.
+    //
+    private void resolveRoots() {
         for (Root r : roots) {
             r.resolve(this);
             JavaHeapObject t = findThing(r.getId());
             if (t != null) {
                 t.addReferenceFromRoot(r);
             }
-            progress.tick();
         }
-        loadProgress.end();
     }
 
-    public void markNewRelativeTo(Snapshot baseline) {
-        hasNewSet = true;
-        for (JavaHeapObject t : heapObjects.values()) {
-            boolean isNew;
-            long thingID = t.getId();
-            if (thingID == 0L || thingID == -1L) {
-                isNew = false;
-            } else {
-                JavaThing other = baseline.findThing(t.getId());
-                if (other == null) {
-                    isNew = true;
-                } else {
-                    isNew = !t.isSameTypeAs(other);
+    //
+    // Build the referers index in two parallel passes over all objects:
+    // the first counts how many referers each object has, and the second
+    // fills them in.  The referees index, if wanted, is filled in along
+    // the way.
+    //
+    private void calculateReferencesToObjects(LoadProgress loadProgress,
+                                              boolean indexReferees) {
+        final int numRows = heapObjects.size();
+        final ThreadLocal<RefereeCollector> collectors
+                = ThreadLocal.withInitial(RefereeCollector::new);
+
+        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress("Chasing references", numHeapObjects);
+        System.out.print("Chasing references, expect "
+                         + (numHeapObjects / DOT_LIMIT) + " dots");
+        System.out.flush();
+        AtomicIntegerArray counts = new AtomicIntegerArray(numRows);
+        int[] outCounts = indexReferees ? new int[numRows] : null;
+        forEachHeapObjectIndex(progress, i -> {
+            RefereeCollector referees = collectors.get().collect(getThingAt(i));
+            for (int j = 0; j < referees.size; j++) {
+                counts.incrementAndGet(referees.indexes[j]);
+            }
+            if (outCounts != null) {
+                outCounts[i] = referees.size;
+            }
+        });
+        System.out.println();
+        progress.end();
+
+        progress = loadProgress.startTickedProgress("Eliminating duplicate references", numHeapObjects);
+        System.out.print("Eliminating duplicate references");
+        System.out.flush();
+        int[] offsets = new int[numRows + 1];
+        for (int i = 0; i < numRows; i++) {
+            // counts now holds the next free position for each object
+            offsets[i + 1] = addCount(offsets[i], counts.getAndSet(i, offsets[i]));
+        }
+        int[] indexes = new int[offsets[numRows]];
+        int[] outOffsets = null;
+        int[] outIndexes = null;
+        if (outCounts != null) {
+            outOffsets = new int[numRows + 1];
+            for (int i = 0; i < numRows; i++) {
+                outOffsets[i + 1] = addCount(outOffsets[i], outCounts[i]);
+            }
+            outIndexes = new int[outOffsets[numRows]];
+        }
+        final int[] finalOutOffsets = outOffsets;
+        final int[] finalOutIndexes = outIndexes;
+        forEachHeapObjectIndex(progress, i -> {
+            RefereeCollector referees = collectors.get().collect(getThingAt(i));
+            for (int j = 0; j < referees.size; j++) {
+                indexes[counts.getAndIncrement(referees.indexes[j])] = i;
+            }
+            if (finalOutIndexes != null) {
+                System.arraycopy(referees.indexes, 0, finalOutIndexes,
+                                 finalOutOffsets[i], referees.size);
+            }
+        });
+        // The second pass filled each object's referers in no particular
+        // order; sort them, so that they come out the same every time.
+        IntStream.range(0, numRows).parallel().forEach(i ->
+                Arrays.sort(indexes, offsets[i], offsets[i + 1]));
+        referers = new EdgeIndex(offsets, indexes);
+        if (outIndexes != null) {
+            referees = new EdgeIndex(outOffsets, outIndexes);
+        }
+        System.out.println();
+        progress.end();
+    }
+
+    static int addCount(int total, int count) {
+        if (total + (long) count > Integer.MAX_VALUE - 8) {
+            throw new IllegalStateException("Too many references in heap dump");
+        }
+        return total + count;
+    }
+
+    // Call action for the index of each heap object, in parallel.
+    private void forEachHeapObjectIndex(LoadProgress.TickedProgress progress,
+                                        IntConsumer action) {
+        AtomicInteger count = new AtomicInteger();
+        IntStream.range(0, heapObjects.size()).parallel()
+                .filter(i -> heapObjects.getKind(i) != ObjectTable.HIDDEN_CLASS)
+                .forEach(i -> {
+                    action.accept(i);
+                    if (count.incrementAndGet() % DOT_LIMIT == 0) {
+                        System.out.print(".");
+                        System.out.flush();
+                    }
+                    progress.tick();
+                });
+    }
+
+    /**
+     * Marks the objects that are not in the baseline, or whose class has
+     * a different name there, as new.  Each object's id is looked up in
+     * the baseline's id table, in parallel, and the result kept as one
+     * bit per object.
+     *
+     * @param baseline the ids and classes of the baseline's objects
+     */
+    public void markNewRelativeTo(BaselineIndex baseline) {
+        final int numRows = heapObjects.size();
+        int[] classNames = new int[classList.size()];
+        for (int c = 0; c < classNames.length; c++) {
+            classNames[c] = baseline.getNameIndex(classList.get(c).getName());
+        }
+        // Each task fills whole words of the bit set.
+        long[] words = new long[(numRows + 63) / 64];
+        IntStream.range(0, words.length).parallel().forEach(w -> {
+            long word = 0;
+            for (int i = w * 64, end = Math.min(numRows, i + 64); i < end; i++) {
+                if (heapObjects.getKind(i) == ObjectTable.HIDDEN_CLASS) {
+                    continue;
+                }
+                long id = getIdAt(i);
+                if (id == 0L || id == -1L) {
+                    continue;
+                }
+                int other = baseline.getClassNameOf(id);
+                if (other == -1 || other != classNames[getClassNumberOf(i)]) {
+                    word |= 1L << (i - w * 64);
                 }
             }
-            t.setNew(isNew);
+            words[w] = word;
+        });
+        newObjects = BitSet.valueOf(words);
+        baselineHistogram = baseline.getHistogram();
+        hasNewSet = true;
+    }
+
+    // The id of the object at the given index, without making a view of it.
+    private long getIdAt(int index) {
+        long offset = heapObjects.getOffset(index);
+        if (ObjectTable.isClass(heapObjects.getKind(index))) {
+            return classList.get((int) offset).getId();
+        }
+        try {
+            return identifierSize == 4
+                    ? readBuf.getInt(offset) & SMALL_ID_MASK : readBuf.getLong(offset);
+        } catch (IOException exp) {
+            throw new RuntimeException(exp);
         }
     }
 
     public Collection<JavaHeapObject> getThings() {
-        return heapObjects.values();
+        return new AbstractCollection<JavaHeapObject>() {
+            @Override
+            public Iterator<JavaHeapObject> iterator() {
+                return IntStream.range(0, heapObjects.size())
+                        .filter(i -> heapObjects.getKind(i) != ObjectTable.HIDDEN_CLASS)
+                        .mapToObj(Snapshot.this::getThingAt)
+                        .iterator();
+            }
+
+            @Override
+            public int size() {
+                return numHeapObjects;
+            }
+        };
     }
 
+    /**
+     * Returns the heap object at the given index. Other than classes,
+     * heap objects are only views onto the snapshot's object table, so
+     * this returns a new (but equal) object on each call.
+     */
+    public JavaHeapObject getThingAt(int index) {
+        long offset = heapObjects.getOffset(index);
+        switch (heapObjects.getKind(index)) {
+            case ObjectTable.INSTANCE:
+                return new JavaObject(this, index, offset);
+            case ObjectTable.OBJECT_ARRAY:
+                return new JavaObjectArray(this, index, offset);
+            case ObjectTable.VALUE_ARRAY:
+                return new JavaValueArray(this, index, offset);
+            default:
+                return classList.get((int) offset);
+        }
+    }
 
     public JavaHeapObject findThing(long id) {
-        Number idObj = makeId(id);
-        JavaHeapObject jho = heapObjects.get(idObj);
-        return jho != null? jho : fakeClasses.get(idObj);
+        long key = makeId(id);
+        int index = heapObjectIndex.get(key);
+        if (index == LongIntMap.NO_VALUE) {
+            index = fakeClassIndex.get(key);
+        }
+        return index != LongIntMap.NO_VALUE ? getThingAt(index) : null;
     }
 
     public JavaHeapObject findThing(String id) {
@@ -427,32 +880,98 @@ public class Snapshot {
 
     public ImmutableList<ReferenceChain>
     rootsetReferencesTo(JavaHeapObject target, boolean includeWeak) {
-        Queue<ReferenceChain> fifo = new ArrayDeque<>();
-            // Must be a fifo to go breadth-first
-        Set<JavaHeapObject> visited = new HashSet<>();
-        // Objects are added here right after being added to fifo.
         ImmutableList.Builder<ReferenceChain> result = ImmutableList.builder();
-        visited.add(target);
-        fifo.add(new ReferenceChain(target, null));
+        rootsetReferencesTo(target, includeWeak, Integer.MAX_VALUE,
+                            Integer.MAX_VALUE, Long.MAX_VALUE, result::add);
+        return result.build();
+    }
 
-        while (!fifo.isEmpty()) {
-            ReferenceChain chain = fifo.remove();
-            JavaHeapObject curr = chain.getObj();
+    /**
+     * Find the chains of references from the rootset to target, shortest
+     * first, handing each to action as soon as it is found.  The search
+     * stops after maxPaths chains have been found, before looking at
+     * chains of more than maxDepth objects, or once the time reaches
+     * deadline (in System.currentTimeMillis() terms).
+     *
+     * @return true if the search finished, or false if a limit stopped it
+     */
+    public boolean rootsetReferencesTo(JavaHeapObject target,
+            boolean includeWeak, int maxPaths, int maxDepth, long deadline,
+            Consumer<ReferenceChain> action) {
+        if (referers == null) {
+            throw new IllegalStateException("not resolved");
+        }
+        // A breadth-first search over the referers, so the queue holds
+        // the objects found in order of distance from target, each with
+        // the queue position of the object it refers to on the way there.
+        int[] queue = new int[64];
+        int[] via = new int[64];
+        int head = 0;
+        int tail = 0;
+        BitSet visited = new BitSet(heapObjects.size());
+        visited.set(target.getIndex());
+        queue[tail] = target.getIndex();
+        via[tail++] = -1;
+        int depth = 1;
+        int depthEnd = tail;
+        int numPaths = 0;
+
+        while (head < tail) {
+            if (head == depthEnd) {
+                if (++depth > maxDepth) {
+                    return false;
+                }
+                depthEnd = tail;
+            }
+            if (head % 1024 == 0 && System.currentTimeMillis() > deadline) {
+                return false;
+            }
+            int pos = head++;
+            JavaHeapObject curr = getThingAt(queue[pos]);
             if (curr.getRoot() != null) {
-                result.add(chain);
+                action.accept(makeChain(queue, via, pos));
+                if (++numPaths >= maxPaths) {
+                    // curr's referers are still to be looked at
+                    return false;
+                }
                 // Even though curr is in the rootset, we want to explore its
                 // referers, because they might be more interesting.
             }
-            for (JavaHeapObject t : curr.getReferers()) {
-                if (t != null && !visited.contains(t)) {
+            int index = queue[pos];
+            for (int edge = referers.start(index); edge < referers.end(index); edge++) {
+                int from = referers.target(edge);
+                if (!visited.get(from)) {
+                    JavaHeapObject t = getThingAt(from);
                     if (includeWeak || !t.refersOnlyWeaklyTo(this, curr)) {
-                        visited.add(t);
-                        fifo.add(new ReferenceChain(t, chain));
+                        visited.set(from);
+                        if (tail == queue.length) {
+                            queue = Arrays.copyOf(queue, tail * 2);
+                            via = Arrays.copyOf(via, tail * 2);
+                        }
+                        queue[tail] = from;
+                        via[tail++] = pos;
                     }
                 }
             }
         }
-        return result.build();
+        return true;
+    }
+
+    // The chain from the object at queue position pos to the target.
+    private ReferenceChain makeChain(int[] queue, int[] via, int pos) {
+        int length = 0;
+        for (int p = pos; p != -1; p = via[p]) {
+            length++;
+        }
+        int[] path = new int[length];
+        for (int p = pos, i = 0; p != -1; p = via[p]) {
+            path[i++] = queue[p];
+        }
+        ReferenceChain chain = null;
+        for (int i = length - 1; i >= 0; i--) {
+            chain = new ReferenceChain(getThingAt(path[i]), chain);
+        }
+        return chain;
     }
 
     public boolean getUnresolvedObjectsOK() {
@@ -485,16 +1004,259 @@ public class Snapshot {
 
     // package privates
     void addReferenceFromRoot(Root r, JavaHeapObject obj) {
-        Root root = rootsMap.get(obj);
+        Root root = rootsMap.get(obj.getIndex());
         if (root == null) {
-            rootsMap.put(obj, r);
+            rootsMap.put(obj.getIndex(), r);
         } else {
-            rootsMap.put(obj, root.mostInteresting(r));
+            rootsMap.put(obj.getIndex(), root.mostInteresting(r));
         }
     }
 
     Root getRoot(JavaHeapObject obj) {
-        return rootsMap.get(obj);
+        return rootsMap.get(obj.getIndex());
+    }
+
+    /**
+     * @return the referers of the object at the given index, or null if
+     *          the snapshot hasn't been resolved yet
+     */
+    ImmutableSet<JavaHeapObject> getReferers(int index) {
+        return referers == null ? null : getThingsAt(referers, index);
+    }
+
+    /**
+     * @return the referees of the object at the given index, or null if
+     *          they weren't indexed when the snapshot was resolved
+     */
+    ImmutableSet<JavaHeapObject> getReferees(int index) {
+        return referees == null ? null : getThingsAt(referees, index);
+    }
+
+    /**
+     * @return the index of references from each object, or null if it
+     *          wasn't built when the snapshot was resolved
+     */
+    EdgeIndex getRefereeIndex() {
+        return referees;
+    }
+
+    /**
+     * @return the references from each object: the index of them if
+     *          there is one, or else one made for the caller
+     */
+    EdgeIndex getOutboundReferences() {
+        if (referees != null) {
+            return referees;
+        }
+        final int numRows = heapObjects.size();
+        final ThreadLocal<RefereeCollector> collectors
+                = ThreadLocal.withInitial(RefereeCollector::new);
+        int[] counts = new int[numRows];
+        IntStream.range(0, numRows).parallel()
+                .filter(i -> heapObjects.getKind(i) != ObjectTable.HIDDEN_CLASS)
+                .forEach(i -> counts[i] = collectors.get().collect(getThingAt(i)).size);
+        int[] offsets = new int[numRows + 1];
+        for (int i = 0; i < numRows; i++) {
+            offsets[i + 1] = addCount(offsets[i], counts[i]);
+        }
+        int[] targets = new int[offsets[numRows]];
+        IntStream.range(0, numRows).parallel()
+                .filter(i -> heapObjects.getKind(i) != ObjectTable.HIDDEN_CLASS)
+                .forEach(i -> {
+                    RefereeCollector refs = collectors.get().collect(getThingAt(i));
+                    System.arraycopy(refs.indexes, 0, targets, offsets[i], refs.size);
+                });
+        return new EdgeIndex(offsets, targets);
+    }
+
+    // The dominator tree, worked out when first asked for.  Only working
+    // it out takes the lock; every retained size goes through here.
+    private DominatorTree getDominatorTree() {
+        DominatorTree tree = dominatorTree;
+        if (tree != null) {
+            return tree;
+        }
+        synchronized (dominatorTreeLock) {
+            if (dominatorTree == null) {
+                System.out.println("Computing dominator tree...");
+                dominatorTree = DominatorTree.compute(this);
+                System.out.println("Dominator tree computed.");
+            }
+            return dominatorTree;
+        }
+    }
+
+    /**
+     * @return whether the dominator tree, which the retained sizes come
+     *          from, has been worked out yet; this doesn't wait for it
+     *          if it is being worked out
+     */
+    public boolean hasDominatorTree() {
+        return dominatorTree != null;
+    }
+
+    /**
+     * @return the shortest paths from the rootset to the instances of
+     *          clazz, merged by class
+     */
+    public MergedRootPaths getMergedRootPaths(JavaClass clazz, boolean includeWeak) {
+        return MergedRootPaths.compute(this, clazz, includeWeak);
+    }
+
+    /**
+     * @return the strings with the same values as others, worked out
+     *          when first asked for
+     */
+    public DuplicateStrings getDuplicateStrings() {
+        return duplicateStrings.get();
+    }
+
+    /**
+     * @return the primitive arrays with the same contents as others,
+     *          worked out when first asked for
+     */
+    public DuplicateArrays getDuplicateArrays() {
+        return duplicateArrays.get();
+    }
+
+    /**
+     * @return the boxed primitives and what could be saved by not boxing
+     *          them, worked out when first asked for
+     */
+    public BoxedPrimitives getBoxedPrimitives() {
+        return boxedPrimitives.get();
+    }
+
+    /**
+     * @return how well the JDK collections use their space, worked out
+     *          when first asked for
+     */
+    public CollectionEfficiency getCollectionEfficiency() {
+        return collectionEfficiency.get();
+    }
+
+    /**
+     * @return the class loaders, with the bootstrap loader, most retained
+     *          by their classes first; worked out when first asked for
+     */
+    public ImmutableList<ClassLoaders.Loader> getClassLoaders() {
+        return classLoaders.get();
+    }
+
+    /**
+     * @return the threads, most retained by their stack locals first;
+     *          worked out when first asked for
+     */
+    public ImmutableList<ThreadStacks.Thread> getThreadStacks() {
+        return threadStacks.get();
+    }
+
+    /**
+     * @return the change in the instances of each class since the
+     *          baseline, most grown first, or null if there is no
+     *          baseline; worked out when first asked for
+     */
+    public ImmutableList<HeapDiff.Delta> getHeapDiff() {
+        return heapDiff.get();
+    }
+
+    /**
+     * @return the objects that no single object dominates, but only the
+     *          rootset as a whole, in index order
+     */
+    public ImmutableList<JavaHeapObject> getTopDominators() {
+        return getDominated(DominatorTree.ROOTSET);
+    }
+
+    /**
+     * @return the total size of the objects reachable from the rootset
+     */
+    public long getReachableSize() {
+        return getDominatorTree().getReachableSize();
+    }
+
+    ImmutableList<JavaHeapObject> getDominated(int index) {
+        ImmutableList.Builder<JavaHeapObject> builder = ImmutableList.builder();
+        for (int dominated : getDominatorTree().getDominated(index)) {
+            builder.add(getThingAt(dominated));
+        }
+        return builder.build();
+    }
+
+    JavaHeapObject getDominator(int index) {
+        int dominator = getDominatorTree().getDominator(index);
+        return dominator < 0 ? null : getThingAt(dominator);
+    }
+
+    boolean isReachable(int index) {
+        return getDominatorTree().getDominator(index) != DominatorTree.UNREACHABLE;
+    }
+
+    long getRetainedSize(int index) {
+        return getDominatorTree().getRetainedSize(index);
+    }
+
+    long getClassRetainedSize(JavaClass clazz) {
+        return getDominatorTree().getClassRetainedSize(
+                (int) heapObjects.getOffset(clazz.getIndex()));
+    }
+
+    // The class number of the class of the object at the given index;
+    // classes are instances of java.lang.Class.
+    int getClassNumberOf(int index) {
+        if (ObjectTable.isClass(heapObjects.getKind(index))) {
+            return (int) heapObjects.getOffset(javaLangClass.getIndex());
+        }
+        return heapObjects.getClassNumber(index);
+    }
+
+    // The rest of the state saved in the index file.
+    ObjectTable getObjectTable() {
+        return heapObjects;
+    }
+
+    LongIntMap getObjectIndex() {
+        return heapObjectIndex;
+    }
+
+    LongIntMap getFakeClassIndex() {
+        return fakeClassIndex;
+    }
+
+    List<JavaClass> getClassList() {
+        return classList;
+    }
+
+    EdgeIndex getRefererIndex() {
+        return referers;
+    }
+
+    /**
+     * @return the indexes of the objects (other than classes) that have
+     *          an allocation site trace, in order
+     */
+    int[] getTracedIndexes() {
+        return siteTraces.keySet().stream().mapToInt(Integer::intValue)
+                .filter(i -> !ObjectTable.isClass(heapObjects.getKind(i)))
+                .sorted().toArray();
+    }
+
+    private ImmutableSet<JavaHeapObject> getThingsAt(EdgeIndex edges, int index) {
+        ImmutableSet.Builder<JavaHeapObject> builder = ImmutableSet.builder();
+        for (int pos = edges.start(index); pos < edges.end(index); pos++) {
+            builder.add(getThingAt(edges.target(pos)));
+        }
+        return builder.build();
+    }
+
+    JavaClass getClassOf(int index) {
+        int classNumber = heapObjects.getClassNumber(index);
+        return classNumber < 0 ? null : classList.get(classNumber);
+    }
+
+    void setClassOf(int index, JavaClass clazz) {
+        int classNumber = (int) heapObjects.getOffset(clazz.getIndex());
+        heapObjects.setClassNumber(index, classNumber);
     }
 
     JavaClass getJavaLangClass() {
@@ -526,7 +1288,7 @@ public class Snapshot {
     JavaClass getArrayClass(String elementSignature) {
         JavaClass clazz;
         synchronized(classes) {
-            clazz = findClass("[" + elementSignature);
+            clazz = findArrayClass(elementSignature);
             if (clazz == null) {
                 clazz = new JavaClass("[" + elementSignature, 0, 0, 0, 0,
                                    EMPTY_FIELD_ARRAY, EMPTY_STATIC_ARRAY, 0);
@@ -540,22 +1302,20 @@ public class Snapshot {
         return clazz;
     }
 
-    ReadBuffer getReadBuffer() {
-        return readBuf;
+    JavaClass findArrayClass(String elementSignature) {
+        return findClass("[" + elementSignature);
     }
 
-    void setNew(JavaHeapObject obj, boolean isNew) {
-        if (isNew) {
-            newObjects.add(obj);
-        }
+    ReadBuffer getReadBuffer() {
+        return readBuf;
     }
 
     boolean isNew(JavaHeapObject obj) {
-        return newObjects.contains(obj);
+        return newObjects.get(obj.getIndex());
     }
 
     // Internals only below this point
-    private Number makeId(long id) {
+    private long makeId(long id) {
         if (identifierSize == 4) {
             return (int)id;
         } else {
@@ -563,6 +1323,20 @@ public class Snapshot {
         }
     }
 
+    private int addHeapObject(long id, byte kind, long offset) {
+        long key = makeId(id);
+        int index = heapObjectIndex.get(key);
+        if (index == LongIntMap.NO_VALUE) {
+            index = heapObjects.add(kind, offset);
+            heapObjectIndex.put(key, index);
+            numHeapObjects++;
+        } else {
+            // a later object with the same id replaces the earlier one
+            heapObjects.set(index, kind, offset);
+        }
+        return index;
+    }
+
     private void putInClassesMap(JavaClass c) {
         String name = c.getName();
         if (classes.containsKey(name)) {
@@ -575,13 +1349,15 @@ public class Snapshot {
     }
 
     private void addFakeClass(JavaClass c) {
+        c.setIndex(heapObjects.add(ObjectTable.HIDDEN_CLASS, classList.size()));
+        classList.add(c);
         putInClassesMap(c);
         c.resolve(this);
     }
 
-    private void addFakeClass(Number id, JavaClass c) {
-        fakeClasses.put(id, c);
+    private void addFakeClass(long id, JavaClass c) {
         addFakeClass(c);
+        fakeClassIndex.put(makeId(id), c.getIndex());
     }
 
     public ImmutableList<ModelFactory> getModelFactories() {
@@ -597,4 +1373,32 @@ public class Snapshot {
         }
         modelFactories = builder.build();
     }
+
+    // Collects the distinct indexes of the objects an object refers to.
+    static class RefereeCollector implements JavaHeapObjectVisitor {
+        int[] indexes = new int[16];
+        int size;
+
+        RefereeCollector collect(JavaHeapObject obj) {
+            size = 0;
+            obj.visitReferencedObjects(this);
+            Arrays.sort(indexes, 0, size);
+            int unique = 0;
+            for (int i = 0; i < size; i++) {
+                if (unique == 0 || indexes[unique - 1] != indexes[i]) {
+                    indexes[unique++] = indexes[i];
+                }
+            }
+            size = unique;
+            return this;
+        }
+
+        @Override
+        public void visit(JavaHeapObject other) {
+            if (size == indexes.length) {
+                indexes = Arrays.copyOf(indexes, size * 2);
+            }
+            indexes[size++] = other.getIndex();
+        }
+    }
 }
@@ -0,0 +1,618 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.io.Closeable;
+import java.io.EOFException;
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.BufferUnderflowException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.AtomicMoveNotSupportedException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.zip.CRC32;
+
+import com.sun.tools.hat.internal.parser.ReadBuffer;
+import com.sun.tools.hat.internal.util.LongIntMap;
+
+/**
+ * An index file kept next to a heap dump, holding what reading and
+ * resolving the dump works out: the object table and id index, how
+ * classes are laid out in it, the instances of each class, and the
+ * references to and from each object.  A later load of the same dump
+ * restores these from the index, and only re-reads the few heap dump
+ * sub-records (classes, roots and threads) that are kept as objects.
+ *
+ * <p>The index records the length of the dump and a checksum of it, and
+ * is ignored (and later rewritten) if either doesn't match.  Checksumming
+ * a multi-gigabyte dump in full would take about as long as parsing it,
+ * so the checksum covers regularly spaced samples of the dump.
+ *
+ * <p>Arrays are stored as a length followed by the raw big-endian
+ * elements, and are read back in bulk from a mapping of the file.
+ */
+public final class SnapshotIndex {
+    private static final int MAGIC = 0x46484958;    // "FHIX"
+    private static final int VERSION = 1;
+
+    // what each class number holds
+    static final byte REAL_CLASS = 0;
+    static final byte NAMED_FAKE_CLASS = 1;
+    static final byte INSTANCE_FAKE_CLASS = 2;
+
+    // the dump is checksummed in blocks of this size, this far apart
+    private static final int SAMPLE_SIZE = 1 << 16;
+    private static final long SAMPLE_STRIDE = 1L << 24;
+
+    private final File file;
+    private final long dumpLength;
+    private final long dumpChecksum;
+    private final boolean callStack;
+
+    // offsets of the heap dump sub-records other than instances and
+    // arrays, in file order
+    private long[] recordOffsets;
+
+    // The rest is only set if the index was loaded.
+    private boolean loaded;
+    private boolean unresolvedObjectsOK;
+    private ObjectTable objects;
+    private LongIntMap objectIndex;
+    private int numHeapObjects;
+    private byte[] classKinds;
+    private int[] classRows;
+    private String[] classNames;
+    private long[] classIds;
+    private int[] classSizes;
+    private EdgeIndex instances;
+    private int[] tracedIndexes;
+    private EdgeIndex referers;
+    private EdgeIndex referees;
+
+    private SnapshotIndex(File file, long dumpLength, long dumpChecksum,
+                          boolean callStack) {
+        this.file = file;
+        this.dumpLength = dumpLength;
+        this.dumpChecksum = dumpChecksum;
+        this.callStack = callStack;
+    }
+
+    /**
+     * Opens the index file for a heap dump, loading it if it exists and
+     * matches the dump.  Either way, the result can be handed to
+     * {@link Snapshot#setIndex} so that the index is written once the
+     * snapshot is resolved, if need be.
+     *
+     * @param callStack whether allocation sites are being tracked; an
+     *          index made with a different setting is ignored
+     */
+    public static SnapshotIndex open(File file, ReadBuffer dump,
+                                     long dumpLength, boolean callStack)
+            throws IOException {
+        SnapshotIndex index = new SnapshotIndex(file, dumpLength,
+                checksum(dump, dumpLength), callStack);
+        if (file.exists()) {
+            System.out.println("Loading index from " + file + "...");
+            try {
+                index.loaded = index.load();
+            } catch (IOException | BufferUnderflowException | IllegalArgumentException exp) {
+                System.err.println("WARNING:  Index file " + file
+                                   + " is unreadable (" + exp + ")");
+                index.loaded = false;
+            }
+            if (!index.loaded) {
+                System.out.println("Index is out of date, and will be rebuilt.");
+            }
+        }
+        return index;
+    }
+
+    /**
+     * @return true iff the index was loaded from its file, in which case
+     *          the reader only needs to re-read the sub-records at
+     *          {@link #getRecordOffsets}
+     */
+    public boolean isLoaded() {
+        return loaded;
+    }
+
+    /**
+     * @return the offsets of the heap dump sub-records other than
+     *          instances and arrays, in file order
+     */
+    public long[] getRecordOffsets() {
+        return recordOffsets;
+    }
+
+    /**
+     * Called by the reader, after reading a heap dump that wasn't
+     * indexed, with the sub-records to list in the index.
+     */
+    public void setRecordOffsets(long[] recordOffsets) {
+        this.recordOffsets = recordOffsets;
+    }
+
+    // Loaded state, for Snapshot to restore itself from.
+    boolean getUnresolvedObjectsOK() {
+        return unresolvedObjectsOK;
+    }
+
+    ObjectTable getObjectTable() {
+        return objects;
+    }
+
+    LongIntMap getObjectIndex() {
+        return objectIndex;
+    }
+
+    int getNumHeapObjects() {
+        return numHeapObjects;
+    }
+
+    int getNumClasses() {
+        return classKinds.length;
+    }
+
+    byte getClassKind(int classNumber) {
+        return classKinds[classNumber];
+    }
+
+    int getClassRow(int classNumber) {
+        return classRows[classNumber];
+    }
+
+    String getClassName(int classNumber) {
+        return classNames[classNumber];
+    }
+
+    long getClassId(int classNumber) {
+        return classIds[classNumber];
+    }
+
+    int getClassSize(int classNumber) {
+        return classSizes[classNumber];
+    }
+
+    /**
+     * @return the instances of each class, by class number
+     */
+    EdgeIndex getInstances() {
+        return instances;
+    }
+
+    /**
+     * @return the indexes of the objects (other than classes) that have
+     *          an allocation site trace
+     */
+    int[] getTracedIndexes() {
+        return tracedIndexes;
+    }
+
+    EdgeIndex getReferers() {
+        return referers;
+    }
+
+    EdgeIndex getReferees() {
+        return referees;
+    }
+
+    private boolean load() throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             Input in = new Input(raf.getChannel())) {
+            if (in.readInt() != MAGIC || in.readInt() != VERSION
+                    || in.readLong() != dumpLength
+                    || in.readLong() != dumpChecksum
+                    || in.readBoolean() != callStack) {
+                return false;
+            }
+            unresolvedObjectsOK = in.readBoolean();
+
+            byte[] kinds = in.readBytes();
+            long[] offsets = in.readLongs();
+            int[] classNumbers = in.readInts();
+            if (offsets.length != kinds.length
+                    || classNumbers.length != kinds.length) {
+                throw new IOException("object table columns differ in length");
+            }
+            objects = new ObjectTable(kinds, offsets, classNumbers, kinds.length);
+            numHeapObjects = in.readInt();
+            int size = in.readInt();
+            objectIndex = new LongIntMap(in.readLongs(), in.readInts(), size);
+
+            int numClasses = in.readInt();
+            classKinds = new byte[numClasses];
+            classRows = new int[numClasses];
+            classNames = new String[numClasses];
+            classIds = new long[numClasses];
+            classSizes = new int[numClasses];
+            for (int i = 0; i < numClasses; i++) {
+                classKinds[i] = in.readByte();
+                classRows[i] = in.readInt();
+                switch (classKinds[i]) {
+                    case REAL_CLASS:
+                        break;
+                    case NAMED_FAKE_CLASS:
+                        classNames[i] = in.readString();
+                        break;
+                    case INSTANCE_FAKE_CLASS:
+                        classIds[i] = in.readLong();
+                        classSizes[i] = in.readInt();
+                        break;
+                    default:
+                        throw new IOException("bad class kind " + classKinds[i]);
+                }
+            }
+            instances = readEdges(in);
+            recordOffsets = in.readLongs();
+            tracedIndexes = in.readInts();
+            referers = in.readBoolean() ? readEdges(in) : null;
+            referees = in.readBoolean() ? readEdges(in) : null;
+            if (in.readInt() != ~MAGIC) {
+                throw new IOException("missing end marker");
+            }
+        }
+        return true;
+    }
+
+    private static EdgeIndex readEdges(Input in) throws IOException {
+        return new EdgeIndex(in.readInts(), in.readInts());
+    }
+
+    /**
+     * Writes the index for the given snapshot, which must be resolved.
+     * The index is written to a temporary file first, and moved into
+     * place once complete, so a reader never sees half an index.
+     */
+    void save(Snapshot snapshot) {
+        if (recordOffsets == null) {
+            // The reader doesn't know about indexes.
+            return;
+        }
+        System.out.println("Writing index to " + file + "...");
+        Path target = file.toPath();
+        Path temp = target.resolveSibling(target.getFileName() + ".tmp");
+        try {
+            try (RandomAccessFile raf = new RandomAccessFile(temp.toFile(), "rw");
+                 Output out = new Output(raf.getChannel())) {
+                raf.setLength(0);
+                write(snapshot, out);
+            }
+            try {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING,
+                           StandardCopyOption.ATOMIC_MOVE);
+            } catch (AtomicMoveNotSupportedException exp) {
+                Files.move(temp, target, StandardCopyOption.REPLACE_EXISTING);
+            }
+        } catch (IOException exp) {
+            System.err.println("WARNING:  Could not write index file " + file
+                               + ": " + exp);
+            try {
+                Files.deleteIfExists(temp);
+            } catch (IOException ignored) {
+            }
+        }
+    }
+
+    private void write(Snapshot snapshot, Output out) throws IOException {
+        out.writeInt(MAGIC);
+        out.writeInt(VERSION);
+        out.writeLong(dumpLength);
+        out.writeLong(dumpChecksum);
+        out.writeBoolean(callStack);
+        out.writeBoolean(snapshot.getUnresolvedObjectsOK());
+
+        ObjectTable table = snapshot.getObjectTable();
+        int numRows = table.size();
+        out.writeBytes(table.getKinds(), numRows);
+        out.writeLongs(table.getOffsets(), numRows);
+        out.writeInts(table.getClassNumbers(), numRows);
+        out.writeInt(snapshot.getThings().size());
+        LongIntMap objectIndex = snapshot.getObjectIndex();
+        out.writeInt(objectIndex.size());
+        out.writeLongs(objectIndex.getKeyTable(), objectIndex.getKeyTable().length);
+        out.writeInts(objectIndex.getValueTable(), objectIndex.getValueTable().length);
+
+        // Made-up classes are made up again when the index is loaded;
+        // those made up for instances are known by the id they stand in for.
+        Map<Integer, Long> fakeIds = new HashMap<>();
+        long idMask = snapshot.getIdentifierSize() == 4 ? Snapshot.SMALL_ID_MASK : -1L;
+        snapshot.getFakeClassIndex().forEach((id, index) -> fakeIds.put(index, id & idMask));
+        List<JavaClass> classList = snapshot.getClassList();
+        int[] instanceOffsets = new int[classList.size() + 1];
+        out.writeInt(classList.size());
+        for (int i = 0; i < classList.size(); i++) {
+            JavaClass c = classList.get(i);
+            int row = c.getIndex();
+            if (table.getKind(row) == ObjectTable.HIDDEN_CLASS) {
+                out.writeByte(NAMED_FAKE_CLASS);
+                out.writeInt(row);
+                out.writeString(c.getName());
+            } else if (fakeIds.containsKey(row)) {
+                out.writeByte(INSTANCE_FAKE_CLASS);
+                out.writeInt(row);
+                out.writeLong(fakeIds.get(row));
+                out.writeInt(c.getInstanceSize() - c.getMinimumObjectSize());
+            } else {
+                out.writeByte(REAL_CLASS);
+                out.writeInt(row);
+            }
+            instanceOffsets[i + 1] = instanceOffsets[i] + c.getInstancesCount(false);
+        }
+        out.writeInts(instanceOffsets, instanceOffsets.length);
+        out.writeInt(instanceOffsets[classList.size()]);
+        for (JavaClass c : classList) {
+            out.writeRawInts(c.getInstanceIndexes(), c.getInstancesCount(false));
+        }
+
+        out.writeLongs(recordOffsets, recordOffsets.length);
+        int[] traced = snapshot.getTracedIndexes();
+        out.writeInts(traced, traced.length);
+        writeEdges(out, snapshot.getRefererIndex());
+        writeEdges(out, snapshot.getRefereeIndex());
+        out.writeInt(~MAGIC);
+    }
+
+    private static void writeEdges(Output out, EdgeIndex edges) throws IOException {
+        out.writeBoolean(edges != null);
+        if (edges != null) {
+            out.writeInts(edges.getOffsets(), edges.getOffsets().length);
+            out.writeInts(edges.getTargets(), edges.getTargets().length);
+        }
+    }
+
+    /**
+     * Works out a checksum of the heap dump, from samples spread evenly
+     * through it and from its last few bytes.
+     */
+    static long checksum(ReadBuffer dump, long length) throws IOException {
+        CRC32 crc = new CRC32();
+        byte[] block = new byte[SAMPLE_SIZE];
+        for (long pos = 0; pos < length; pos += SAMPLE_STRIDE) {
+            int n = (int) Math.min(SAMPLE_SIZE, length - pos);
+            dump.get(pos, block, 0, n);
+            crc.update(block, 0, n);
+        }
+        int n = (int) Math.min(SAMPLE_SIZE, length);
+        dump.get(length - n, block, 0, n);
+        crc.update(block, 0, n);
+        return crc.getValue();
+    }
+
+    //
+    // Sequential reads from a file, through a window onto it that's
+    // mapped afresh whenever a read runs past its end.
+    //
+    private static class Input implements Closeable {
+        private static final long WINDOW_SIZE = 1L << 28;
+
+        private final FileChannel channel;
+        private final long size;
+        private long windowStart;
+        private ByteBuffer window;
+
+        Input(FileChannel channel) throws IOException {
+            this.channel = channel;
+            this.size = channel.size();
+            map(0);
+        }
+
+        private void map(long pos) throws IOException {
+            window = channel.map(FileChannel.MapMode.READ_ONLY, pos,
+                                 Math.min(WINDOW_SIZE, size - pos));
+            windowStart = pos;
+        }
+
+        // make sure that at least bytes bytes can be read from the window
+        private ByteBuffer need(int bytes) throws IOException {
+            if (window.remaining() < bytes) {
+                long pos = windowStart + window.position();
+                if (pos + bytes > size) {
+                    throw new EOFException();
+                }
+                map(pos);
+            }
+            return window;
+        }
+
+        // read an array length, making sure the file is long enough
+        private int readLength(int elementSize) throws IOException {
+            int n = readInt();
+            if (n < 0 || (long) n * elementSize
+                    > size - windowStart - window.position()) {
+                throw new IOException("bad array length " + n);
+            }
+            return n;
+        }
+
+        byte readByte() throws IOException {
+            return need(1).get();
+        }
+
+        boolean readBoolean() throws IOException {
+            return readByte() != 0;
+        }
+
+        int readInt() throws IOException {
+            return need(4).getInt();
+        }
+
+        long readLong() throws IOException {
+            return need(8).getLong();
+        }
+
+        String readString() throws IOException {
+            return new String(readBytes(), StandardCharsets.UTF_8);
+        }
+
+        byte[] readBytes() throws IOException {
+            byte[] a = new byte[readLength(1)];
+            for (int done = 0; done < a.length; ) {
+                ByteBuffer b = need(1);
+                int k = Math.min(a.length - done, b.remaining());
+                b.get(a, done, k);
+                done += k;
+            }
+            return a;
+        }
+
+        int[] readInts() throws IOException {
+            int[] a = new int[readLength(4)];
+            for (int done = 0; done < a.length; ) {
+                ByteBuffer b = need(4);
+                int k = Math.min(a.length - done, b.remaining() / 4);
+                b.asIntBuffer().get(a, done, k);
+                b.position(b.position() + 4 * k);
+                done += k;
+            }
+            return a;
+        }
+
+        long[] readLongs() throws IOException {
+            long[] a = new long[readLength(8)];
+            for (int done = 0; done < a.length; ) {
+                ByteBuffer b = need(8);
+                int k = Math.min(a.length - done, b.remaining() / 8);
+                b.asLongBuffer().get(a, done, k);
+                b.position(b.position() + 8 * k);
+                done += k;
+            }
+            return a;
+        }
+
+        @Override
+        public void close() throws IOException {
+            channel.close();
+        }
+    }
+
+    //
+    // Sequential writes to a file, in the format Input reads.
+    //
+    private static class Output implements Closeable {
+        private final FileChannel channel;
+        private final ByteBuffer buf = ByteBuffer.allocate(1 << 20);
+
+        Output(FileChannel channel) {
+            this.channel = channel;
+        }
+
+        // make sure that at least bytes bytes can be put in the buffer
+        private ByteBuffer room(int bytes) throws IOException {
+            if (buf.remaining() < bytes) {
+                flush();
+            }
+            return buf;
+        }
+
+        private void flush() throws IOException {
+            buf.flip();
+            while (buf.hasRemaining()) {
+                channel.write(buf);
+            }
+            buf.clear();
+        }
+
+        void writeByte(byte b) throws IOException {
+            room(1).put(b);
+        }
+
+        void writeBoolean(boolean b) throws IOException {
+            writeByte(b ? (byte) 1 : (byte) 0);
+        }
+
+        void writeInt(int i) throws IOException {
+            room(4).putInt(i);
+        }
+
+        void writeLong(long l) throws IOException {
+            room(8).putLong(l);
+        }
+
+        void writeString(String s) throws IOException {
+            byte[] bytes = s.getBytes(StandardCharsets.UTF_8);
+            writeBytes(bytes, bytes.length);
+        }
+
+        void writeBytes(byte[] a, int n) throws IOException {
+            writeInt(n);
+            for (int done = 0; done < n; ) {
+                ByteBuffer b = room(1);
+                int k = Math.min(n - done, b.remaining());
+                b.put(a, done, k);
+                done += k;
+            }
+        }
+
+        void writeInts(int[] a, int n) throws IOException {
+            writeInt(n);
+            writeRawInts(a, n);
+        }
+
+        // write the elements only, for an array whose length was
+        // written separately
+        void writeRawInts(int[] a, int n) throws IOException {
+            for (int done = 0; done < n; ) {
+                ByteBuffer b = room(4);
+                int k = Math.min(n - done, b.remaining() / 4);
+                b.asIntBuffer().put(a, done, k);
+                b.position(b.position() + 4 * k);
+                done += k;
+            }
+        }
+
+        void writeLongs(long[] a, int n) throws IOException {
+            writeInt(n);
+            for (int done = 0; done < n; ) {
+                ByteBuffer b = room(8);
+                int k = Math.min(n - done, b.remaining() / 8);
+                b.asLongBuffer().put(a, done, k);
+                b.position(b.position() + 8 * k);
+                done += k;
+            }
+        }
+
+        @Override
+        public void close() throws IOException {
+            flush();
+            channel.close();
+        }
+    }
+}
@@ -0,0 +1,325 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.model;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.collect.Ordering;
+
+/**
+ * The threads in the heap, with what each one's stack locals retain:
+ * the objects that are reachable only from the Java and JNI locals of
+ * that thread.  Each thread's total is broken down by frame, counting
+ * the objects reachable only from the locals of that frame; objects that
+ * several frames of the same thread share count toward the thread only.
+ *
+ * <p>Everything is worked out in one traversal: the objects reachable
+ * from the rest of the rootset are marked as shared first, and then each
+ * local root's label (its frame) is spread to the objects it reaches,
+ * widening to the thread, and then to shared, where labels meet.
+ */
+public final class ThreadStacks {
+    /**
+     * A thread, with what its stack locals retain.
+     */
+    public static final class Thread {
+        private final JavaHeapObject thread;
+        private final List<Frame> frames = new ArrayList<>();
+        private ImmutableList<Frame> sortedFrames;
+        private long retainedSize;
+
+        private Thread(JavaHeapObject thread) {
+            this.thread = thread;
+        }
+
+        /**
+         * @return the thread object
+         */
+        public JavaHeapObject getThread() {
+            return thread;
+        }
+
+        /**
+         * @return the size of the objects held only by the thread's locals
+         */
+        public long getRetainedSize() {
+            return retainedSize;
+        }
+
+        /**
+         * @return the frames that have locals, from the top of the stack
+         */
+        public ImmutableList<Frame> getFrames() {
+            return sortedFrames;
+        }
+    }
+
+    /**
+     * A stack frame with locals.
+     */
+    public static final class Frame {
+        private final Thread thread;
+        private final int depth;
+        private final StackFrame frame;
+        private int localCount;
+        private long retainedSize;
+
+        private Frame(Thread thread, int depth, StackFrame frame) {
+            this.thread = thread;
+            this.depth = depth;
+            this.frame = frame;
+        }
+
+        /**
+         * @return the depth of the frame, counting from the top of the
+         *          stack, or -1 if it isn't known
+         */
+        public int getDepth() {
+            return depth;
+        }
+
+        /**
+         * @return the frame, or null if the dump has no stack trace for it
+         */
+        public StackFrame getStackFrame() {
+            return frame;
+        }
+
+        /**
+         * @return the number of the frame's locals
+         */
+        public int getLocalCount() {
+            return localCount;
+        }
+
+        /**
+         * @return the size of the objects held only by the frame's locals
+         */
+        public long getRetainedSize() {
+            return retainedSize;
+        }
+    }
+
+    private static final Ordering<Thread> MOST_RETAINED_FIRST = Ordering.natural().reverse()
+            .onResultOf(Thread::getRetainedSize);
+    private static final Ordering<Frame> TOP_FIRST = Ordering.natural()
+            .onResultOf(Frame::getDepth);
+
+    // Labels: NONE for objects not (yet) reached, SHARED for those
+    // reached from more than one thread or from the rest of the rootset,
+    // a frame number (>= 0) for those reached only from that frame, and
+    // -3 - t for those reached from several frames of thread number t.
+    private static final int NONE = -1;
+    private static final int SHARED = -2;
+
+    private ThreadStacks() {
+    }
+
+    static ImmutableList<Thread> compute(Snapshot snapshot) {
+        Map<Integer, Thread> threadsByIndex = new HashMap<>();
+        List<Thread> threads = new ArrayList<>();
+        JavaClass threadClass = snapshot.findClass("java.lang.Thread");
+        if (threadClass != null) {
+            for (JavaHeapObject thread : threadClass.getInstances(true)) {
+                threads.add(threadsByIndex.computeIfAbsent(thread.getIndex(),
+                        i -> new Thread(thread)));
+            }
+        }
+
+        // The frames with locals, and the thread-local roots.
+        Map<Thread, Map<Integer, Frame>> framesByThread = new HashMap<>();
+        List<Frame> frames = new ArrayList<>();
+        List<Root> locals = new ArrayList<>();
+        List<Frame> localFrames = new ArrayList<>();
+        for (Root root : snapshot.getRoots()) {
+            JavaHeapObject referer = root.getReferer();
+            if (!isLocal(root) || referer == null) {
+                continue;
+            }
+            Thread thread = threadsByIndex.get(referer.getIndex());
+            if (thread == null) {
+                thread = new Thread(referer);
+                threadsByIndex.put(referer.getIndex(), thread);
+                threads.add(thread);
+            }
+            StackTrace trace = root.getStackTrace();
+            StackFrame[] stack = trace == null ? null : trace.getFrames();
+            int depth = stack == null ? -1 : stack.length - 1;
+            Thread owner = thread;
+            Frame frame = framesByThread.computeIfAbsent(thread, t -> new HashMap<>())
+                    .computeIfAbsent(depth, d -> {
+                        Frame f = new Frame(owner, d, d == -1 ? null : stack[d]);
+                        owner.frames.add(f);
+                        frames.add(f);
+                        return f;
+                    });
+            frame.localCount++;
+            locals.add(root);
+            localFrames.add(frame);
+        }
+        Map<Thread, Integer> threadNumbers = new HashMap<>();
+        for (Thread thread : threads) {
+            threadNumbers.put(thread, threadNumbers.size());
+        }
+        int[] frameThreads = new int[frames.size()];
+        Map<Frame, Integer> frameNumbers = new HashMap<>();
+        for (Frame frame : frames) {
+            frameThreads[frameNumbers.size()] = threadNumbers.get(frame.thread);
+            frameNumbers.put(frame, frameNumbers.size());
+        }
+
+        RefereeReader refs = new RefereeReader(snapshot);
+        int numRows = snapshot.getObjectTable().size();
+        int[] labels = new int[numRows];
+        Arrays.fill(labels, NONE);
+        Worklist worklist = new Worklist(numRows);
+        for (Root root : snapshot.getRoots()) {
+            if (!isLocal(root) || root.getReferer() == null) {
+                JavaHeapObject obj = snapshot.findThing(root.getId());
+                if (obj != null && labels[obj.getIndex()] != SHARED) {
+                    labels[obj.getIndex()] = SHARED;
+                    worklist.add(obj.getIndex());
+                }
+            }
+        }
+        spread(refs, labels, frameThreads, worklist);
+        for (int i = 0; i < locals.size(); i++) {
+            JavaHeapObject obj = snapshot.findThing(locals.get(i).getId());
+            if (obj != null) {
+                int label = merge(labels[obj.getIndex()],
+                                  frameNumbers.get(localFrames.get(i)), frameThreads);
+                if (label != labels[obj.getIndex()]) {
+                    labels[obj.getIndex()] = label;
+                    worklist.add(obj.getIndex());
+                }
+            }
+        }
+        spread(refs, labels, frameThreads, worklist);
+
+        long[] threadSizes = new long[threads.size()];
+        long[] frameSizes = new long[frames.size()];
+        for (int i = 0; i < numRows; i++) {
+            int label = labels[i];
+            if (label >= 0) {
+                long size = snapshot.getThingAt(i).getSize();
+                frameSizes[label] += size;
+                threadSizes[frameThreads[label]] += size;
+            } else if (label <= -3) {
+                threadSizes[-3 - label] += snapshot.getThingAt(i).getSize();
+            }
+        }
+        for (Frame frame : frames) {
+            frame.retainedSize = frameSizes[frameNumbers.get(frame)];
+        }
+        for (Thread thread : threads) {
+            thread.retainedSize = threadSizes[threadNumbers.get(thread)];
+            thread.sortedFrames = TOP_FIRST.immutableSortedCopy(thread.frames);
+        }
+        return MOST_RETAINED_FIRST.immutableSortedCopy(threads);
+    }
+
+    private static boolean isLocal(Root root) {
+        return root.getType() == Root.JAVA_LOCAL || root.getType() == Root.NATIVE_LOCAL;
+    }
+
+    // The label of an object reached from objects with both labels.
+    private static int merge(int label, int from, int[] frameThreads) {
+        if (label == from || label == SHARED) {
+            return label;
+        } else if (label == NONE) {
+            return from;
+        } else if (from == SHARED) {
+            return SHARED;
+        }
+        int thread = label >= 0 ? frameThreads[label] : -3 - label;
+        int fromThread = from >= 0 ? frameThreads[from] : -3 - from;
+        return thread == fromThread ? -3 - thread : SHARED;
+    }
+
+    // Spreads the labels of the objects on the worklist to everything
+    // they reach.  Labels only ever widen, from NONE to a frame, to a
+    // thread, to SHARED, so each object is taken off at most three times.
+    private static void spread(RefereeReader refs, int[] labels, int[] frameThreads,
+                               Worklist worklist) {
+        while (!worklist.isEmpty()) {
+            int obj = worklist.remove();
+            int from = labels[obj];
+            refs.read(obj);
+            for (int pos = refs.start(), end = refs.end(); pos < end; pos++) {
+                int next = refs.target(pos);
+                int label = merge(labels[next], from, frameThreads);
+                if (label != labels[next]) {
+                    labels[next] = label;
+                    worklist.add(next);
+                }
+            }
+        }
+    }
+
+    // A queue of objects, each of which is on it at most once at a time.
+    private static final class Worklist {
+        private final int[] queue;
+        private final BitSet queued = new BitSet();
+        private int head;
+        private int size;
+
+        Worklist(int capacity) {
+            queue = new int[Math.max(capacity, 1)];
+        }
+
+        boolean isEmpty() {
+            return size == 0;
+        }
+
+        void add(int obj) {
+            if (!queued.get(obj)) {
+                queued.set(obj);
+                queue[(head + size++) % queue.length] = obj;
+            }
+        }
+
+        int remove() {
+            int obj = queue[head];
+            head = (head + 1) % queue.length;
+            size--;
+            queued.clear(obj);
+            return obj;
+        }
+    }
+}
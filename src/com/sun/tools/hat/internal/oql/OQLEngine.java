@@ -45,6 +45,7 @@ public class OQLEngine {
     static {
         ScriptEngineManager manager = new ScriptEngineManager();
         ScriptEngine jse = manager.getEngineByName("nashorn");
+        sharedEngine = jse;
         oqlSupported = jse != null;
     }
 
@@ -68,9 +69,15 @@ public class OQLEngine {
             [ where &lt;java script boolean expression&gt; ]
           ]
     */
-    public synchronized void executeQuery(String query, ObjectVisitor visitor)
+    public void executeQuery(String query, ObjectVisitor visitor)
                                           throws OQLException {
         debugPrint("query : " + query);
+        // Each query starts from fresh globals, so that nothing one
+        // query defines is seen by the next.
+        if (used) {
+            reset();
+        }
+        used = true;
         StringTokenizer st = new StringTokenizer(query);
         if (st.hasMoreTokens()) {
             String first = st.nextToken();
@@ -211,7 +218,7 @@ public class OQLEngine {
     }
 
     public Object evalScript(String script) throws ScriptException {
-        return engine.eval(script);
+        return sharedEngine.eval(script, context);
     }
 
     public Object wrapJavaObject(JavaHeapObject obj) throws ScriptException, NoSuchMethodException {
@@ -223,31 +230,98 @@ public class OQLEngine {
     }
 
     public Object call(String func, Object... args) throws ScriptException, NoSuchMethodException {
-        return ((Invocable) engine).invokeFunction(func, args);
+        Bindings bindings = context.getBindings(ScriptContext.ENGINE_SCOPE);
+        if (bindings.get(func) == null) {
+            throw new NoSuchMethodException(func);
+        }
+        // Each argument goes in on its own, since script objects are only
+        // turned back from their Java wrappers when put in the bindings.
+        bindings.put("__function__", func);
+        bindings.put("__argc__", args.length);
+        for (int i = 0; i < args.length; i++) {
+            bindings.put("__arg" + i + "__", args[i]);
+        }
+        try {
+            return invoker.eval(context);
+        } finally {
+            bindings.remove("__function__");
+            bindings.remove("__argc__");
+            for (int i = 0; i < args.length; i++) {
+                bindings.remove("__arg" + i + "__");
+            }
+        }
     }
 
     private static void debugPrint(String msg) {
         if (debug) System.err.println(msg);
     }
 
+    //
+    // All engines share one script engine, with hat.js compiled for it
+    // once.  Each query gets bindings of its own, as its globals, with
+    // hat.js evaluated in them, and functions in them are called through
+    // a small compiled script, since Invocable only calls into the
+    // script engine's default bindings.
+    //
+    private static synchronized void compileScripts() throws ScriptException {
+        if (hatScript == null) {
+            Compilable compiler = (Compilable) sharedEngine;
+            invoker = compiler.compile(
+                    "(function (global) {"
+                    + " var args = { length: __argc__ };"
+                    + " for (var i = 0; i < __argc__; i++) args[i] = global['__arg' + i + '__'];"
+                    + " return global[__function__].apply(global, args);"
+                    + " })(this)");
+            hatScript = compiler.compile(new InputStreamReader(getInitStream()));
+        }
+    }
+
     private void init(Snapshot snapshot) throws RuntimeException {
         this.snapshot = snapshot;
-        ScriptEngineManager manager = new ScriptEngineManager();
         try {
-            engine = manager.getEngineByName("nashorn");
-            engine.eval(new InputStreamReader(getInitStream()));
-            engine.put("heap", call("wrapHeapSnapshot", snapshot));
+            compileScripts();
+        } catch (ScriptException e) {
+            if (debug) e.printStackTrace();
+            throw new RuntimeException(e);
+        }
+        reset();
+    }
+
+    /**
+     * Set up fresh globals for the next query, if the last query used
+     * them, so that the next query doesn't have to wait for it.
+     */
+    void prepare() {
+        if (used) {
+            reset();
+        }
+    }
+
+    private void reset() throws RuntimeException {
+        try {
+            context = new SimpleScriptContext();
+            context.setBindings(sharedEngine.createBindings(), ScriptContext.ENGINE_SCOPE);
+            context.setBindings(sharedEngine.getBindings(ScriptContext.GLOBAL_SCOPE),
+                                ScriptContext.GLOBAL_SCOPE);
+            hatScript.eval(context);
+            context.setAttribute("heap", call("wrapHeapSnapshot", snapshot),
+                                 ScriptContext.ENGINE_SCOPE);
+            used = false;
         } catch (Exception e) {
             if (debug) e.printStackTrace();
             throw new RuntimeException(e);
         }
     }
 
-    private InputStream getInitStream() {
-        return getClass().getResourceAsStream("/com/sun/tools/hat/resources/hat.js");
+    private static InputStream getInitStream() {
+        return OQLEngine.class.getResourceAsStream("/com/sun/tools/hat/resources/hat.js");
     }
 
-    private ScriptEngine engine;
+    private static final ScriptEngine sharedEngine;
+    private static CompiledScript hatScript;
+    private static CompiledScript invoker;
+    private ScriptContext context;
+    private boolean used;
     private Snapshot snapshot;
     private static boolean debug = false;
     private static final boolean oqlSupported;
@@ -0,0 +1,109 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.oql;
+
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import com.sun.tools.hat.internal.model.Snapshot;
+
+/**
+ * A fixed number of OQL engines for a snapshot, shared by the threads
+ * that serve queries.  The engines are made up front, one after another
+ * on a thread of their own, so that no query has to wait for hat.js to
+ * be loaded unless it comes in before the first engine is ready.  Each
+ * engine runs one query at a time; when it is given back, the same
+ * thread sets up fresh globals for its next query.
+ */
+public class OQLEnginePool {
+    private final BlockingQueue<OQLEngine> engines;
+    private final Executor preparer = Executors.newSingleThreadExecutor(r -> {
+        Thread thread = new Thread(r, "fasthat-oql-prepare");
+        thread.setDaemon(true);
+        return thread;
+    });
+    // how many engines have been made and not dropped
+    private final AtomicInteger alive = new AtomicInteger();
+    private volatile Throwable failure;
+
+    public OQLEnginePool(Snapshot snapshot, int size) {
+        engines = new ArrayBlockingQueue<>(size);
+        for (int i = 0; i < size; i++) {
+            preparer.execute(() -> {
+                if (failure != null) {
+                    return;
+                }
+                try {
+                    OQLEngine engine = new OQLEngine(snapshot);
+                    alive.incrementAndGet();
+                    engines.add(engine);
+                } catch (Throwable t) {
+                    failure = t;
+                }
+            });
+        }
+    }
+
+    /**
+     * Waits for an engine to be free, and takes it.  It must be given
+     * back with {@link #release} when the query is done.
+     */
+    public OQLEngine take() throws InterruptedException {
+        while (true) {
+            OQLEngine engine = engines.poll(1, TimeUnit.SECONDS);
+            if (engine != null) {
+                return engine;
+            }
+            if (failure != null && alive.get() == 0) {
+                throw new IllegalStateException("OQL engine could not be made", failure);
+            }
+        }
+    }
+
+    public void release(OQLEngine engine) {
+        preparer.execute(() -> {
+            try {
+                engine.prepare();
+                engines.add(engine);
+            } catch (Throwable t) {
+                // the engine is dropped; take() fails once none are left
+                failure = t;
+                alive.decrementAndGet();
+            }
+        });
+    }
+}
@@ -32,59 +32,70 @@
 
 package com.sun.tools.hat.internal.parser;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
 
 /**
- * Implementation of ReadBuffer using a RandomAccessFile
+ * Implementation of ReadBuffer using a RandomAccessFile.  Reads use
+ * positional channel reads, which don't touch the file pointer, so no
+ * locking is needed.
  *
  * @author A. Sundararajan
  */
 class FileReadBuffer implements ReadBuffer {
-    // underlying file to read
-    private final RandomAccessFile file;
+    // channel of the underlying file to read
+    private final FileChannel channel;
 
     FileReadBuffer(RandomAccessFile file) {
-        this.file = file;
+        this.channel = file.getChannel();
     }
 
-    private void seek(long pos) throws IOException {
-        file.getChannel().position(pos);
+    private ByteBuffer read(long pos, ByteBuffer buf) throws IOException {
+        while (buf.hasRemaining()) {
+            int count = channel.read(buf, pos);
+            if (count < 0) {
+                throw new EOFException("read past end of file at " + pos);
+            }
+            pos += count;
+        }
+        buf.flip();
+        return buf;
+    }
+
+    private ByteBuffer read(long pos, int len) throws IOException {
+        return read(pos, ByteBuffer.allocate(len));
     }
 
     @Override
-    public synchronized void get(long pos, byte[] buf) throws IOException {
-        seek(pos);
-        file.read(buf);
+    public void get(long pos, byte[] buf, int off, int len) throws IOException {
+        read(pos, ByteBuffer.wrap(buf, off, len));
     }
 
     @Override
-    public synchronized char getChar(long pos) throws IOException {
-        seek(pos);
-        return file.readChar();
+    public char getChar(long pos) throws IOException {
+        return read(pos, 2).getChar();
     }
 
     @Override
-    public synchronized byte getByte(long pos) throws IOException {
-        seek(pos);
-        return (byte) file.read();
+    public byte getByte(long pos) throws IOException {
+        return read(pos, 1).get();
     }
 
     @Override
-    public synchronized short getShort(long pos) throws IOException {
-        seek(pos);
-        return file.readShort();
+    public short getShort(long pos) throws IOException {
+        return read(pos, 2).getShort();
     }
 
     @Override
-    public synchronized int getInt(long pos) throws IOException {
-        seek(pos);
-        return file.readInt();
+    public int getInt(long pos) throws IOException {
+        return read(pos, 4).getInt();
     }
 
     @Override
-    public synchronized long getLong(long pos) throws IOException {
-        seek(pos);
-        return file.readLong();
+    public long getLong(long pos) throws IOException {
+        return read(pos, 8).getLong();
     }
 }
@@ -33,9 +33,16 @@
 package com.sun.tools.hat.internal.parser;
 
 import java.io.*;
+import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.Date;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
+import java.util.concurrent.ForkJoinPool;
+import java.util.stream.Collectors;
+import java.util.stream.IntStream;
+import java.util.stream.Stream;
 
 import static com.sun.tools.hat.internal.model.ArrayTypeCodes.*;
 import static com.sun.tools.hat.internal.util.Misc.toHex;
@@ -44,6 +51,12 @@ import com.sun.tools.hat.internal.model.*;
 /**
  * Object that's used to read a hprof file.
  *
+ * The top-level records are read sequentially from the input stream, but
+ * heap dump records (and segments) are only noted as they are found.
+ * Once the whole dump has been seen, a quick scan over the heap dump
+ * records splits their sub-records into chunks, and the chunks are then
+ * parsed in parallel straight from the snapshot's ReadBuffer.
+ *
  * @author      Bill Foote
  */
 
@@ -120,6 +133,12 @@ public class HprofReader extends Reader {
 
     private final static int T_CLASS = 2;
 
+    // Smallest and largest amount of sub-record data handed to a single
+    // parsing task.  Between these, the heap dump is split into a few
+    // chunks per worker thread, so that the work balances out.
+    private final static long MIN_CHUNK_SIZE = 1L << 20;
+    private final static long MAX_CHUNK_SIZE = 64L << 20;
+
     private int version;        // The version of .hprof being read
 
     private final int debugLevel;
@@ -148,14 +167,38 @@ public class HprofReader extends Reader {
     // maps stack frame ID to StackTrace. Null if we're not tracking them.
     private final Map<Integer, StackTrace> stackTraces;
 
+    // heap dump records (or segments) of the dump being read, in file
+    // order; they are parsed once the last one has been found
+    private final List<Chunk> heapDumpRecords = new ArrayList<>();
+
+    // The index file of the dump being read, or null if there is none.
+    // If it was loaded, only the sub-records that it lists the offsets
+    // of are read; otherwise, these offsets are noted for saving in it.
+    private final SnapshotIndex index;
+    private long[] recordOffsets = new long[1024];
+    private int numRecordOffsets;
+
+    // If set, only the ids and classes of the objects are read, into
+    // baselineIndex, and the snapshot is left empty.
+    private boolean idsOnly;
+    private BaselineIndex baselineIndex;
+    private long javaLangClassId;
+
     private final Snapshot snapshot;
+    private final ReadBuffer readBuf;
+    private final long fileSize;
+    private final LoadProgress loadProgress;
 
     public HprofReader(String fileName, PositionDataInputStream in,
-                       int dumpNumber, boolean callStack, int debugLevel)
+                       int dumpNumber, boolean callStack, boolean useIndex,
+                       int debugLevel, LoadProgress loadProgress)
                        throws IOException {
         super(in);
         RandomAccessFile file = new RandomAccessFile(fileName, "r");
-        this.snapshot = new Snapshot(MappedReadBuffer.create(file));
+        this.fileSize = file.length();
+        this.readBuf = MappedReadBuffer.create(file);
+        this.snapshot = new Snapshot(readBuf);
+        this.loadProgress = loadProgress;
         this.dumpsToSkip = dumpNumber - 1;
         this.callStack = callStack;
         this.debugLevel = debugLevel;
@@ -171,6 +214,14 @@ public class HprofReader extends Reader {
             stackTraces = null;
             classNameFromSerialNo = null;
         }
+        if (useIndex) {
+            File indexFile = new File(fileName
+                    + (dumpNumber > 1 ? "." + dumpNumber : "") + ".idx");
+            index = SnapshotIndex.open(indexFile, readBuf, fileSize, callStack);
+            snapshot.setIndex(index);
+        } else {
+            index = null;
+        }
     }
 
     @Override
@@ -237,11 +288,8 @@ public class HprofReader extends Reader {
 
                 case HPROF_HEAP_DUMP: {
                     if (dumpsToSkip <= 0) {
-                        try {
-                            readHeapDump(length, currPos);
-                        } catch (EOFException exp) {
-                            handleEOF(exp, snapshot);
-                        }
+                        addHeapDumpRecord(length, currPos);
+                        readHeapDumpRecords();
                         if (debugLevel > 0) {
                             System.err.println("    Finished processing instances in heap dump.");
                         }
@@ -257,6 +305,7 @@ public class HprofReader extends Reader {
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
                             skipBytes(length);  // should be no-op
+                            readHeapDumpRecords();
                             return snapshot;
                         } else {
                             // skip this dump (of the end record for a sequence of dump segments)
@@ -273,12 +322,8 @@ public class HprofReader extends Reader {
                 case HPROF_HEAP_DUMP_SEGMENT: {
                     if (version >= VERSION_JDK6) {
                         if (dumpsToSkip <= 0) {
-                            try {
-                                // read the dump segment
-                                readHeapDump(length, currPos);
-                            } catch (EOFException exp) {
-                                handleEOF(exp, snapshot);
-                            }
+                            // note the dump segment, to be read later
+                            addHeapDumpRecord(length, currPos);
                         } else {
                             // all segments comprising the heap dump will be skipped
                             skipBytes(length);
@@ -353,11 +398,38 @@ public class HprofReader extends Reader {
             }
         }
 
+        readHeapDumpRecords();
         return snapshot;
     }
 
+    /**
+     * Read only the id and class of each object, with the number and
+     * total size of the instances of each class, for comparing other
+     * dumps with this one.
+     */
+    public BaselineIndex readIds() throws IOException {
+        idsOnly = true;
+        read();
+        if (baselineIndex == null) {
+            baselineIndex = new BaselineIndex(new long[0], new int[0],
+                    new ArrayList<>(), new long[0], new long[0]);
+        }
+        return baselineIndex;
+    }
+
     private void skipBytes(long length) throws IOException {
-        in.skipBytes((int)length);
+        while (length > 0) {
+            long skipped = in.skip(length);
+            if (skipped <= 0) {
+                // skip() gives no way to tell EOF apart from a slow
+                // stream, but read() does
+                if (in.read() < 0) {
+                    throw new EOFException();
+                }
+                skipped = 1;
+            }
+            length -= skipped;
+        }
     }
 
     private int readVersionHeader() throws IOException {
@@ -386,129 +458,414 @@ public class HprofReader extends Reader {
         throw new IOException("Version string not recognized at byte " + (pos+3));
     }
 
-    private void readHeapDump(long bytesLeft, long posAtEnd) throws IOException {
-        while (bytesLeft > 0) {
-            int type = in.readUnsignedByte();
-            if (debugLevel > 0) {
-                System.err.println("    Read heap sub-record type " + type
-                                   + " at position "
-                                   + toHex(posAtEnd - bytesLeft));
+    private void addHeapDumpRecord(long length, long posAtEnd)
+            throws IOException {
+        long start = posAtEnd - length;
+        if (posAtEnd > fileSize) {
+            // Truncated dump: keep whatever sub-records are complete.
+            heapDumpRecords.add(new Chunk(start, fileSize));
+            skipBytes(fileSize - start);
+            handleEOF(new EOFException(), snapshot);
+            return;
+        }
+        heapDumpRecords.add(new Chunk(start, posAtEnd));
+        skipBytes(length);
+    }
+
+    //
+    // Parse the heap dump records noted so far.  Each chunk is read into
+    // its own PartialSnapshot, and these are added to the snapshot in
+    // file order, so the result is the same as for a sequential read.
+    //
+    private void readHeapDumpRecords() throws IOException {
+        if (heapDumpRecords.isEmpty()) {
+            return;
+        }
+        if (idsOnly) {
+            readIdRecords();
+            return;
+        }
+        if (index != null && index.isLoaded()) {
+            replayHeapDumpRecords();
+            return;
+        }
+        List<Chunk> chunks = splitHeapDumpRecords();
+        heapDumpRecords.clear();
+        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress(
+                "Parsing heap dump", chunks.size());
+        // Keep the debug output in file order.
+        Stream<Chunk> stream = debugLevel > 0 ? chunks.stream()
+                : chunks.parallelStream();
+        List<PartialSnapshot> parts;
+        try {
+            parts = stream.map(chunk -> {
+                try {
+                    PartialSnapshot part = new ChunkReader(chunk).read();
+                    progress.tick();
+                    return part;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
+                }
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            progress.end();
+        }
+        parts.forEach(part -> part.addTo(snapshot));
+        if (index != null) {
+            index.setRecordOffsets(Arrays.copyOf(recordOffsets, numRecordOffsets));
+        }
+    }
+
+    //
+    // Read only the sub-records that the index lists, which are the roots
+    // and classes; the objects are already in the snapshot's object table.
+    // Runs of adjacent sub-records are read together.  As in
+    // splitHeapDumpRecords(), the thread objects are registered first.
+    //
+    private void replayHeapDumpRecords() throws IOException {
+        heapDumpRecords.clear();
+        long[] offsets = index.getRecordOffsets();
+        List<Chunk> runs = new ArrayList<>();
+        long runStart = 0;
+        long runEnd = -1;
+        for (long pos : offsets) {
+            long next = subRecordEnd(pos, fileSize);
+            if (next < 0 || next > fileSize) {
+                throw new IOException("Sub-record at " + toHex(pos)
+                                      + " in index runs past the end of the file");
             }
-            bytesLeft--;
-            switch(type) {
-                case HPROF_GC_ROOT_UNKNOWN: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.UNKNOWN, ""));
-                    break;
+            registerThreadObject(pos);
+            if (pos != runEnd) {
+                if (runEnd >= 0) {
+                    runs.add(new Chunk(runStart, runEnd));
                 }
-                case HPROF_GC_ROOT_THREAD_OBJ: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int stackSeq = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    threadObjects.put(threadSeq,
-                                      new ThreadObject(id, stackSeq));
-                    break;
+                runStart = pos;
+            }
+            runEnd = next;
+        }
+        if (runEnd >= 0) {
+            runs.add(new Chunk(runStart, runEnd));
+        }
+        PartialSnapshot part = new PartialSnapshot();
+        for (Chunk run : runs) {
+            new ChunkReader(run, part).read();
+        }
+        part.addTo(snapshot);
+        if (callStack) {
+            snapshot.restoreSiteTraces(this::getStackTraceFromSerial);
+        }
+    }
+
+    //
+    // Read just the id and class of each object into a BaselineIndex.
+    // The chunks are walked in parallel straight from the ReadBuffer,
+    // without looking at the objects' contents, and their results are
+    // put together in file order.
+    //
+    private void readIdRecords() throws IOException {
+        for (Map.Entry<Long, String> entry : classNameFromObjectID.entrySet()) {
+            if (entry.getValue().equals("java.lang.Class")) {
+                javaLangClassId = entry.getKey();
+            }
+        }
+        List<Chunk> chunks = splitHeapDumpRecords();
+        heapDumpRecords.clear();
+        LoadProgress.TickedProgress progress = loadProgress.startTickedProgress(
+                "Reading object ids", chunks.size());
+        List<IdChunkReader> parts;
+        try {
+            parts = chunks.parallelStream().map(chunk -> {
+                try {
+                    IdChunkReader part = new IdChunkReader(chunk).read();
+                    progress.tick();
+                    return part;
+                } catch (IOException e) {
+                    throw new UncheckedIOException(e);
                 }
-                case HPROF_GC_ROOT_JNI_GLOBAL: {
-                    long id = readID();
-                    long globalRefId = readID();        // Ignored, for now
-                    bytesLeft -= 2*identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.NATIVE_STATIC, ""));
-                    break;
+            }).collect(Collectors.toList());
+        } catch (UncheckedIOException e) {
+            throw e.getCause();
+        } finally {
+            progress.end();
+        }
+
+        // The class names of all the chunks, and what each chunk's
+        // numbers for them are.
+        List<String> names = new ArrayList<>();
+        Map<String, Integer> nameIndexes = new HashMap<>();
+        Map<Long, Integer> instanceSizes = new HashMap<>();
+        int[] starts = new int[parts.size() + 1];
+        for (int p = 0; p < parts.size(); p++) {
+            IdChunkReader part = parts.get(p);
+            part.globalNames = new int[part.names.size()];
+            for (int i = 0; i < part.names.size(); i++) {
+                part.globalNames[i] = nameIndexes.computeIfAbsent(part.names.get(i), name -> {
+                    names.add(name);
+                    return names.size() - 1;
+                });
+            }
+            instanceSizes.putAll(part.instanceSizes);
+            starts[p + 1] = Math.addExact(starts[p], part.size);
+        }
+        long[] ids = new long[starts[parts.size()]];
+        int[] classNames = new int[ids.length];
+        IntStream.range(0, parts.size()).parallel().forEach(p -> {
+            IdChunkReader part = parts.get(p);
+            System.arraycopy(part.ids, 0, ids, starts[p], part.size);
+            for (int i = 0; i < part.size; i++) {
+                classNames[starts[p] + i] = part.globalNames[part.nameIndexes[i]];
+            }
+        });
+
+        // Sizes as in JavaClass.getTotalInstanceSize().
+        int minimumObjectSize = 2 * identifierSize;
+        long[] counts = new long[names.size()];
+        long[] sizes = new long[names.size()];
+        for (IdChunkReader part : parts) {
+            for (IdChunkReader.Tally tally : part.tallies) {
+                int name = part.globalNames[tally.name];
+                counts[name] += tally.count;
+                if (tally.classId != 0) {
+                    sizes[name] += tally.count * instanceSizes.getOrDefault(tally.classId, 0);
+                } else {
+                    sizes[name] += tally.bytes + tally.count * minimumObjectSize;
                 }
-                case HPROF_GC_ROOT_JNI_LOCAL: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.NATIVE_LOCAL, "", st));
+            }
+        }
+        baselineIndex = new BaselineIndex(ids, classNames, names, counts, sizes);
+    }
+
+    //
+    // Walk over the sub-records of the heap dump records, cutting them up
+    // into chunks of roughly equal size.  Thread objects are registered
+    // here, since roots in any chunk may refer to them.
+    //
+    private List<Chunk> splitHeapDumpRecords() throws IOException {
+        long total = 0;
+        for (Chunk record : heapDumpRecords) {
+            total += record.end - record.start;
+        }
+        long perWorker = total / (4L * ForkJoinPool.getCommonPoolParallelism());
+        long chunkSize = Math.max(MIN_CHUNK_SIZE,
+                                  Math.min(MAX_CHUNK_SIZE, perWorker));
+        List<Chunk> chunks = new ArrayList<>();
+        for (Chunk record : heapDumpRecords) {
+            long chunkStart = record.start;
+            long pos = record.start;
+            while (pos < record.end) {
+                long next = subRecordEnd(pos, record.end);
+                if (next < 0 || next > record.end) {
+                    // A truncated dump has already been warned about.
+                    if (record.end < fileSize) {
+                        warn("Error reading heap dump or heap dump segment:  Sub-record at "
+                             + toHex(pos) + " runs past the end of the record");
+                        snapshot.setUnresolvedObjectsOK(true);
+                    }
                     break;
                 }
-                case HPROF_GC_ROOT_JAVA_FRAME: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    int depth = in.readInt();
-                    bytesLeft -= identifierSize + 8;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    if (st != null) {
-                        st = st.traceForDepth(depth+1);
-                    }
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.JAVA_LOCAL, "", st));
-                    break;
+                registerThreadObject(pos);
+                noteRecordOffset(pos);
+                pos = next;
+                if (pos - chunkStart >= chunkSize) {
+                    chunks.add(new Chunk(chunkStart, pos));
+                    chunkStart = pos;
                 }
-                case HPROF_GC_ROOT_NATIVE_STACK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                              Root.NATIVE_STACK, "", st));
-                    break;
+            }
+            if (pos > chunkStart) {
+                chunks.add(new Chunk(chunkStart, pos));
+            }
+        }
+        return chunks;
+    }
+
+    //
+    // Note the offset of a sub-record for the index, unless it holds an
+    // object; those are in the object table already.
+    //
+    private void noteRecordOffset(long pos) throws IOException {
+        if (index == null) {
+            return;
+        }
+        switch (readBuf.getByte(pos) & 0xff) {
+            case HPROF_GC_INSTANCE_DUMP:
+            case HPROF_GC_OBJ_ARRAY_DUMP:
+            case HPROF_GC_PRIM_ARRAY_DUMP:
+                return;
+            default:
+                if (numRecordOffsets == recordOffsets.length) {
+                    recordOffsets = Arrays.copyOf(recordOffsets,
+                                                  numRecordOffsets * 2);
                 }
-                case HPROF_GC_ROOT_STICKY_CLASS: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.SYSTEM_CLASS, ""));
-                    break;
+                recordOffsets[numRecordOffsets++] = pos;
+        }
+    }
+
+    //
+    // Register the thread object of the sub-record at pos, which must be
+    // whole, if it's a HPROF_GC_ROOT_THREAD_OBJ.
+    //
+    private void registerThreadObject(long pos) throws IOException {
+        if ((readBuf.getByte(pos) & 0xff) == HPROF_GC_ROOT_THREAD_OBJ) {
+            long id = readIDAt(pos + 1);
+            int threadSeq = readBuf.getInt(pos + 1 + identifierSize);
+            int stackSeq = readBuf.getInt(pos + 1 + identifierSize + 4);
+            threadObjects.put(threadSeq, new ThreadObject(id, stackSeq));
+        }
+    }
+
+    //
+    // Find where the heap dump sub-record at pos ends, without parsing it,
+    // or changing anything, as chunks are walked in parallel.  Returns -1
+    // if the record's headers already run past limit.
+    //
+    private long subRecordEnd(long pos, long limit) throws IOException {
+        int type = readBuf.getByte(pos++) & 0xff;
+        switch (type) {
+            case HPROF_GC_ROOT_UNKNOWN:
+            case HPROF_GC_ROOT_STICKY_CLASS:
+            case HPROF_GC_ROOT_MONITOR_USED:
+                return pos + identifierSize;
+            case HPROF_GC_ROOT_THREAD_OBJ:
+                return pos + identifierSize + 8;
+            case HPROF_GC_ROOT_JNI_GLOBAL:
+                return pos + 2 * identifierSize;
+            case HPROF_GC_ROOT_JNI_LOCAL:
+            case HPROF_GC_ROOT_JAVA_FRAME:
+                return pos + identifierSize + 8;
+            case HPROF_GC_ROOT_NATIVE_STACK:
+            case HPROF_GC_ROOT_THREAD_BLOCK:
+                return pos + identifierSize + 4;
+            case HPROF_GC_CLASS_DUMP: {
+                pos += 7 * identifierSize + 8;
+                if (pos + 2 > limit) {
+                    return -1;
                 }
-                case HPROF_GC_ROOT_THREAD_BLOCK: {
-                    long id = readID();
-                    int threadSeq = in.readInt();
-                    bytesLeft -= identifierSize + 4;
-                    ThreadObject to = getThreadObjectFromSequence(threadSeq);
-                    StackTrace st = getStackTraceFromSerial(to.stackSeq);
-                    snapshot.addRoot(new Root(id, to.threadId,
-                                     Root.THREAD_BLOCK, "", st));
-                    break;
+                int numConstPoolEntries = readBuf.getShort(pos) & 0xffff;
+                pos += 2;
+                for (int i = 0; i < numConstPoolEntries; i++) {
+                    if (pos + 3 > limit) {
+                        return -1;
+                    }
+                    pos += 3 + valueSize(readBuf.getByte(pos + 2));
                 }
-                case HPROF_GC_ROOT_MONITOR_USED: {
-                    long id = readID();
-                    bytesLeft -= identifierSize;
-                    snapshot.addRoot(new Root(id, 0, Root.BUSY_MONITOR, ""));
-                    break;
+                if (pos + 2 > limit) {
+                    return -1;
                 }
-                case HPROF_GC_CLASS_DUMP: {
-                    int bytesRead = readClass();
-                    bytesLeft -= bytesRead;
-                    break;
+                int numStatics = readBuf.getShort(pos) & 0xffff;
+                pos += 2;
+                for (int i = 0; i < numStatics; i++) {
+                    if (pos + identifierSize + 1 > limit) {
+                        return -1;
+                    }
+                    pos += identifierSize + 1
+                            + valueSize(readBuf.getByte(pos + identifierSize));
                 }
-                case HPROF_GC_INSTANCE_DUMP: {
-                    int bytesRead = readInstance();
-                    bytesLeft -= bytesRead;
-                    break;
+                if (pos + 2 > limit) {
+                    return -1;
                 }
-                case HPROF_GC_OBJ_ARRAY_DUMP: {
-                    int bytesRead = readArray(false);
-                    bytesLeft -= bytesRead;
-                    break;
+                int numFields = readBuf.getShort(pos) & 0xffff;
+                return pos + 2 + numFields * (identifierSize + 1L);
+            }
+            case HPROF_GC_INSTANCE_DUMP: {
+                pos += 2 * identifierSize + 4;
+                if (pos + 4 > limit) {
+                    return -1;
                 }
-                case HPROF_GC_PRIM_ARRAY_DUMP: {
-                    int bytesRead = readArray(true);
-                    bytesLeft -= bytesRead;
-                    break;
+                return pos + 4 + (readBuf.getInt(pos) & 0xffffffffL);
+            }
+            case HPROF_GC_OBJ_ARRAY_DUMP: {
+                pos += identifierSize + 4;
+                if (pos + 4 + identifierSize > limit) {
+                    return -1;
                 }
-                default: {
-                    throw new IOException("Unrecognized heap dump sub-record type:  " + type);
+                long num = readBuf.getInt(pos) & 0xffffffffL;
+                int elSize = 0;
+                if (version < VERSION_JDK12BETA4) {
+                    elSize = primitiveSize(readIDAt(pos + 4));
                 }
+                if (elSize == 0) {
+                    elSize = identifierSize;
+                }
+                return pos + 4 + identifierSize + num * elSize;
+            }
+            case HPROF_GC_PRIM_ARRAY_DUMP: {
+                pos += identifierSize + 4;
+                if (pos + 5 > limit) {
+                    return -1;
+                }
+                long num = readBuf.getInt(pos) & 0xffffffffL;
+                byte typeCode = readBuf.getByte(pos + 4);
+                int elSize = primitiveSize(typeCode);
+                if (elSize == 0) {
+                    if (version >= VERSION_JDK12BETA4) {
+                        throw new IOException("Unrecognized typecode:  "
+                                              + typeCode);
+                    }
+                    elSize = identifierSize;
+                }
+                return pos + 5 + num * elSize;
+            }
+            default: {
+                throw new IOException("Unrecognized heap dump sub-record type:  " + type);
             }
         }
-        if (bytesLeft != 0) {
-            warn("Error reading heap dump or heap dump segment:  Byte count is " + bytesLeft + " instead of 0");
-            skipBytes(bytesLeft);
+    }
+
+    private long readIDAt(long pos) throws IOException {
+        return (identifierSize == 4)?
+            (Snapshot.SMALL_ID_MASK & readBuf.getInt(pos)) : readBuf.getLong(pos);
+    }
+
+    //
+    // Size of a java value of the given type, as read by readValueForType.
+    //
+    private int valueSize(byte type) throws IOException {
+        if (version >= VERSION_JDK12BETA4) {
+            type = signatureFromTypeId(type);
         }
-        if (debugLevel > 0) {
-            System.err.println("    Finished heap sub-records.");
+        switch (type) {
+            case '[':
+            case 'L':
+                return identifierSize;
+            case 'Z':
+            case 'B':
+                return 1;
+            case 'S':
+            case 'C':
+                return 2;
+            case 'I':
+            case 'F':
+                return 4;
+            case 'J':
+            case 'D':
+                return 8;
+            default: {
+                throw new IOException("Bad value signature:  " + type);
+            }
+        }
+    }
+
+    //
+    // Element size of a primitive array typecode, or 0 if it isn't one.
+    //
+    private static int primitiveSize(long typeCode) {
+        switch ((int) typeCode) {
+            case T_BOOLEAN:
+            case T_BYTE:
+                return 1;
+            case T_CHAR:
+            case T_SHORT:
+                return 2;
+            case T_FLOAT:
+            case T_INT:
+                return 4;
+            case T_DOUBLE:
+            case T_LONG:
+                return 8;
+            default:
+                return 0;
         }
     }
 
@@ -518,96 +875,568 @@ public class HprofReader extends Reader {
     }
 
     //
-    // Read a java value.  If result is non-null, it's expected to be an
-    // array of one element.  We use it to fake multiple return values.
-    // @returns the number of bytes read
+    // A range of the file, either a whole heap dump record or a run of
+    // complete sub-records within one.
     //
-    private int readValue(JavaThing[] resultArr) throws IOException {
-        byte type = in.readByte();
-        return 1 + readValueForType(type, resultArr);
-    }
+    private static class Chunk {
+        final long start;
+        final long end;
 
-    private int readValueForType(byte type, JavaThing[] resultArr)
-            throws IOException {
-        if (version >= VERSION_JDK12BETA4) {
-            type = signatureFromTypeId(type);
+        Chunk(long start, long end) {
+            this.start = start;
+            this.end = end;
         }
-        return readValueForTypeSignature(type, resultArr);
     }
 
-    private int readValueForTypeSignature(byte type, JavaThing[] resultArr)
-            throws IOException {
-        switch (type) {
-            case '[':
-            case 'L': {
-                long id = readID();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaObjectRef(id);
-                }
-                return identifierSize;
-            }
-            case 'Z': {
-                int b = in.readByte();
-                if (b != 0 && b != 1) {
-                    warn("Illegal boolean value read");
+    //
+    // Reads the sub-records of one chunk, straight from the ReadBuffer.
+    // Only the parser's lookup tables are shared between chunk readers,
+    // and these are no longer modified once the heap dump is parsed.
+    //
+    private class ChunkReader {
+        private final PositionDataInputStream in;
+        private final long base;
+        private final long end;
+        private final PartialSnapshot part;
+
+        ChunkReader(Chunk chunk) {
+            this(chunk, new PartialSnapshot());
+        }
+
+        ChunkReader(Chunk chunk, PartialSnapshot part) {
+            this.in = new PositionDataInputStream(new BufferedInputStream(
+                    new ReadBufferInputStream(readBuf, chunk.start, chunk.end),
+                    (int) Math.min(1 << 16, chunk.end - chunk.start)));
+            this.base = chunk.start;
+            this.end = chunk.end;
+            this.part = part;
+        }
+
+        PartialSnapshot read() throws IOException {
+            long bytesLeft = end - base;
+            while (bytesLeft > 0) {
+                int type = in.readUnsignedByte();
+                if (debugLevel > 0) {
+                    System.err.println("    Read heap sub-record type " + type
+                                       + " at position "
+                                       + toHex(end - bytesLeft));
                 }
-                if (resultArr != null) {
-                    resultArr[0] = new JavaBoolean(b != 0);
+                bytesLeft--;
+                switch(type) {
+                    case HPROF_GC_ROOT_UNKNOWN: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        part.addRoot(new Root(id, 0, Root.UNKNOWN, ""));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_THREAD_OBJ: {
+                        // already registered by splitHeapDumpRecords()
+                        skipBytes(identifierSize + 8);
+                        bytesLeft -= identifierSize + 8;
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_GLOBAL: {
+                        long id = readID();
+                        long globalRefId = readID();        // Ignored, for now
+                        bytesLeft -= 2*identifierSize;
+                        part.addRoot(new Root(id, 0, Root.NATIVE_STATIC, ""));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JNI_LOCAL: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        int depth = in.readInt();
+                        bytesLeft -= identifierSize + 8;
+                        ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                        StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                        if (st != null) {
+                            st = st.traceForDepth(depth+1);
+                        }
+                        part.addRoot(new Root(id, to.threadId,
+                                                  Root.NATIVE_LOCAL, "", st));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_JAVA_FRAME: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        int depth = in.readInt();
+                        bytesLeft -= identifierSize + 8;
+                        ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                        StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                        if (st != null) {
+                            st = st.traceForDepth(depth+1);
+                        }
+                        part.addRoot(new Root(id, to.threadId,
+                                                  Root.JAVA_LOCAL, "", st));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_NATIVE_STACK: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        bytesLeft -= identifierSize + 4;
+                        ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                        StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                        part.addRoot(new Root(id, to.threadId,
+                                                  Root.NATIVE_STACK, "", st));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_STICKY_CLASS: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        part.addRoot(new Root(id, 0, Root.SYSTEM_CLASS, ""));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_THREAD_BLOCK: {
+                        long id = readID();
+                        int threadSeq = in.readInt();
+                        bytesLeft -= identifierSize + 4;
+                        ThreadObject to = getThreadObjectFromSequence(threadSeq);
+                        StackTrace st = getStackTraceFromSerial(to.stackSeq);
+                        part.addRoot(new Root(id, to.threadId,
+                                         Root.THREAD_BLOCK, "", st));
+                        break;
+                    }
+                    case HPROF_GC_ROOT_MONITOR_USED: {
+                        long id = readID();
+                        bytesLeft -= identifierSize;
+                        part.addRoot(new Root(id, 0, Root.BUSY_MONITOR, ""));
+                        break;
+                    }
+                    case HPROF_GC_CLASS_DUMP: {
+                        int bytesRead = readClass();
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_INSTANCE_DUMP: {
+                        int bytesRead = readInstance();
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_OBJ_ARRAY_DUMP: {
+                        int bytesRead = readArray(false);
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    case HPROF_GC_PRIM_ARRAY_DUMP: {
+                        int bytesRead = readArray(true);
+                        bytesLeft -= bytesRead;
+                        break;
+                    }
+                    default: {
+                        throw new IOException("Unrecognized heap dump sub-record type:  " + type);
+                    }
                 }
-                return 1;
             }
-            case 'B': {
-                byte b = in.readByte();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaByte(b);
+            if (debugLevel > 0) {
+                System.err.println("    Finished heap sub-records.");
+            }
+            return part;
+        }
+
+        private long readID() throws IOException {
+            return (identifierSize == 4)?
+                (Snapshot.SMALL_ID_MASK & in.readInt()) : in.readLong();
+        }
+
+        private void skipBytes(long length) throws IOException {
+            while (length > 0) {
+                long skipped = in.skip(length);
+                if (skipped <= 0) {
+                    throw new EOFException();
                 }
-                return 1;
+                length -= skipped;
+            }
+        }
+
+        //
+        // Read a java value.  If result is non-null, it's expected to be an
+        // array of one element.  We use it to fake multiple return values.
+        // @returns the number of bytes read
+        //
+        private int readValue(JavaThing[] resultArr) throws IOException {
+            byte type = in.readByte();
+            return 1 + readValueForType(type, resultArr);
+        }
+
+        private int readValueForType(byte type, JavaThing[] resultArr)
+                throws IOException {
+            if (version >= VERSION_JDK12BETA4) {
+                type = signatureFromTypeId(type);
             }
-            case 'S': {
-                short s = in.readShort();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaShort(s);
+            return readValueForTypeSignature(type, resultArr);
+        }
+
+        private int readValueForTypeSignature(byte type, JavaThing[] resultArr)
+                throws IOException {
+            switch (type) {
+                case '[':
+                case 'L': {
+                    long id = readID();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaObjectRef(id);
+                    }
+                    return identifierSize;
+                }
+                case 'Z': {
+                    int b = in.readByte();
+                    if (b != 0 && b != 1) {
+                        warn("Illegal boolean value read");
+                    }
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaBoolean(b != 0);
+                    }
+                    return 1;
+                }
+                case 'B': {
+                    byte b = in.readByte();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaByte(b);
+                    }
+                    return 1;
+                }
+                case 'S': {
+                    short s = in.readShort();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaShort(s);
+                    }
+                    return 2;
+                }
+                case 'C': {
+                    char ch = in.readChar();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaChar(ch);
+                    }
+                    return 2;
+                }
+                case 'I': {
+                    int val = in.readInt();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaInt(val);
+                    }
+                    return 4;
+                }
+                case 'J': {
+                    long val = in.readLong();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaLong(val);
+                    }
+                    return 8;
+                }
+                case 'F': {
+                    float val = in.readFloat();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaFloat(val);
+                    }
+                    return 4;
+                }
+                case 'D': {
+                    double val = in.readDouble();
+                    if (resultArr != null) {
+                        resultArr[0] = new JavaDouble(val);
+                    }
+                    return 8;
+                }
+                default: {
+                    throw new IOException("Bad value signature:  " + type);
                 }
-                return 2;
             }
-            case 'C': {
-                char ch = in.readChar();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaChar(ch);
+        }
+
+        //
+        // Handle a HPROF_GC_CLASS_DUMP
+        // Return number of bytes read
+        //
+        private int readClass() throws IOException {
+            long id = readID();
+            StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
+            long superId = readID();
+            long classLoaderId = readID();
+            long signersId = readID();
+            long protDomainId = readID();
+            long reserved1 = readID();
+            long reserved2 = readID();
+            int instanceSize = in.readInt();
+            int bytesRead = 7 * identifierSize + 8;
+
+            int numConstPoolEntries = in.readUnsignedShort();
+            bytesRead += 2;
+            for (int i = 0; i < numConstPoolEntries; i++) {
+                int index = in.readUnsignedShort(); // unused
+                bytesRead += 2;
+                bytesRead += readValue(null);       // We ignore the values
+            }
+
+            int numStatics = in.readUnsignedShort();
+            bytesRead += 2;
+            JavaThing[] valueBin = new JavaThing[1];
+            JavaStatic[] statics = new JavaStatic[numStatics];
+            for (int i = 0; i < numStatics; i++) {
+                long nameId = readID();
+                bytesRead += identifierSize;
+                byte type = in.readByte();
+                bytesRead++;
+                bytesRead += readValueForType(type, valueBin);
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
                 }
-                return 2;
+                String signature = "" + ((char) type);
+                JavaField f = new JavaField(fieldName, signature);
+                statics[i] = new JavaStatic(f, valueBin[0]);
             }
-            case 'I': {
-                int val = in.readInt();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaInt(val);
+
+            int numFields = in.readUnsignedShort();
+            bytesRead += 2;
+            JavaField[] fields = new JavaField[numFields];
+            for (int i = 0; i < numFields; i++) {
+                long nameId = readID();
+                bytesRead += identifierSize;
+                byte type = in.readByte();
+                bytesRead++;
+                String fieldName = getNameFromID(nameId);
+                if (version >= VERSION_JDK12BETA4) {
+                    type = signatureFromTypeId(type);
                 }
-                return 4;
+                String signature = "" + ((char) type);
+                fields[i] = new JavaField(fieldName, signature);
+            }
+            String name = classNameFromObjectID.get(id);
+            if (name == null) {
+                warn("Class name not found for " + toHex(id));
+                name = "unknown-name@" + toHex(id);
+            }
+            JavaClass c = new JavaClass(id, name, superId, classLoaderId, signersId,
+                                        protDomainId, fields, statics,
+                                        instanceSize);
+            part.addClass(id, c, stackTrace);
+
+            return bytesRead;
+        }
+
+        //
+        // Handle a HPROF_GC_INSTANCE_DUMP
+        // Return number of bytes read
+        //
+        private int readInstance() throws IOException {
+            long start = base + in.position();
+            long id = readID();
+            StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
+            readID();   // class ID, read again when resolving
+            int bytesFollowing = in.readInt();
+            int bytesRead = (2 * identifierSize) + 8 + bytesFollowing;
+            skipBytes(bytesFollowing);
+            part.addJavaObject(id, start, stackTrace);
+            return bytesRead;
+        }
+
+        //
+        // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
+        // Return number of bytes read
+        //
+        private int readArray(boolean isPrimitive) throws IOException {
+            long start = base + in.position();
+            long id = readID();
+            StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
+            int num = in.readInt();
+            int bytesRead = identifierSize + 8;
+            long elementClassID;
+            if (isPrimitive) {
+                elementClassID = in.readByte();
+                bytesRead++;
+            } else {
+                elementClassID = readID();
+                bytesRead += identifierSize;
             }
-            case 'J': {
-                long val = in.readLong();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaLong(val);
+
+            // Check for primitive arrays:
+            byte primitiveSignature = 0x00;
+            int elSize = 0;
+            if (isPrimitive || version < VERSION_JDK12BETA4) {
+                switch ((int)elementClassID) {
+                    case T_BOOLEAN: {
+                        primitiveSignature = (byte) 'Z';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_CHAR: {
+                        primitiveSignature = (byte) 'C';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_FLOAT: {
+                        primitiveSignature = (byte) 'F';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_DOUBLE: {
+                        primitiveSignature = (byte) 'D';
+                        elSize = 8;
+                        break;
+                    }
+                    case T_BYTE: {
+                        primitiveSignature = (byte) 'B';
+                        elSize = 1;
+                        break;
+                    }
+                    case T_SHORT: {
+                        primitiveSignature = (byte) 'S';
+                        elSize = 2;
+                        break;
+                    }
+                    case T_INT: {
+                        primitiveSignature = (byte) 'I';
+                        elSize = 4;
+                        break;
+                    }
+                    case T_LONG: {
+                        primitiveSignature = (byte) 'J';
+                        elSize = 8;
+                        break;
+                    }
                 }
-                return 8;
+                if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
+                    throw new IOException("Unrecognized typecode:  "
+                                            + elementClassID);
+                }
+            }
+            if (primitiveSignature != 0x00) {
+                int size = elSize * num;
+                bytesRead += size;
+                skipBytes(size);
+                part.addValueArray(id, start, stackTrace);
+            } else {
+                int sz = num * identifierSize;
+                bytesRead += sz;
+                skipBytes(sz);
+                part.addObjectArray(id, start, stackTrace);
             }
-            case 'F': {
-                float val = in.readFloat();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaFloat(val);
+            return bytesRead;
+        }
+    }
+
+    //
+    // Notes the id and class of each object in one chunk, and the number
+    // (and for arrays, the total length) of the instances of each class.
+    // Classes are numbered by name within the chunk.
+    //
+    private class IdChunkReader {
+        // The instances of a class, or the arrays of an array class.
+        private class Tally {
+            final int name;
+            final long classId;     // for instances; 0 for arrays
+            final int elementSize;  // for primitive arrays
+            long count;
+            long bytes;
+
+            Tally(int name, long classId, int elementSize) {
+                this.name = name;
+                this.classId = classId;
+                this.elementSize = elementSize;
+                tallies.add(this);
+            }
+        }
+
+        private final Chunk chunk;
+        private long[] ids = new long[1024];
+        private int[] nameIndexes = new int[1024];
+        private int size;
+        private final List<String> names = new ArrayList<>();
+        private final Map<String, Integer> namesSeen = new HashMap<>();
+        private final List<Tally> tallies = new ArrayList<>();
+        private final Map<Long, Tally> instanceTallies = new HashMap<>();
+        private final Map<Long, Tally> objectArrayTallies = new HashMap<>();
+        private final Map<Long, Tally> valueArrayTallies = new HashMap<>();
+        private final Map<Long, Integer> instanceSizes = new HashMap<>();
+        private int[] globalNames;
+
+        IdChunkReader(Chunk chunk) {
+            this.chunk = chunk;
+        }
+
+        IdChunkReader read() throws IOException {
+            long pos = chunk.start;
+            while (pos < chunk.end) {
+                long next = subRecordEnd(pos, chunk.end);
+                int type = readBuf.getByte(pos) & 0xff;
+                long id = readIDAt(pos + 1);
+                switch (type) {
+                    case HPROF_GC_CLASS_DUMP: {
+                        instanceSizes.put(id, readBuf.getInt(pos + 1 + 7 * identifierSize + 4));
+                        Tally tally = instanceTallies.computeIfAbsent(javaLangClassId,
+                                c -> new Tally(nameIndex("java.lang.Class"), c, 0));
+                        tally.count++;
+                        add(id, tally.name);
+                        break;
+                    }
+                    case HPROF_GC_INSTANCE_DUMP: {
+                        long classId = readIDAt(pos + 1 + identifierSize + 4);
+                        Tally tally = instanceTallies.computeIfAbsent(classId,
+                                c -> new Tally(nameIndex(getClassName(c)), c, 0));
+                        tally.count++;
+                        add(id, tally.name);
+                        break;
+                    }
+                    case HPROF_GC_OBJ_ARRAY_DUMP:
+                    case HPROF_GC_PRIM_ARRAY_DUMP: {
+                        long num = readBuf.getInt(pos + 1 + identifierSize + 4) & 0xffffffffL;
+                        long elementClassId = type == HPROF_GC_PRIM_ARRAY_DUMP
+                                ? readBuf.getByte(pos + 1 + identifierSize + 8)
+                                : readIDAt(pos + 1 + identifierSize + 8);
+                        Tally tally = arrayTally(type == HPROF_GC_PRIM_ARRAY_DUMP, elementClassId);
+                        int elSize = tally.elementSize != 0 ? tally.elementSize : identifierSize;
+                        tally.count++;
+                        tally.bytes += num * elSize;
+                        add(id, tally.name);
+                        break;
+                    }
+                    default:
+                        break;
                 }
-                return 4;
+                pos = next;
             }
-            case 'D': {
-                double val = in.readDouble();
-                if (resultArr != null) {
-                    resultArr[0] = new JavaDouble(val);
+            return this;
+        }
+
+        private Tally arrayTally(boolean isPrimitive, long elementClassId) throws IOException {
+            if (isPrimitive || (version < VERSION_JDK12BETA4
+                                && primitiveSize(elementClassId) != 0)) {
+                Tally tally = valueArrayTallies.get(elementClassId);
+                if (tally == null) {
+                    tally = new Tally(nameIndex("[" + (char) signatureFromTypeId(
+                            (byte) elementClassId)), 0, primitiveSize(elementClassId));
+                    valueArrayTallies.put(elementClassId, tally);
                 }
-                return 8;
+                return tally;
             }
-            default: {
-                throw new IOException("Bad value signature:  " + type);
+            return objectArrayTallies.computeIfAbsent(elementClassId, c -> {
+                String name = getClassName(c);
+                if (version < VERSION_JDK12BETA4) {
+                    // the element class, not the array class
+                    name = name.startsWith("[") ? "[" + name : "[L" + name + ";";
+                }
+                return new Tally(nameIndex(name), 0, 0);
+            });
+        }
+
+        private String getClassName(long classId) {
+            String name = classNameFromObjectID.get(classId);
+            return name != null ? name : "unknown-name@" + toHex(classId);
+        }
+
+        private int nameIndex(String name) {
+            return namesSeen.computeIfAbsent(name, n -> {
+                names.add(n);
+                return names.size() - 1;
+            });
+        }
+
+        private void add(long id, int name) {
+            if (size == ids.length) {
+                ids = Arrays.copyOf(ids, size * 2);
+                nameIndexes = Arrays.copyOf(nameIndexes, size * 2);
             }
+            ids[size] = id;
+            nameIndexes[size++] = name;
         }
     }
 
@@ -644,184 +1473,6 @@ public class HprofReader extends Reader {
         return result;
     }
 
-    //
-    // Handle a HPROF_GC_CLASS_DUMP
-    // Return number of bytes read
-    //
-    private int readClass() throws IOException {
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long superId = readID();
-        long classLoaderId = readID();
-        long signersId = readID();
-        long protDomainId = readID();
-        long reserved1 = readID();
-        long reserved2 = readID();
-        int instanceSize = in.readInt();
-        int bytesRead = 7 * identifierSize + 8;
-
-        int numConstPoolEntries = in.readUnsignedShort();
-        bytesRead += 2;
-        for (int i = 0; i < numConstPoolEntries; i++) {
-            int index = in.readUnsignedShort(); // unused
-            bytesRead += 2;
-            bytesRead += readValue(null);       // We ignore the values
-        }
-
-        int numStatics = in.readUnsignedShort();
-        bytesRead += 2;
-        JavaThing[] valueBin = new JavaThing[1];
-        JavaStatic[] statics = new JavaStatic[numStatics];
-        for (int i = 0; i < numStatics; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            bytesRead += readValueForType(type, valueBin);
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            JavaField f = new JavaField(fieldName, signature);
-            statics[i] = new JavaStatic(f, valueBin[0]);
-        }
-
-        int numFields = in.readUnsignedShort();
-        bytesRead += 2;
-        JavaField[] fields = new JavaField[numFields];
-        for (int i = 0; i < numFields; i++) {
-            long nameId = readID();
-            bytesRead += identifierSize;
-            byte type = in.readByte();
-            bytesRead++;
-            String fieldName = getNameFromID(nameId);
-            if (version >= VERSION_JDK12BETA4) {
-                type = signatureFromTypeId(type);
-            }
-            String signature = "" + ((char) type);
-            fields[i] = new JavaField(fieldName, signature);
-        }
-        String name = classNameFromObjectID.get(id);
-        if (name == null) {
-            warn("Class name not found for " + toHex(id));
-            name = "unknown-name@" + toHex(id);
-        }
-        JavaClass c = new JavaClass(id, name, superId, classLoaderId, signersId,
-                                    protDomainId, fields, statics,
-                                    instanceSize);
-        snapshot.addClass(id, c);
-        snapshot.setSiteTrace(c, stackTrace);
-
-        return bytesRead;
-    }
-
-    //
-    // Handle a HPROF_GC_INSTANCE_DUMP
-    // Return number of bytes read
-    //
-    private int readInstance() throws IOException {
-        long start = in.position();
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        long classID = readID();
-        int bytesFollowing = in.readInt();
-        int bytesRead = (2 * identifierSize) + 8 + bytesFollowing;
-        JavaObject jobj = new JavaObject(classID, start);
-        skipBytes(bytesFollowing);
-        snapshot.addHeapObject(id, jobj);
-        snapshot.setSiteTrace(jobj, stackTrace);
-        return bytesRead;
-    }
-
-    //
-    // Handle a HPROF_GC_OBJ_ARRAY_DUMP or HPROF_GC_PRIM_ARRAY_DUMP
-    // Return number of bytes read
-    //
-    private int readArray(boolean isPrimitive) throws IOException {
-        long start = in.position();
-        long id = readID();
-        StackTrace stackTrace = getStackTraceFromSerial(in.readInt());
-        int num = in.readInt();
-        int bytesRead = identifierSize + 8;
-        long elementClassID;
-        if (isPrimitive) {
-            elementClassID = in.readByte();
-            bytesRead++;
-        } else {
-            elementClassID = readID();
-            bytesRead += identifierSize;
-        }
-
-        // Check for primitive arrays:
-        byte primitiveSignature = 0x00;
-        int elSize = 0;
-        if (isPrimitive || version < VERSION_JDK12BETA4) {
-            switch ((int)elementClassID) {
-                case T_BOOLEAN: {
-                    primitiveSignature = (byte) 'Z';
-                    elSize = 1;
-                    break;
-                }
-                case T_CHAR: {
-                    primitiveSignature = (byte) 'C';
-                    elSize = 2;
-                    break;
-                }
-                case T_FLOAT: {
-                    primitiveSignature = (byte) 'F';
-                    elSize = 4;
-                    break;
-                }
-                case T_DOUBLE: {
-                    primitiveSignature = (byte) 'D';
-                    elSize = 8;
-                    break;
-                }
-                case T_BYTE: {
-                    primitiveSignature = (byte) 'B';
-                    elSize = 1;
-                    break;
-                }
-                case T_SHORT: {
-                    primitiveSignature = (byte) 'S';
-                    elSize = 2;
-                    break;
-                }
-                case T_INT: {
-                    primitiveSignature = (byte) 'I';
-                    elSize = 4;
-                    break;
-                }
-                case T_LONG: {
-                    primitiveSignature = (byte) 'J';
-                    elSize = 8;
-                    break;
-                }
-            }
-            if (version >= VERSION_JDK12BETA4 && primitiveSignature == 0x00) {
-                throw new IOException("Unrecognized typecode:  "
-                                        + elementClassID);
-            }
-        }
-        if (primitiveSignature != 0x00) {
-            int size = elSize * num;
-            bytesRead += size;
-            JavaValueArray va = new JavaValueArray(primitiveSignature, start);
-            skipBytes(size);
-            snapshot.addHeapObject(id, va);
-            snapshot.setSiteTrace(va, stackTrace);
-        } else {
-            int sz = num * identifierSize;
-            bytesRead += sz;
-            JavaObjectArray arr = new JavaObjectArray(elementClassID, start);
-            skipBytes(sz);
-            snapshot.addHeapObject(id, arr);
-            snapshot.setSiteTrace(arr, stackTrace);
-        }
-        return bytesRead;
-    }
-
     private static byte signatureFromTypeId(byte typeId) throws IOException {
         switch (typeId) {
             case T_CLASS: {
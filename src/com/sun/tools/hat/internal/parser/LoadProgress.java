@@ -36,13 +36,16 @@ import java.io.File;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
 import java.util.function.Consumer;
 
 public class LoadProgress {
     private List<ProgressElement> elements = Collections.synchronizedList(new ArrayList<>());
 
-    public void startLoadingStream(String heapFile, PositionDataInputStream stream) {
-        elements.add(new StreamProgress(heapFile, stream));
+    public StreamProgress startLoadingStream(String heapFile, PositionDataInputStream stream) {
+        StreamProgress progress = new StreamProgress(heapFile, stream);
+        elements.add(progress);
+        return progress;
     }
 
     public TickedProgress startTickedProgress(String name, int numTicks) {
@@ -51,12 +54,6 @@ public class LoadProgress {
         return progress;
     }
 
-    public void end() {
-        synchronized (elements) {
-            elements.get(elements.size() - 1).end();
-        }
-    }
-
     public void each(Consumer<ProgressElement> callback) {
         synchronized (elements) {
             for (ProgressElement progress : elements) {
@@ -132,7 +129,7 @@ public class LoadProgress {
     public static class TickedProgress extends ProgressElement {
         private final String name;
         private final int numTicks;
-        private volatile int progress = 0;
+        private final AtomicInteger progress = new AtomicInteger();
 
         public TickedProgress(String name, int numTicks) {
             this.name = name;
@@ -140,7 +137,7 @@ public class LoadProgress {
         }
 
         public void tick() {
-            progress++;
+            progress.incrementAndGet();
         }
 
         @Override
@@ -149,7 +146,7 @@ public class LoadProgress {
                 return 100.0;
             }
 
-            return ((double) progress / (double) numTicks) * 100.0;
+            return ((double) progress.get() / (double) numTicks) * 100.0;
         }
 
         @Override
@@ -32,35 +32,50 @@
 
 package com.sun.tools.hat.internal.parser;
 
+import java.io.EOFException;
 import java.io.IOException;
 import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
 import java.nio.MappedByteBuffer;
 import java.nio.channels.FileChannel;
 
 /**
- * Implementation of ReadBuffer using mapped file buffer
+ * Implementation of ReadBuffer using mapped file buffer.  Since a single
+ * MappedByteBuffer cannot exceed 2 GB, the file is mapped as a sequence
+ * of regions.  Adjacent regions overlap by a few bytes, so that any
+ * primitive value is always contained within a single region; only bulk
+ * reads ever need to span a region boundary.
+ *
+ * Only absolute reads are made against the shared buffers, and bulk
+ * reads go through a private duplicate, so no locking is needed.
  *
  * @author A. Sundararajan
  */
 class MappedReadBuffer implements ReadBuffer {
-    private final MappedByteBuffer buf;
+    // log2 of the size of each mapped region (1 GB)
+    private static final int REGION_SHIFT = 30;
+    // bytes that each region extends past the start of the next one;
+    // must be at least the size of the largest primitive (long)
+    private static final int REGION_OVERLAP = 8;
+
+    private final MappedByteBuffer[] regions;
+    private final int regionShift;
+    private final long regionMask;
 
-    MappedReadBuffer(MappedByteBuffer buf) {
-        this.buf = buf;
+    MappedReadBuffer(MappedByteBuffer[] regions, int regionShift) {
+        this.regions = regions;
+        this.regionShift = regionShift;
+        this.regionMask = (1L << regionShift) - 1;
     }
 
     // factory method to create correct ReadBuffer for a given file
     static ReadBuffer create(RandomAccessFile file) throws IOException {
-        FileChannel ch = file.getChannel();
-        long size = ch.size();
-        // if file size is more than 2 GB and when file mapping is
-        // configured (default), use mapped file reader
-        if (canUseFileMap() && (size <= Integer.MAX_VALUE)) {
-            MappedByteBuffer buf;
+        if (canUseFileMap()) {
+            FileChannel ch = file.getChannel();
             try {
-                buf = ch.map(FileChannel.MapMode.READ_ONLY, 0, size);
+                MappedByteBuffer[] regions = map(ch, REGION_SHIFT);
                 ch.close();
-                return new MappedReadBuffer(buf);
+                return new MappedReadBuffer(regions, REGION_SHIFT);
             } catch (IOException exp) {
                 exp.printStackTrace();
                 System.err.println("File mapping failed, will use direct read");
@@ -70,6 +85,20 @@ class MappedReadBuffer implements ReadBuffer {
         return new FileReadBuffer(file);
     }
 
+    private static MappedByteBuffer[] map(FileChannel ch, int regionShift)
+            throws IOException {
+        long size = ch.size();
+        long regionSize = 1L << regionShift;
+        int count = (int) ((size + regionSize - 1) >>> regionShift);
+        MappedByteBuffer[] regions = new MappedByteBuffer[count];
+        for (int i = 0; i < count; i++) {
+            long start = (long) i << regionShift;
+            long length = Math.min(regionSize + REGION_OVERLAP, size - start);
+            regions[i] = ch.map(FileChannel.MapMode.READ_ONLY, start, length);
+        }
+        return regions;
+    }
+
     private static boolean canUseFileMap() {
         // set jhat.disableFileMap to any value other than "false"
         // to disable file mapping
@@ -77,44 +106,56 @@ class MappedReadBuffer implements ReadBuffer {
         return prop == null || prop.equals("false");
     }
 
-    private void seek(long pos) {
-        assert pos <= Integer.MAX_VALUE :  "position overflow";
-        buf.position((int)pos);
+    private MappedByteBuffer region(long pos) {
+        return regions[(int) (pos >>> regionShift)];
+    }
+
+    private int index(long pos) {
+        return (int) (pos & regionMask);
     }
 
     @Override
-    public synchronized void get(long pos, byte[] res) throws IOException {
-        seek(pos);
-        buf.get(res);
+    public void get(long pos, byte[] res, int off, int len) throws IOException {
+        int end = off + len;
+        while (off < end) {
+            MappedByteBuffer region = region(pos);
+            int index = index(pos);
+            int count = Math.min(end - off, region.limit() - index);
+            if (count <= 0) {
+                throw new EOFException("read past end of file at " + pos);
+            }
+            // The duplicate has its own position, so concurrent readers
+            // of the same region don't interfere with each other.
+            ByteBuffer buf = region.duplicate();
+            buf.position(index);
+            buf.get(res, off, count);
+            off += count;
+            pos += count;
+        }
     }
 
     @Override
-    public synchronized char getChar(long pos) throws IOException {
-        seek(pos);
-        return buf.getChar();
+    public char getChar(long pos) throws IOException {
+        return region(pos).getChar(index(pos));
     }
 
     @Override
-    public synchronized byte getByte(long pos) throws IOException {
-        seek(pos);
-        return buf.get();
+    public byte getByte(long pos) throws IOException {
+        return region(pos).get(index(pos));
     }
 
     @Override
-    public synchronized short getShort(long pos) throws IOException {
-        seek(pos);
-        return buf.getShort();
+    public short getShort(long pos) throws IOException {
+        return region(pos).getShort(index(pos));
     }
 
     @Override
-    public synchronized int getInt(long pos) throws IOException {
-        seek(pos);
-        return buf.getInt();
+    public int getInt(long pos) throws IOException {
+        return region(pos).getInt(index(pos));
     }
 
     @Override
-    public synchronized long getLong(long pos) throws IOException {
-        seek(pos);
-        return buf.getLong();
+    public long getLong(long pos) throws IOException {
+        return region(pos).getLong(index(pos));
     }
 }
@@ -0,0 +1,145 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.parser;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import com.sun.tools.hat.internal.model.JavaClass;
+import com.sun.tools.hat.internal.model.Root;
+import com.sun.tools.hat.internal.model.Snapshot;
+import com.sun.tools.hat.internal.model.StackTrace;
+
+/**
+ * The roots, classes and objects read from one chunk of a heap dump.
+ * Chunks are parsed concurrently, each into its own PartialSnapshot,
+ * and are then added to the real {@link Snapshot} one at a time, in
+ * file order.
+ */
+class PartialSnapshot {
+    private static final byte INSTANCE = 1;
+    private static final byte OBJECT_ARRAY = 2;
+    private static final byte VALUE_ARRAY = 3;
+
+    private final List<Root> roots = new ArrayList<>();
+    private final List<JavaClass> classes = new ArrayList<>();
+    private final List<StackTrace> classTraces = new ArrayList<>();
+    private long[] classIds = new long[16];
+    private long[] objectIds = new long[1024];
+    private long[] objectOffsets = new long[1024];
+    private byte[] objectKinds = new byte[1024];
+    private int numObjects;
+    // positions of the objects that have a stack trace, and their traces
+    private int[] tracedObjects = new int[16];
+    private final List<StackTrace> objectTraces = new ArrayList<>();
+
+    public void addRoot(Root r) {
+        roots.add(r);
+    }
+
+    public void addClass(long id, JavaClass c, StackTrace trace) {
+        classIds = ensureCapacity(classIds, classes.size());
+        classIds[classes.size()] = id;
+        classes.add(c);
+        classTraces.add(trace);
+    }
+
+    public void addJavaObject(long id, long offset, StackTrace trace) {
+        addObject(INSTANCE, id, offset, trace);
+    }
+
+    public void addObjectArray(long id, long offset, StackTrace trace) {
+        addObject(OBJECT_ARRAY, id, offset, trace);
+    }
+
+    public void addValueArray(long id, long offset, StackTrace trace) {
+        addObject(VALUE_ARRAY, id, offset, trace);
+    }
+
+    private void addObject(byte kind, long id, long offset, StackTrace trace) {
+        if (numObjects == objectIds.length) {
+            int capacity = numObjects * 2;
+            objectIds = Arrays.copyOf(objectIds, capacity);
+            objectOffsets = Arrays.copyOf(objectOffsets, capacity);
+            objectKinds = Arrays.copyOf(objectKinds, capacity);
+        }
+        if (trace != null) {
+            int numTraced = objectTraces.size();
+            if (numTraced == tracedObjects.length) {
+                tracedObjects = Arrays.copyOf(tracedObjects, numTraced * 2);
+            }
+            tracedObjects[numTraced] = numObjects;
+            objectTraces.add(trace);
+        }
+        objectIds[numObjects] = id;
+        objectOffsets[numObjects] = offset;
+        objectKinds[numObjects] = kind;
+        numObjects++;
+    }
+
+    /**
+     * Adds everything read into this chunk to the given snapshot.
+     */
+    public void addTo(Snapshot snapshot) {
+        roots.forEach(snapshot::addRoot);
+        for (int i = 0; i < classes.size(); i++) {
+            JavaClass c = classes.get(i);
+            snapshot.addClass(classIds[i], c);
+            snapshot.setSiteTrace(c.getIndex(), classTraces.get(i));
+        }
+        int[] indexes = new int[numObjects];
+        for (int i = 0; i < numObjects; i++) {
+            long id = objectIds[i];
+            long offset = objectOffsets[i];
+            switch (objectKinds[i]) {
+                case INSTANCE:
+                    indexes[i] = snapshot.addJavaObject(id, offset);
+                    break;
+                case OBJECT_ARRAY:
+                    indexes[i] = snapshot.addObjectArray(id, offset);
+                    break;
+                default:
+                    indexes[i] = snapshot.addValueArray(id, offset);
+                    break;
+            }
+        }
+        for (int i = 0; i < objectTraces.size(); i++) {
+            snapshot.setSiteTrace(indexes[tracedObjects[i]], objectTraces.get(i));
+        }
+    }
+
+    private static long[] ensureCapacity(long[] array, int size) {
+        return size < array.length ? array : Arrays.copyOf(array, size * 2);
+    }
+}
@@ -35,17 +35,23 @@ package com.sun.tools.hat.internal.parser;
 import java.io.IOException;
 
 /**
- * Positionable read only buffer
+ * Positionable read only buffer.  All reads are made at an absolute
+ * position and leave no state behind, so implementations must allow
+ * any number of threads to read concurrently without locking.
  *
  * @author A. Sundararajan
  */
 public interface ReadBuffer {
     // read methods - only byte array and int primitive types.
     // read position has to be specified always.
-    public void  get(long pos, byte[] buf) throws IOException;
+    public void  get(long pos, byte[] buf, int off, int len) throws IOException;
     public char  getChar(long pos) throws IOException;
     public byte  getByte(long pos) throws IOException;
     public short getShort(long pos) throws IOException;
     public int   getInt(long pos) throws IOException;
     public long  getLong(long pos) throws IOException;
+
+    public default void get(long pos, byte[] buf) throws IOException {
+        get(pos, buf, 0, buf.length);
+    }
 }
@@ -0,0 +1,94 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.parser;
+
+import java.io.IOException;
+import java.io.InputStream;
+
+/**
+ * An InputStream over a range of a {@link ReadBuffer}. Many of these can
+ * read from the same buffer at once, since ReadBuffer reads don't share
+ * any position state.
+ */
+class ReadBufferInputStream extends InputStream {
+    private final ReadBuffer buf;
+    private final long end;
+    private long pos;
+
+    /**
+     * Creates a stream over the given buffer range.
+     *
+     * @param buf the buffer to read from
+     * @param start the offset of the first byte to read
+     * @param end the offset just past the last byte to read
+     */
+    ReadBufferInputStream(ReadBuffer buf, long start, long end) {
+        this.buf = buf;
+        this.pos = start;
+        this.end = end;
+    }
+
+    @Override
+    public int read() throws IOException {
+        if (pos >= end) {
+            return -1;
+        }
+        return buf.getByte(pos++) & 0xff;
+    }
+
+    @Override
+    public int read(byte[] b, int off, int len) throws IOException {
+        if (len == 0) {
+            return 0;
+        }
+        if (pos >= end) {
+            return -1;
+        }
+        int count = (int) Math.min(len, end - pos);
+        buf.get(pos, b, off, count);
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public long skip(long n) {
+        long count = Math.max(0, Math.min(n, end - pos));
+        pos += count;
+        return count;
+    }
+
+    @Override
+    public int available() {
+        return (int) Math.min(Integer.MAX_VALUE, end - pos);
+    }
+}
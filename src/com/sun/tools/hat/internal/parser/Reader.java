@@ -62,8 +62,32 @@ public abstract class Reader {
      *
      * @param heapFile The name of a file containing a heap dump
      * @param callStack If true, read the call stack of allocaation sites
+     * @param useIndex If true, read the index file next to the heap dump
+     *                 if it is up to date, and write it if not
      */
-    public static Snapshot readFile(LoadProgress loadProgress, String heapFile, boolean callStack, int debugLevel) throws IOException {
+    public static Snapshot readFile(LoadProgress loadProgress, String heapFile, boolean callStack, boolean useIndex, int debugLevel) throws IOException {
+        return read(loadProgress, heapFile, (in, fileName, dumpNumber) ->
+                new HprofReader(fileName, in, dumpNumber, callStack, useIndex,
+                                debugLevel, loadProgress).read());
+    }
+
+    /**
+     * Read only the ids and classes of the objects in a file, to compare
+     * other dumps with it.
+     *
+     * @param heapFile The name of a file containing a heap dump
+     */
+    public static BaselineIndex readIds(LoadProgress loadProgress, String heapFile, int debugLevel) throws IOException {
+        return read(loadProgress, heapFile, (in, fileName, dumpNumber) ->
+                new HprofReader(fileName, in, dumpNumber, false, false,
+                                debugLevel, loadProgress).readIds());
+    }
+
+    private interface HprofRead<T> {
+        T read(PositionDataInputStream in, String heapFile, int dumpNumber) throws IOException;
+    }
+
+    private static <T> T read(LoadProgress loadProgress, String heapFile, HprofRead<T> reader) throws IOException {
         int dumpNumber = 1;
         int pos = heapFile.lastIndexOf('#');
         if (pos > -1) {
@@ -82,18 +106,17 @@ public abstract class Reader {
         }
         try (PositionDataInputStream in = new PositionDataInputStream(
                 new BufferedInputStream(new FileInputStream(heapFile)))) {
-            loadProgress.startLoadingStream(heapFile, in);
-            int i = in.readInt();
-            if (i == HprofReader.MAGIC_NUMBER) {
-                Reader r
-                    = new HprofReader(heapFile, in, dumpNumber,
-                                      callStack, debugLevel);
-                return r.read();
-            } else {
-                throw new IOException("Unrecognized magic number: " + i);
+            LoadProgress.StreamProgress progress = loadProgress.startLoadingStream(heapFile, in);
+            try {
+                int i = in.readInt();
+                if (i == HprofReader.MAGIC_NUMBER) {
+                    return reader.read(in, heapFile, dumpNumber);
+                } else {
+                    throw new IOException("Unrecognized magic number: " + i);
+                }
+            } finally {
+                progress.end();
             }
-        } finally {
-            loadProgress.end();
         }
     }
 }
@@ -125,6 +125,56 @@ class AllClassesQuery extends QueryHandler {
         print("Show heap histogram");
         out.println("</a>");
 
+        if (snapshot.getHasNewSet()) {
+            out.println("<li>");
+            printAnchorStart();
+            out.print("diff/\">");
+            print("Show heap histogram difference from baseline");
+            out.println("</a>");
+        }
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("dominators/\">");
+        print("Show dominator tree");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("duplicateStrings/\">");
+        print("Show duplicate strings");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("duplicateArrays/\">");
+        print("Show duplicate primitive arrays");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("collections/\">");
+        print("Show collection efficiency");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("boxedPrimitives/\">");
+        print("Show boxed primitives");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("classLoaders/\">");
+        print("Show class loaders");
+        out.println("</a>");
+
+        out.println("<li>");
+        printAnchorStart();
+        out.print("threads/\">");
+        print("Show threads");
+        out.println("</a>");
+
         out.println("<li>");
         printAnchorStart();
         out.print("finalizerSummary/\">");
@@ -0,0 +1,107 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.List;
+
+import com.sun.tools.hat.internal.model.BoxedPrimitives;
+
+/**
+ * Shows the boxed primitives in the heap, and how much could be saved by
+ * keeping their values in primitive collections, by box class and by the
+ * class of what refers to them.
+ */
+class BoxedPrimitivesQuery extends QueryHandler {
+    // how many owner classes to list, unless asked for all of them
+    private static final int LIMIT = 100;
+
+    @Override
+    public void run() {
+        startHtml("Boxed Primitives");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.println("<p>The bytes saved are the size of each box, less the "
+                    + "difference between the size of its value and the size of a "
+                    + "reference for each object that refers to it.  Boxes in object "
+                    + "arrays are counted against what holds the array.</p>");
+        out.flush();
+
+        BoxedPrimitives boxed = snapshot.getBoxedPrimitives();
+        out.println("<h2>By Box Class</h2>");
+        printTotals(boxed.getTotalsByClass(), false);
+
+        boolean all = params.containsKey("all");
+        List<BoxedPrimitives.Totals> byOwner = boxed.getTotalsByOwner();
+        out.println("<h2>By Owner Class</h2>");
+        printTotals(all ? byOwner : byOwner.subList(0, Math.min(byOwner.size(), LIMIT)), true);
+        if (!all && byOwner.size() > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + byOwner.size() + "</a>");
+            out.println("</p>");
+        }
+        endHtml();
+    }
+
+    private void printTotals(List<BoxedPrimitives.Totals> totals, boolean showOwner) {
+        out.println("<table align=center border=1>");
+        out.print("<tr>");
+        if (showOwner) {
+            out.print("<th>Owner</th>");
+        }
+        out.println("<th>Box</th><th>Count</th><th>Distinct Values</th>"
+                    + "<th>Bytes Saved Unboxed</th></tr>");
+        for (BoxedPrimitives.Totals total : totals) {
+            out.print("<tr>");
+            if (showOwner) {
+                out.print("<td>");
+                if (total.getOwnerClass() == null) {
+                    out.print("(unreferenced)");
+                } else {
+                    printClass(total.getOwnerClass());
+                }
+                out.print("</td>");
+            }
+            out.print("<td>");
+            printClass(total.getBoxClass());
+            out.print("</td><td>");
+            out.print(total.getCount());
+            out.print("</td><td>");
+            out.print(total.getDistinctCount());
+            out.print("</td><td>");
+            out.print(total.getSavedSize());
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+    }
+}
@@ -0,0 +1,99 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import com.sun.tools.hat.internal.model.ClassLoaders;
+import com.sun.tools.hat.internal.model.JavaHeapObject;
+import com.sun.tools.hat.internal.model.ReferenceChain;
+import com.sun.tools.hat.internal.model.Root;
+
+/**
+ * Lists the class loaders, with how many classes each defined, what those
+ * classes retain, and the shortest strong path from the rootset to each.
+ */
+class ClassLoadersQuery extends QueryHandler {
+    @Override
+    public void run() {
+        startHtml("Class Loaders");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.flush();
+
+        out.println("<table align=center border=1>");
+        out.println("<tr><th>Loader</th><th>Classes</th><th>Retained by Classes</th>"
+                    + "<th>Path from Rootset</th></tr>");
+        for (ClassLoaders.Loader loader : snapshot.getClassLoaders()) {
+            out.print("<tr><td>");
+            if (loader.getLoader() == null) {
+                out.print("&lt;bootstrap&gt;");
+            } else {
+                printThing(loader.getLoader());
+            }
+            out.print("</td><td>");
+            out.print(loader.getClassCount());
+            out.print("</td><td>");
+            out.print(loader.getClassesRetainedSize());
+            out.print("</td><td>");
+            printPath(loader);
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+        endHtml();
+    }
+
+    private void printPath(ClassLoaders.Loader loader) {
+        ReferenceChain ref = loader.getPathFromRoot();
+        if (ref == null) {
+            if (loader.getLoader() != null) {
+                out.print("(not strongly reachable)");
+            }
+            return;
+        }
+        Root root = ref.getObj().getRoot();
+        print(Root.getTypeName(root.getType()) + " Reference ");
+        printRoot(root);
+        out.println("<br>");
+        while (ref != null) {
+            ReferenceChain next = ref.getNext();
+            JavaHeapObject obj = ref.getObj();
+            print("--> ");
+            printThing(obj);
+            if (next != null) {
+                print(" (" + obj.describeReferenceTo(next.getObj(), snapshot) + ":)");
+            }
+            out.println("<br>");
+            ref = next;
+        }
+    }
+}
@@ -132,6 +132,17 @@ class ClassQuery extends QueryHandler {
         out.print("\">");
         out.println("References summary by type</a>");
 
+        out.println("<h2>Paths from the Rootset to Instances</h2>");
+        printAnchorStart();
+        print("rootPaths/" + encodeForURL(clazz));
+        out.print("\">");
+        out.println("Exclude weak refs</a><br>");
+
+        printAnchorStart();
+        print("allRootPaths/" + encodeForURL(clazz));
+        out.print("\">");
+        out.println("Include weak refs</a><br>");
+
         printReferencesTo(clazz);
     }
 
@@ -172,6 +183,12 @@ class ClassQuery extends QueryHandler {
         printHex(id);
         out.print("\">");
         out.println("Objects reachable from here</a><br>");
+
+        printAnchorStart();
+        out.print("dominators/");
+        printHex(id);
+        out.print("\">");
+        out.println("Objects dominated by this one</a><br>");
     }
 
 
@@ -0,0 +1,108 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.List;
+
+import com.sun.tools.hat.internal.lang.openjdk.CollectionEfficiency;
+
+/**
+ * Shows how much space the JDK collections in the heap waste, by
+ * collection class and by the class of the objects that hold them.
+ */
+class CollectionsQuery extends QueryHandler {
+    // how many owner classes to list, unless asked for all of them
+    private static final int LIMIT = 100;
+
+    @Override
+    public void run() {
+        startHtml("Collection Efficiency");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.println("<p>Empty collections waste all of their space, and the others "
+                    + "waste the slots of their backing arrays beyond what they would "
+                    + "need if sized to fit.  A collection has a low fill ratio if it "
+                    + "fills at most a quarter of its backing array.</p>");
+        out.flush();
+
+        CollectionEfficiency efficiency = snapshot.getCollectionEfficiency();
+        out.println("<h2>By Collection Class</h2>");
+        printTotals(efficiency.getTotalsByClass(), false);
+
+        boolean all = params.containsKey("all");
+        List<CollectionEfficiency.Totals> byOwner = efficiency.getTotalsByOwner();
+        out.println("<h2>By Owner Class</h2>");
+        printTotals(all ? byOwner : byOwner.subList(0, Math.min(byOwner.size(), LIMIT)), true);
+        if (!all && byOwner.size() > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + byOwner.size() + "</a>");
+            out.println("</p>");
+        }
+        endHtml();
+    }
+
+    private void printTotals(List<CollectionEfficiency.Totals> totals, boolean showOwner) {
+        out.println("<table align=center border=1>");
+        out.print("<tr>");
+        if (showOwner) {
+            out.print("<th>Owner</th>");
+        }
+        out.println("<th>Collection</th><th>Count</th><th>Empty</th>"
+                    + "<th>Low Fill Ratio</th><th>Wasted Bytes</th></tr>");
+        for (CollectionEfficiency.Totals total : totals) {
+            out.print("<tr>");
+            if (showOwner) {
+                out.print("<td>");
+                if (total.getOwnerClass() == null) {
+                    out.print("(unreferenced)");
+                } else {
+                    printClass(total.getOwnerClass());
+                }
+                out.print("</td>");
+            }
+            out.print("<td>");
+            printClass(total.getCollectionClass());
+            out.print("</td><td>");
+            out.print(total.getCount());
+            out.print("</td><td>");
+            out.print(total.getEmptyCount());
+            out.print("</td><td>");
+            out.print(total.getLowFillCount());
+            out.print("</td><td>");
+            out.print(total.getWastedSize());
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+    }
+}
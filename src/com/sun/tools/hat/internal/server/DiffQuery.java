@@ -0,0 +1,118 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.List;
+
+import com.google.common.collect.Ordering;
+import com.sun.tools.hat.internal.model.HeapDiff;
+
+/**
+ * Lists the change in the instances of each class since the baseline
+ * dump, sortable by the growth in size or count, by retained size, or
+ * by class name.  The retained sizes are only shown if the dominator
+ * tree has been worked out already, or they are asked for.
+ */
+class DiffQuery extends QueryHandler {
+    // how many classes to list, unless asked for all of them
+    private static final int LIMIT = 100;
+
+    @Override
+    public void run() {
+        startHtml("Heap Difference from Baseline");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.flush();
+
+        List<HeapDiff.Delta> deltas = snapshot.getHeapDiff();
+        if (deltas == null) {
+            out.println("<p align='center'>No baseline dump was given (use -baseline).</p>");
+            endHtml();
+            return;
+        }
+        boolean retained = "retained".equals(query) || snapshot.hasDominatorTree();
+        if (!retained) {
+            out.println("<p align='center'>");
+            out.println("<a href=\"retained\">Show retained sizes</a>"
+                        + " (works out the dominator tree, which can take a while)");
+            out.println("</p>");
+        }
+        if ("count".equals(query)) {
+            deltas = Ordering.natural().reverse()
+                    .onResultOf(HeapDiff.Delta::getCountDelta).sortedCopy(deltas);
+        } else if ("retained".equals(query)) {
+            deltas = Ordering.natural().reverse()
+                    .onResultOf(HeapDiff.Delta::getRetainedSize).sortedCopy(deltas);
+        } else if ("class".equals(query)) {
+            deltas = Ordering.natural()
+                    .onResultOf(HeapDiff.Delta::getClassName).sortedCopy(deltas);
+        }
+        out.println("<h2>" + deltas.size() + " classes changed, by "
+                    + deltas.stream().mapToLong(HeapDiff.Delta::getSizeDelta).sum()
+                    + " bytes in all</h2>");
+
+        boolean all = params.containsKey("all");
+        out.println("<table align=center border=1>");
+        out.println("<tr><th><a href=\"class\">Class</a></th>"
+                    + "<th><a href=\"count\">Count Change</a></th>"
+                    + "<th>Baseline Count</th><th>Count</th>"
+                    + "<th><a href=\"size\">Size Change</a></th>"
+                    + "<th>Baseline Size</th><th>Size</th>"
+                    + (retained ? "<th><a href=\"retained\">Retained Size</a></th>" : "")
+                    + "</tr>");
+        deltas.stream().limit(all ? Long.MAX_VALUE : LIMIT).forEach(delta -> {
+            out.print("<tr><td>");
+            if (delta.getClazz() != null) {
+                printClass(delta.getClazz());
+            } else {
+                print(delta.getClassName());
+            }
+            out.printf("</td><td>%+d</td><td>%d</td><td>%d</td>",
+                       delta.getCountDelta(), delta.getBaselineCount(), delta.getCount());
+            out.printf("<td>%+d</td><td>%d</td><td>%d</td>",
+                       delta.getSizeDelta(), delta.getBaselineSize(), delta.getSize());
+            if (retained) {
+                out.printf("<td>%d</td>", delta.getRetainedSize());
+            }
+            out.printf("</tr>%n");
+        });
+        out.println("</table>");
+        if (!all && deltas.size() > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + deltas.size() + "</a>");
+            out.println("</p>");
+        }
+        endHtml();
+    }
+}
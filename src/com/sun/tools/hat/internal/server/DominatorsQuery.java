@@ -0,0 +1,144 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.ArrayDeque;
+import java.util.Deque;
+import java.util.List;
+
+import com.google.common.base.Strings;
+import com.google.common.collect.Ordering;
+import com.sun.tools.hat.internal.model.JavaHeapObject;
+
+/**
+ * Browses the dominator tree top-down: the objects that the given object
+ * (or the rootset, if none is given) immediately dominates, biggest
+ * retained size first.
+ */
+class DominatorsQuery extends QueryHandler {
+    // how many dominated objects to list, unless asked for all of them
+    private static final int LIMIT = 100;
+
+    @Override
+    public void run() {
+        if (Strings.isNullOrEmpty(query)) {
+            startHtml("Dominator Tree");
+            out.println("<p align='center'>");
+            out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+            out.println("</p>");
+            out.println("<h2>Objects dominated only by the rootset, which reaches "
+                        + snapshot.getReachableSize() + " bytes</h2>");
+            printDominated(snapshot.getTopDominators());
+        } else {
+            startHtml("Dominator Tree from %s", query);
+            JavaHeapObject obj = snapshot.findThing(query);
+            if (obj == null) {
+                error("object not found: %s", query);
+            } else if (!obj.isReachable()) {
+                printThing(obj);
+                out.println("<p>This object can't be reached from the rootset.</p>");
+            } else {
+                printDominators(obj);
+                out.println("<h2>Retains " + obj.getRetainedSize()
+                            + " bytes, and dominates</h2>");
+                printDominated(obj.getDominated());
+            }
+        }
+        endHtml();
+    }
+
+    //
+    // Print the chain of dominators from the rootset down to obj.
+    //
+    private void printDominators(JavaHeapObject obj) {
+        Deque<JavaHeapObject> chain = new ArrayDeque<>();
+        for (JavaHeapObject t = obj; t != null; t = t.getDominator()) {
+            chain.push(t);
+        }
+        out.print("<p>");
+        printAnchorStart();
+        out.print("dominators/\">Rootset</a>");
+        for (JavaHeapObject t : chain) {
+            out.println(" &gt;<br>");
+            if (t == chain.getLast()) {
+                out.print("<strong>");
+                printThing(t);
+                out.print("</strong>");
+            } else {
+                printDominatorsLink(t);
+            }
+        }
+        out.println("</p>");
+    }
+
+    private void printDominated(List<JavaHeapObject> dominated) {
+        if (dominated.isEmpty()) {
+            out.println("<p>nothing else.</p>");
+            return;
+        }
+        boolean all = params.containsKey("all");
+        out.println("<table border=1 align=center>");
+        out.println("<tr><th>Retained Size</th><th>Size</th><th>Object</th></tr>");
+        Ordering.natural().reverse().onResultOf(JavaHeapObject::getRetainedSize)
+                .sortedCopy(dominated).stream()
+                .limit(all ? Long.MAX_VALUE : LIMIT).forEach(obj -> {
+            out.print("<tr><td>");
+            out.print(obj.getRetainedSize());
+            out.print("</td><td>");
+            out.print(obj.getSize());
+            out.print("</td><td>");
+            printDominatorsLink(obj);
+            out.println("</td></tr>");
+        });
+        out.println("</table>");
+        if (!all && dominated.size() > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + dominated.size() + "</a>");
+            out.println("</p>");
+        }
+    }
+
+    //
+    // Print obj, followed by a link to the objects it dominates, if any.
+    //
+    private void printDominatorsLink(JavaHeapObject obj) {
+        printThing(obj);
+        if (obj.getRetainedSize() > obj.getSize()) {
+            out.print(" (");
+            printAnchorStart();
+            out.print("dominators/");
+            printHex(obj.getId());
+            out.print("\">dominated</a>)");
+        }
+    }
+}
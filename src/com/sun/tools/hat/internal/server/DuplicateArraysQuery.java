@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import com.sun.tools.hat.internal.model.DuplicateArrays;
+import com.sun.tools.hat.internal.model.JavaHeapObject;
+import com.sun.tools.hat.internal.model.JavaValueArray;
+
+/**
+ * Lists the primitive arrays that have the same contents as others, most
+ * wasted bytes first.
+ */
+class DuplicateArraysQuery extends QueryHandler {
+    // how many groups to list, unless asked for all of them
+    private static final int LIMIT = 100;
+    // how many arrays to link to in each group
+    private static final int ARRAYS_SHOWN = 10;
+
+    @Override
+    public void run() {
+        startHtml("Duplicate Arrays");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.flush();
+
+        DuplicateArrays duplicates = snapshot.getDuplicateArrays();
+        int numGroups = duplicates.getGroups().size();
+        out.println("<h2>" + numGroups + " array contents are duplicated, wasting "
+                    + duplicates.getWastedSize() + " bytes</h2>");
+        out.println("<p>Arrays that hold the values of strings are left out; see ");
+        printAnchorStart();
+        out.println("duplicateStrings/\">the duplicate strings</a>.</p>");
+
+        boolean all = params.containsKey("all");
+        out.println("<table align=center border=1>");
+        out.println("<tr><th>Wasted Bytes</th><th>Count</th><th>Type</th>"
+                    + "<th>Length</th><th>Contents</th><th>Arrays</th></tr>");
+        duplicates.getGroups().stream().limit(all ? Long.MAX_VALUE : LIMIT).forEach(group -> {
+            JavaValueArray array = group.getArray();
+            out.print("<tr><td>");
+            out.print(group.getWastedSize());
+            out.print("</td><td>");
+            out.print(group.getCount());
+            out.print("</td><td>");
+            printClass(array.getClazz());
+            out.print("</td><td>");
+            out.print(array.getLength());
+            out.print("</td><td>");
+            print(array.valueString(false));
+            out.print("</td><td>");
+            int shown = 0;
+            for (JavaHeapObject obj : group.getArrays()) {
+                if (shown++ == ARRAYS_SHOWN) {
+                    out.print("...");
+                    break;
+                }
+                printThingAnchorTag(obj.getId());
+                printHex(obj.getId());
+                out.println("</a>");
+            }
+            out.println("</td></tr>");
+        });
+        out.println("</table>");
+        if (!all && numGroups > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + numGroups + "</a>");
+            out.println("</p>");
+        }
+        endHtml();
+    }
+}
@@ -0,0 +1,105 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.List;
+
+import com.google.common.collect.Multiset;
+import com.google.common.collect.Multisets;
+import com.google.common.collect.Ordering;
+import com.sun.tools.hat.internal.model.DuplicateStrings;
+import com.sun.tools.hat.internal.model.JavaClass;
+
+/**
+ * Lists the strings that have the same values as others, sortable by the
+ * bytes they waste or by how many there are.
+ */
+class DuplicateStringsQuery extends QueryHandler {
+    // how many values to list, unless asked for all of them
+    private static final int LIMIT = 100;
+    // how many referrer classes to list for each value
+    private static final int TOP_REFERRERS = 3;
+
+    @Override
+    public void run() {
+        startHtml("Duplicate Strings");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.flush();
+
+        DuplicateStrings duplicates = snapshot.getDuplicateStrings();
+        List<DuplicateStrings.Group> groups = duplicates.getGroups();
+        if ("count".equals(query)) {
+            groups = Ordering.natural().reverse()
+                    .onResultOf(DuplicateStrings.Group::getCount)
+                    .sortedCopy(groups);
+        }
+        out.println("<h2>" + groups.size() + " values are duplicated, wasting "
+                    + duplicates.getWastedSize() + " bytes</h2>");
+
+        boolean all = params.containsKey("all");
+        out.println("<table align=center border=1>");
+        out.println("<tr><th><a href=\"wasted\">Wasted Bytes</a></th>"
+                    + "<th><a href=\"count\">Count</a></th>"
+                    + "<th>Length</th><th>Value</th><th>Top Referrers</th></tr>");
+        groups.stream().limit(all ? Long.MAX_VALUE : LIMIT).forEach(group -> {
+            out.print("<tr><td>");
+            out.print(group.getWastedSize());
+            out.print("</td><td>");
+            out.print(group.getCount());
+            out.print("</td><td>");
+            out.print(group.getLength());
+            out.print("</td><td>");
+            printThingAnchorTag(group.getStrings().get(0).getId());
+            print("\"" + group.getPreview()
+                  + (group.getPreview().length() < group.getLength() ? "..." : "") + "\"");
+            out.print("</a></td><td>");
+            Multiset<JavaClass> referrers = group.getReferrerClasses();
+            for (Multiset.Entry<JavaClass> entry : Multisets.copyHighestCountFirst(referrers)
+                    .entrySet().asList().subList(0, Math.min(TOP_REFERRERS,
+                                                              referrers.entrySet().size()))) {
+                printClass(entry.getElement());
+                out.println(" (" + entry.getCount() + ")<br>");
+            }
+            out.println("</td></tr>");
+        });
+        out.println("</table>");
+        if (!all && groups.size() > LIMIT) {
+            out.print("<p align='center'>");
+            out.print("<a href=\"?all=true\">Show all " + groups.size() + "</a>");
+            out.println("</p>");
+        }
+        endHtml();
+    }
+}
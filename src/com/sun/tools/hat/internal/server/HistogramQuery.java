@@ -64,14 +64,21 @@ public class HistogramQuery extends QueryHandler {
         public abstract int getCount(JavaClass clazz);
         public abstract long getSize(JavaClass clazz);
         public int getRefCount(JavaClass clazz) {throw new UnsupportedOperationException();}
+        public long getRetainedSize(JavaClass clazz) {throw new UnsupportedOperationException();}
 
         public Collection<JavaClass> getClasses() {return classes;}
         public boolean hasRefCount() {return false;}
+        public boolean hasRetainedSize() {return false;}
     }
 
     private static class GlobalMetricsProvider extends MetricsProvider {
-        public GlobalMetricsProvider(Snapshot snapshot) {
+        private final boolean retained;
+
+        // The retained sizes are only shown if the dominator tree has
+        // been worked out already, or they are asked for.
+        public GlobalMetricsProvider(Snapshot snapshot, boolean computeRetained) {
             super(snapshot.getClasses());
+            this.retained = computeRetained || snapshot.hasDominatorTree();
         }
 
         @Override
@@ -83,6 +90,16 @@ public class HistogramQuery extends QueryHandler {
         public long getSize(JavaClass clazz) {
             return clazz.getTotalInstanceSize();
         }
+
+        @Override
+        public long getRetainedSize(JavaClass clazz) {
+            return clazz.getTotalRetainedSize();
+        }
+
+        @Override
+        public boolean hasRetainedSize() {
+            return retained;
+        }
     }
 
     private static class RefereeMetricsProvider extends MetricsProvider {
@@ -148,7 +165,7 @@ public class HistogramQuery extends QueryHandler {
                 params.get("referrer"), referrer -> resolveClass(referrer, false));
         MetricsProvider metrics;
         if (referee == null) {
-            metrics = new GlobalMetricsProvider(snapshot);
+            metrics = new GlobalMetricsProvider(snapshot, query.equals("retained"));
         } else {
             metrics = RefereeMetricsProvider.make(referee, referrers);
         }
@@ -159,6 +176,12 @@ public class HistogramQuery extends QueryHandler {
         out.println("<p align='center'>");
         out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
         out.println("</p>");
+        if (referee == null && !metrics.hasRetainedSize()) {
+            out.println("<p align='center'>");
+            out.println("<a href='/histo/retained'>Show retained sizes</a>"
+                        + " (works out the dominator tree, which can take a while)");
+            out.println("</p>");
+        }
 
         out.println("<table align=center border=1>");
         out.println("<tr>");
@@ -168,6 +191,9 @@ public class HistogramQuery extends QueryHandler {
         }
         printHeader("count", "Instance Count", referee, referrers);
         printHeader("size", "Total Size", referee, referrers);
+        if (metrics.hasRetainedSize()) {
+            printHeader("retained", "Retained Size", referee, referrers);
+        }
         out.println("</tr>");
 
         Comparator<JavaClass> comparator;
@@ -175,6 +201,8 @@ public class HistogramQuery extends QueryHandler {
             comparator = Ordering.natural().reverse().onResultOf(metrics::getCount);
         } else if (query.equals("class")) {
             comparator = Ordering.natural().onResultOf(JavaClass::getName);
+        } else if (query.equals("retained") && metrics.hasRetainedSize()) {
+            comparator = Ordering.natural().reverse().onResultOf(metrics::getRetainedSize);
         } else if (query.equals("size") || !metrics.hasRefCount()) {
             comparator = Ordering.natural().reverse().onResultOf(metrics::getSize);
         } else {
@@ -214,7 +242,11 @@ public class HistogramQuery extends QueryHandler {
                 out.printf("<td>%s</td>%n", formatLink("instances", null,
                         count, null, referee, referrers, clazz, null));
             }
-            out.printf("<td>%s</td></tr>%n", metrics.getSize(clazz));
+            out.printf("<td>%s</td>", metrics.getSize(clazz));
+            if (metrics.hasRetainedSize()) {
+                out.printf("<td>%s</td>", metrics.getRetainedSize(clazz));
+            }
+            out.printf("</tr>%n");
         });
         out.println("</table>");
 
@@ -51,15 +51,9 @@ import com.google.common.collect.ImmutableList;
 import com.google.common.collect.ImmutableListMultimap;
 import com.sun.tools.hat.internal.model.Snapshot;
 import com.sun.tools.hat.internal.oql.OQLEngine;
+import com.sun.tools.hat.internal.oql.OQLEnginePool;
 
 public class HttpReader extends HttpHandler {
-    private class EngineThreadLocal extends ThreadLocal<OQLEngine> {
-        @Override
-        protected OQLEngine initialValue() {
-            return new OQLEngine(snapshot);
-        }
-    }
-
     private static class HandlerRoute {
         private static final Pattern SLASH = Pattern.compile("/");
         private static final Pattern AMPER = Pattern.compile("[&;]");
@@ -132,7 +126,7 @@ public class HttpReader extends HttpHandler {
     }
 
     private final Snapshot snapshot;
-    private final EngineThreadLocal engine = new EngineThreadLocal();
+    private final OQLEnginePool oqlEngines;
     private final ImmutableList<HandlerRoute> routes = makeHandlerRoutes();
 
     private ImmutableList<HandlerRoute> makeHandlerRoutes() {
@@ -140,7 +134,7 @@ public class HttpReader extends HttpHandler {
         ImmutableList.Builder<HandlerRoute> builder = ImmutableList.builder();
 
         if (isOQLSupported) {
-            builder.add(new HandlerRoute("/oql/", () -> new OQLQuery(engine)),
+            builder.add(new HandlerRoute("/oql/", () -> new OQLQuery(oqlEngines)),
                         new HandlerRoute("/oqlhelp/", OQLHelp::new));
         }
         builder.add(new HandlerRoute("/", () -> new AllClassesQuery(true, isOQLSupported)),
@@ -156,19 +150,30 @@ public class HttpReader extends HttpHandler {
                     new HandlerRoute("/class/*", ClassQuery::new),
                     new HandlerRoute("/roots/*", () -> new RootsQuery(false)),
                     new HandlerRoute("/allRoots/*", () -> new RootsQuery(true)),
+                    new HandlerRoute("/rootPaths/*", () -> new RootPathsQuery(false)),
+                    new HandlerRoute("/allRootPaths/*", () -> new RootPathsQuery(true)),
                     new HandlerRoute("/reachableFrom/*", ReachableQuery::new),
                     new HandlerRoute("/rootStack/*", RootStackQuery::new),
                     new HandlerRoute("/histo/*", HistogramQuery::new),
+                    new HandlerRoute("/diff/*", DiffQuery::new),
                     new HandlerRoute("/refsByType/*", RefsByTypeQuery::new),
                     new HandlerRoute("/finalizerSummary/", FinalizerSummaryQuery::new),
                     new HandlerRoute("/finalizerObjects/", FinalizerObjectsQuery::new),
+                    new HandlerRoute("/dominators/*", DominatorsQuery::new),
+                    new HandlerRoute("/duplicateStrings/*", DuplicateStringsQuery::new),
+                    new HandlerRoute("/duplicateArrays/", DuplicateArraysQuery::new),
+                    new HandlerRoute("/collections/", CollectionsQuery::new),
+                    new HandlerRoute("/boxedPrimitives/", BoxedPrimitivesQuery::new),
+                    new HandlerRoute("/classLoaders/", ClassLoadersQuery::new),
+                    new HandlerRoute("/threads/", ThreadsQuery::new),
                     new HandlerRoute("/debug/*", DebugQuery::new));
         return builder.build();
     }
 
-    public HttpReader (Socket s, Snapshot snapshot) {
+    public HttpReader (Socket s, Snapshot snapshot, OQLEnginePool oqlEngines) {
         super(s);
         this.snapshot = snapshot;
+        this.oqlEngines = oqlEngines;
     }
 
     @Override
@@ -43,8 +43,8 @@ import com.sun.tools.hat.internal.oql.*;
 
 class OQLQuery extends QueryHandler {
 
-    public OQLQuery(ThreadLocal<OQLEngine> engine) {
-        this.engine = engine;
+    public OQLQuery(OQLEnginePool engines) {
+        this.engines = engines;
     }
 
     @Override
@@ -76,12 +76,20 @@ class OQLQuery extends QueryHandler {
     }
 
     private void executeQuery(String q) {
+        OQLEngine engine;
+        try {
+            engine = engines.take();
+        } catch (InterruptedException exp) {
+            Thread.currentThread().interrupt();
+            printException(exp);
+            return;
+        }
         try {
             out.println("<table border='1'>");
-            engine.get().executeQuery(q, o -> {
+            engine.executeQuery(q, o -> {
                 out.println("<tr><td>");
                 try {
-                    out.println(engine.get().toHtml(o));
+                    out.println(engine.toHtml(o));
                 } catch (Exception e) {
                     printException(e);
                 }
@@ -91,8 +99,10 @@ class OQLQuery extends QueryHandler {
             out.println("</table>");
         } catch (OQLException exp) {
             printException(exp);
+        } finally {
+            engines.release(engine);
         }
     }
 
-    private final ThreadLocal<OQLEngine> engine;
+    private final OQLEnginePool engines;
 }
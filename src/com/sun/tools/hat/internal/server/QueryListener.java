@@ -46,12 +46,19 @@ import java.util.concurrent.Executors;
 import java.io.IOException;
 
 import com.sun.tools.hat.internal.model.Snapshot;
+import com.sun.tools.hat.internal.oql.OQLEngine;
+import com.sun.tools.hat.internal.oql.OQLEnginePool;
 import com.sun.tools.hat.internal.parser.LoadProgress;
 
 public class QueryListener implements Runnable {
 
+    // how many queries can run OQL at once
+    private static final int OQL_ENGINES
+            = Math.min(4, Runtime.getRuntime().availableProcessors());
+
     private final Executor executor = Executors.newCachedThreadPool();
     private volatile Snapshot snapshot;
+    private OQLEnginePool oqlEngines;
     private final int port;
     private final LoadProgress loadProgress;
 
@@ -62,6 +69,10 @@ public class QueryListener implements Runnable {
     }
 
     public void setModel(Snapshot ss) {
+        // set before the snapshot, which publishes it
+        if (OQLEngine.isOQLSupported()) {
+            this.oqlEngines = new OQLEnginePool(ss, OQL_ENGINES);
+        }
         this.snapshot = ss;
     }
 
@@ -83,7 +94,7 @@ public class QueryListener implements Runnable {
                 if (snapshot == null) {
                     executor.execute(new ServerNotReadyHttpReader(s, loadProgress));
                 } else {
-                    executor.execute(new HttpReader(s, snapshot));
+                    executor.execute(new HttpReader(s, snapshot, oqlEngines));
                 }
             }
         }
@@ -43,6 +43,8 @@ import com.sun.tools.hat.internal.model.*;
 class ReachableQuery extends QueryHandler {
         // We inherit printFullClass from ClassQuery
 
+    // how many of the biggest objects to list, unless asked for all
+    private static final int LIMIT = 1000;
 
     public ReachableQuery() {
     }
@@ -52,12 +54,14 @@ class ReachableQuery extends QueryHandler {
         startHtml("Objects Reachable From %s", query);
         long id = parseHex(query);
         JavaHeapObject root = snapshot.findThing(id);
+        boolean all = params.containsKey("all");
         ReachableObjects ro = new ReachableObjects(root,
-                                   snapshot.getReachableExcludes());
+                                   snapshot.getReachableExcludes(),
+                                   all ? Integer.MAX_VALUE : LIMIT);
         // Now, print out the sorted list, but start with root
         long totalSize = ro.getTotalSize();
         JavaThing[] things = ro.getReachables();
-        long instances = things.length;
+        long instances = ro.getReachableCount();
 
         out.print("<strong>");
         printThing(root);
@@ -67,6 +71,10 @@ class ReachableQuery extends QueryHandler {
             printThing(thing);
             out.println("<br>");
         }
+        if (things.length < instances) {
+            out.println("<p>Only the " + things.length + " biggest are shown.  "
+                        + "<a href=\"?all=true\">Show all " + instances + "</a></p>");
+        }
 
         printFields(ro.getUsedFields(), "Data Members Followed");
         printFields(ro.getExcludedFields(), "Excluded Data Members");
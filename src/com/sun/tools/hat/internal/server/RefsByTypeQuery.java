@@ -54,9 +54,9 @@ public class RefsByTypeQuery extends QueryHandler {
                 params.get("referrer"), referrer -> resolveClass(referrer, false));
         ImmutableSetMultimap.Builder<JavaClass, JavaHeapObject> rfrBuilder
                 = ImmutableSetMultimap.builder();
-        final ImmutableSetMultimap.Builder<JavaClass, JavaHeapObject> rfeBuilder
+        ImmutableSetMultimap.Builder<JavaClass, JavaHeapObject> rfeBuilder
                 = ImmutableSetMultimap.builder();
-        for (final JavaHeapObject instance : Misc.getInstances(clazz, false, referrers)) {
+        for (JavaHeapObject instance : Misc.getInstances(clazz, false, referrers)) {
             if (instance.getId() == -1) {
                 continue;
             }
@@ -68,7 +68,9 @@ public class RefsByTypeQuery extends QueryHandler {
                 }
                 rfrBuilder.put(cl, instance);
             }
-            instance.visitReferencedObjects(obj -> rfeBuilder.put(obj.getClazz(), instance));
+            for (JavaHeapObject ref : instance.getReferees()) {
+                rfeBuilder.put(ref.getClazz(), instance);
+            }
         } // for each instance
 
         startHtml("References by Type");
@@ -0,0 +1,117 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import java.util.List;
+
+import com.sun.tools.hat.internal.model.JavaClass;
+import com.sun.tools.hat.internal.model.MergedRootPaths;
+import com.sun.tools.hat.internal.model.Root;
+
+/**
+ * Shows the shortest paths from the rootset to all the instances of a
+ * class, merged into a tree by the classes of the objects along them.
+ */
+class RootPathsQuery extends QueryHandler {
+    // how many branches to show at each level, and how many levels
+    private static final int MAX_CHILDREN = 20;
+    private static final int MAX_DEPTH = 30;
+
+    private final boolean includeWeak;
+
+    public RootPathsQuery(boolean includeWeak) {
+        this.includeWeak = includeWeak;
+    }
+
+    @Override
+    public void run() {
+        JavaClass clazz = resolveClass(query, true);
+        startHtml("Paths from the rootset to instances of %s (%s weak refs)",
+                  clazz.getName(), includeWeak ? "includes" : "excludes");
+        out.flush();
+
+        MergedRootPaths paths = snapshot.getMergedRootPaths(clazz, includeWeak);
+        out.print("<h1>Paths to instances of ");
+        printClass(clazz);
+        out.println("</h1>");
+        out.println("<p>Each line is the class of the next object on the "
+                    + "shortest paths from the rootset, with how many instances "
+                    + "those paths lead to and the total of their retained sizes.</p>");
+        if (paths.getUnreachableCount() > 0) {
+            out.println("<p>" + paths.getUnreachableCount()
+                        + " instances can't be reached from the rootset.</p>");
+        }
+        printNodes(paths.getRoots(), 0);
+
+        out.println("<h2>Other queries</h2>");
+        printAnchorStart();
+        print((includeWeak ? "rootPaths/" : "allRootPaths/") + encodeForURL(clazz));
+        out.print("\">");
+        out.println(includeWeak ? "Exclude weak refs</a><br>" : "Include weak refs</a><br>");
+        endHtml();
+    }
+
+    private void printNodes(List<MergedRootPaths.Node> nodes, int depth) {
+        if (nodes.isEmpty()) {
+            return;
+        }
+        out.println("<ul>");
+        if (depth == MAX_DEPTH) {
+            out.println("<li>(longer paths not shown)</li>");
+        } else {
+            for (MergedRootPaths.Node node : nodes.subList(0, Math.min(nodes.size(), MAX_CHILDREN))) {
+                out.print("<li>" + node.getCount() + " instances, "
+                          + node.getRetainedSize() + " bytes: ");
+                if (node.getClazz() == null) {
+                    print(Root.getTypeName(node.getRootType()) + " References");
+                } else if (node.isClassObject()) {
+                    out.print("statics of ");
+                    printClass(node.getClazz());
+                } else {
+                    printClass(node.getClazz());
+                }
+                printNodes(node.getChildren(), depth + 1);
+                out.println("</li>");
+            }
+            if (nodes.size() > MAX_CHILDREN) {
+                int count = 0;
+                for (MergedRootPaths.Node node : nodes.subList(MAX_CHILDREN, nodes.size())) {
+                    count += node.getCount();
+                }
+                out.println("<li>" + count + " instances through "
+                            + (nodes.size() - MAX_CHILDREN) + " other classes</li>");
+            }
+        }
+        out.println("</ul>");
+    }
+}
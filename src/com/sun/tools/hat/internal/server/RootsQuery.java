@@ -32,9 +32,6 @@
 
 package com.sun.tools.hat.internal.server;
 
-import com.google.common.collect.Multimap;
-import com.google.common.collect.Multimaps;
-import com.google.common.collect.Ordering;
 import com.sun.tools.hat.internal.model.*;
 
 /**
@@ -44,6 +41,12 @@ import com.sun.tools.hat.internal.model.*;
 
 
 class RootsQuery extends QueryHandler {
+    // how many paths to find, and how long they may be, unless asked for all
+    private static final int MAX_PATHS = 100;
+    private static final int MAX_DEPTH = 50;
+    // how long to search for, unless asked for all
+    private static final long TIMEOUT_MILLIS = 30_000;
+
     private final boolean includeWeak;
 
     public RootsQuery(boolean includeWeak) {
@@ -70,43 +73,53 @@ class RootsQuery extends QueryHandler {
         out.print("<h1>References to ");
         printThing(target);
         out.println("</h1>");
-        // More interesting values are *higher*
-        Multimap<Integer, ReferenceChain> refs = Multimaps.index(
-                snapshot.rootsetReferencesTo(target, includeWeak),
-                chain -> chain.getObj().getRoot().getType());
-        refs.asMap().entrySet().stream().sorted(Ordering.natural().reverse()
-                .onResultOf(entry -> entry.getKey())).forEach(entry -> {
-            out.print("<h2>");
-            print(Root.getTypeName(entry.getKey()) + " References");
-            out.println("</h2>");
-            entry.getValue().stream().sorted(Ordering.natural()
-                    .onResultOf(ReferenceChain::getDepth)).forEach(ref -> {
-                Root root = ref.getObj().getRoot();
-                out.print("<h3>");
-                printRoot(root);
-                if (root.getReferer() != null) {
-                    out.print("<small> (from ");
-                    printThingAnchorTag(root.getReferer().getId());
-                    print(root.getReferer().toString());
-                    out.print(")</a></small>");
+        // Chains are found shortest first, so show each as soon as it is
+        // found rather than waiting for the whole search.
+        boolean all = params.containsKey("all");
+        int[] found = new int[1];
+        boolean finished = snapshot.rootsetReferencesTo(target, includeWeak,
+                all ? Integer.MAX_VALUE : MAX_PATHS,
+                all ? Integer.MAX_VALUE : MAX_DEPTH,
+                all ? Long.MAX_VALUE : System.currentTimeMillis() + TIMEOUT_MILLIS, ref -> {
+            found[0]++;
+            Root root = ref.getObj().getRoot();
+            out.print("<h3>");
+            print(Root.getTypeName(root.getType()) + " Reference ");
+            printRoot(root);
+            if (root.getReferer() != null) {
+                out.print("<small> (from ");
+                printThingAnchorTag(root.getReferer().getId());
+                print(root.getReferer().toString());
+                out.print(")</a></small>");
 
+            }
+            out.print(" :</h3>");
+            while (ref != null) {
+                ReferenceChain next = ref.getNext();
+                JavaHeapObject obj = ref.getObj();
+                print("--> ");
+                printThing(obj);
+                if (next != null) {
+                    print(" (" +
+                            obj.describeReferenceTo(next.getObj(), snapshot)
+                            + ":)");
                 }
-                out.print(" :</h3>");
-                while (ref != null) {
-                    ReferenceChain next = ref.getNext();
-                    JavaHeapObject obj = ref.getObj();
-                    print("--> ");
-                    printThing(obj);
-                    if (next != null) {
-                        print(" (" +
-                                obj.describeReferenceTo(next.getObj(), snapshot)
-                                + ":)");
-                    }
-                    out.println("<br>");
-                    ref = next;
-                }
-            });
+                out.println("<br>");
+                ref = next;
+            }
+            out.flush();
         });
+        if (!finished) {
+            out.println("<p>The search stopped after finding " + found[0]
+                        + " paths, so there may be more.");
+            if (!all) {
+                out.println("Only the " + MAX_PATHS + " shortest paths of at most "
+                            + MAX_DEPTH + " objects are looked for, for up to "
+                            + TIMEOUT_MILLIS / 1000 + " seconds.  "
+                            + "<a href=\"?all=true\">Look for all paths</a>");
+            }
+            out.println("</p>");
+        }
 
         out.println("<h2>Other queries</h2>");
 
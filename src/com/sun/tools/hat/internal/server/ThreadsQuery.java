@@ -0,0 +1,102 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.server;
+
+import com.google.common.collect.ImmutableList;
+import com.sun.tools.hat.internal.lang.Models;
+import com.sun.tools.hat.internal.model.JavaObject;
+import com.sun.tools.hat.internal.model.StackFrame;
+import com.sun.tools.hat.internal.model.ThreadStacks;
+
+/**
+ * Lists the threads, with what is held only by each one's stack locals,
+ * broken down by the frames that have locals.
+ */
+class ThreadsQuery extends QueryHandler {
+    @Override
+    public void run() {
+        startHtml("Threads");
+        out.println("<p align='center'>");
+        out.println("<b><a href='/'>All Classes (excluding platform)</a></b>");
+        out.println("</p>");
+        out.flush();
+
+        ImmutableList<ThreadStacks.Thread> threads = snapshot.getThreadStacks();
+        if (threads.stream().allMatch(thread -> thread.getFrames().isEmpty())) {
+            out.println("<p>The heap dump has no stack locals, so the sizes"
+                        + " below can only be 0.</p>");
+        }
+        out.println("<table align=center border=1>");
+        out.println("<tr><th>Thread</th><th>Name</th><th>Retained by Locals</th>"
+                    + "<th>Frames with Locals</th></tr>");
+        for (ThreadStacks.Thread thread : threads) {
+            out.print("<tr><td>");
+            printThing(thread.getThread());
+            out.print("</td><td>");
+            if (thread.getThread() instanceof JavaObject) {
+                String name = Models.getStringValue(
+                        Models.getFieldObject((JavaObject) thread.getThread(), "name"));
+                if (name != null) {
+                    print(name);
+                }
+            }
+            out.print("</td><td>");
+            out.print(thread.getRetainedSize());
+            out.print("</td><td>");
+            for (ThreadStacks.Frame frame : thread.getFrames()) {
+                printFrame(frame);
+                out.println("<br>");
+            }
+            out.println("</td></tr>");
+        }
+        out.println("</table>");
+        endHtml();
+    }
+
+    private void printFrame(ThreadStacks.Frame frame) {
+        StackFrame f = frame.getStackFrame();
+        if (f == null) {
+            print("(unknown frame)");
+        } else {
+            print("#" + frame.getDepth() + " ");
+            out.print("<font color=purple>");
+            print(f.getClassName());
+            out.print("</font>");
+            print("." + f.getMethodName() + "(" + f.getMethodSignature() + ")");
+            out.print(" <bold>:</bold> ");
+            print(f.getSourceFileName() + " line " + f.getLineNumber());
+        }
+        print(" - " + frame.getRetainedSize() + " bytes, " + frame.getLocalCount()
+              + (frame.getLocalCount() == 1 ? " local" : " locals"));
+    }
+}
@@ -0,0 +1,181 @@
+/*
+ * Copyright © 2015 Chris Jester-Young.
+ *
+ * This code is free software; you can redistribute it and/or modify it
+ * under the terms of the GNU General Public License as published by the
+ * Free Software Foundation; either version 2 of the License, or (at your
+ * option) any later version.
+ *
+ * This code is distributed in the hope that it will be useful, but WITHOUT
+ * ANY WARRANTY; without even the implied warranty of MERCHANTABILITY or
+ * FITNESS FOR A PARTICULAR PURPOSE. See the GNU General Public License
+ * for more details.
+ *
+ * You should have received a copy of the GNU General Public License along
+ * with this work. If not, see <http://www.gnu.org/licenses/>.
+ *
+ * Linking this library statically or dynamically with other modules is
+ * making a combined work based on this library. Thus, the terms and
+ * conditions of the GNU General Public License cover the whole combination.
+ *
+ * As a special exception, the copyright holders of this library give you
+ * permission to link this library with independent modules to produce an
+ * executable, regardless of the license terms of these independent modules,
+ * and to copy and distribute the resulting executable under terms of your
+ * choice, provided that you also meet, for each linked independent module,
+ * the terms and conditions of the license of that module. An independent
+ * module is a module which is not derived from or based on this library.
+ * If you modify this library, you may extend this exception to your
+ * version of the library, but you are not obligated to do so. If you do
+ * not wish to do so, delete this exception statement from your version.
+ */
+
+package com.sun.tools.hat.internal.util;
+
+/**
+ * Open-addressing hash map from {@code long} keys to non-negative
+ * {@code int} values, used to index heap objects by id. Unlike a
+ * {@code HashMap<Long, Integer>}, nothing is boxed, so an entry costs
+ * about 16 to 32 bytes. Entries can't be removed.
+ *
+ * <p>Concurrent reads are safe once the map is no longer modified.
+ */
+public class LongIntMap {
+    public static final int NO_VALUE = -1;
+
+    private static final int MIN_CAPACITY = 16;
+
+    @FunctionalInterface
+    public interface EntryConsumer {
+        void accept(long key, int value);
+    }
+
+    private long[] keys;
+    // value + 1, so that 0 marks an empty slot
+    private int[] values;
+    private int size;
+
+    public LongIntMap() {
+        this(MIN_CAPACITY);
+    }
+
+    public LongIntMap(int expectedSize) {
+        int capacity = MIN_CAPACITY;
+        while (capacity * 3L / 4 < expectedSize) {
+            capacity <<= 1;
+        }
+        keys = new long[capacity];
+        values = new int[capacity];
+    }
+
+    /**
+     * Makes a map from tables that came from {@link #getKeyTable} and
+     * {@link #getValueTable}, such as when restoring a saved map.
+     */
+    public LongIntMap(long[] keys, int[] values, int size) {
+        if (keys.length != values.length || Integer.bitCount(keys.length) != 1
+                || size > keys.length * 3L / 4) {
+            throw new IllegalArgumentException("not a valid table");
+        }
+        this.keys = keys;
+        this.values = values;
+        this.size = size;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /**
+     * @return the key table, for saving the map as is
+     */
+    public long[] getKeyTable() {
+        return keys;
+    }
+
+    /**
+     * @return the value table, for saving the map as is
+     */
+    public int[] getValueTable() {
+        return values;
+    }
+
+    /**
+     * Returns the value for the given key, or {@link #NO_VALUE} if
+     * there is none.
+     */
+    public int get(long key) {
+        int mask = keys.length - 1;
+        for (int i = hash(key) & mask; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                return values[i] - 1;
+            }
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Maps the given key to the given value, returning the previous
+     * value, or {@link #NO_VALUE} if there was none.
+     */
+    public int put(long key, int value) {
+        if (value < 0) {
+            throw new IllegalArgumentException("negative value: " + value);
+        }
+        int mask = keys.length - 1;
+        int i = hash(key) & mask;
+        for (; values[i] != 0; i = (i + 1) & mask) {
+            if (keys[i] == key) {
+                int old = values[i] - 1;
+                values[i] = value + 1;
+                return old;
+            }
+        }
+        keys[i] = key;
+        values[i] = value + 1;
+        if (++size > keys.length * 3L / 4) {
+            grow();
+        }
+        return NO_VALUE;
+    }
+
+    /**
+     * Calls the given consumer for each entry, in no particular order.
+     */
+    public void forEach(EntryConsumer consumer) {
+        for (int i = 0; i < keys.length; i++) {
+            if (values[i] != 0) {
+                consumer.accept(keys[i], values[i] - 1);
+            }
+        }
+    }
+
+    private void grow() {
+        long[] oldKeys = keys;
+        int[] oldValues = values;
+        keys = new long[oldKeys.length * 2];
+        values = new int[oldValues.length * 2];
+        int mask = keys.length - 1;
+        for (int j = 0; j < oldKeys.length; j++) {
+            if (oldValues[j] != 0) {
+                int i = hash(oldKeys[j]) & mask;
+                while (values[i] != 0) {
+                    i = (i + 1) & mask;
+                }
+                keys[i] = oldKeys[j];
+                values[i] = oldValues[j];
+            }
+        }
+    }
+
+    // Object ids are usually addresses, so the low bits carry little
+    // information; mix all of them in (this is MurmurHash3's finalizer).
+    private static int hash(long key) {
+        key ^= key >>> 33;
+        key *= 0xff51afd7ed558ccdL;
+        key ^= key >>> 33;
+        key *= 0xc4ceb9fe1a85ec53L;
+        key ^= key >>> 33;
+        return (int) key;
+    }
+}
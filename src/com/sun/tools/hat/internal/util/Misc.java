@@ -142,14 +142,10 @@ public class Misc {
     }
 
     public static ImmutableSet<JavaHeapObject> getReferees(
-            Iterable<JavaHeapObject> instances, final Predicate<JavaHeapObject> filter) {
-        final ImmutableSet.Builder<JavaHeapObject> builder = ImmutableSet.builder();
+            Iterable<JavaHeapObject> instances, Predicate<JavaHeapObject> filter) {
+        ImmutableSet.Builder<JavaHeapObject> builder = ImmutableSet.builder();
         for (JavaHeapObject instance : instances) {
-            instance.visitReferencedObjects(obj -> {
-                if (filter.apply(obj)) {
-                    builder.add(obj);
-                }
-            });
+            builder.addAll(Sets.filter(instance.getReferees(), filter));
         }
         return builder.build();
     }
@@ -227,16 +227,13 @@ function wrapJavaObject(thing) {
 
     // returns wrapper for Java instances
     function JavaObjectWrapper(instance) {
-        var things = instance.fields;
-        var fields = instance.clazz.fieldsForInstance;
-        var fieldsByName = {};
-        for (var i = 0; i < fields.length; ++i) {
-            fieldsByName[fields[i].name] = things[i];
-        }
+        var clazz = instance.clazz;
 
-        // instance fields can be accessed in natural syntax
+        // instance fields can be accessed in natural syntax; each one
+        // is read from the heap dump only when asked for
         return new JSAdapter() {
             __getIds__ : function() {
+                    var fields = clazz.fieldsForInstance;
                     var res = [];
                     for (var i = 0; i < fields.length; ++i) {
                         res.push(fields[i].name);
@@ -244,12 +241,13 @@ function wrapJavaObject(thing) {
                     return res;
             },
             __has__ : function(name) {
-                    return fieldsByName.hasOwnProperty(name) || name == 'class' ||
+                    return clazz.getLastFieldSlot(name) != -1 || name == 'class' ||
                            name == 'toString' || name == 'wrapped-object';
             },
             __get__ : function(name) {
-                    if (fieldsByName.hasOwnProperty(name)) {
-                        return wrapJavaValue(fieldsByName[name]);
+                    var slot = clazz.getLastFieldSlot(name);
+                    if (slot != -1) {
+                        return wrapJavaValue(clazz.getFieldValue(instance, slot));
                     } else if (name == 'class') {
                         return wrapJavaValue(instance.clazz);
                     } else if (name == 'wrapped-object') {
@@ -838,18 +836,10 @@ function referees(jobject) {
     jobject = unwrapJavaObject(jobject);
     if (jobject != undefined) {
         try {
-            jobject.visitReferencedObjects(
-                new hatPkg.model.JavaHeapObjectVisitor() {
-                    visit: function(other) {
-                        res.push(wrapJavaValue(other));
-                    },
-                    exclude: function(clazz, field) {
-                        return false;
-                    },
-                    mightExclude: function() {
-                        return false;
-                    }
-                });
+            var refs = jobject.referees.iterator();
+            while (refs.hasNext()) {
+                res.push(wrapJavaValue(refs.next()));
+            }
         } catch (e) {
             println("referees: " + jobject + ", " + e);
         }